@@ -81,6 +81,13 @@ interface UserData {
   streakMultiplier: number
 }
 
+// Pushed on /api/gamify/me/stream as "award" events
+interface AwardUpdate {
+  points: number
+  totalPoints: number
+  badges: string[]
+}
+
 // Mock API function - replace with your actual API call
 const fetchUserData = async (): Promise<UserData> => {
   // Simulate API call
@@ -102,6 +109,8 @@ export default function Dashboard() {
   const [userData, setUserData] = useState<UserData | null>(null)
   const [loading, setLoading] = useState(true)
   const [error, setError] = useState<string | null>(null)
+  const [newBadges, setNewBadges] = useState(0)
+  const [rank, setRank] = useState<number | null>(null)
 
   useEffect(() => {
     const loadUserData = async () => {
@@ -118,6 +127,24 @@ export default function Dashboard() {
     }
 
     loadUserData()
+
+    // live updates instead of polling; "resync" means some were dropped, so reload
+    // no leaderboard on this page, so only award and rank events are sent
+    const source = new EventSource("/api/gamify/me/stream?leaderboard=false")
+    source.addEventListener("award", (event) => {
+      const award: AwardUpdate = JSON.parse((event as MessageEvent).data)
+      setUserData((current) => (current ? { ...current, totalPoints: award.totalPoints } : current))
+      setNewBadges((count) => count + award.badges.length)
+    })
+    source.addEventListener("rank", (event) => {
+      setRank(JSON.parse((event as MessageEvent).data).rank)
+    })
+    source.addEventListener("resync", () => {
+      fetchUserData()
+        .then(setUserData)
+        .catch((err) => console.error("API Error:", err))
+    })
+    return () => source.close()
   }, [])
 
   const handleDrawerToggle = () => {
@@ -227,7 +254,7 @@ export default function Dashboard() {
             </Box>
 
             <IconButton color="inherit">
-              <Badge badgeContent={4} color="secondary">
+              <Badge badgeContent={newBadges} color="secondary">
                 <NotificationsIcon />
               </Badge>
             </IconButton>
@@ -296,6 +323,11 @@ export default function Dashboard() {
                 <Typography variant="body1" sx={{ color: "text.secondary", fontWeight: 300 }}>
                   {userData?.department}
                 </Typography>
+                {rank !== null && (
+                  <Typography variant="body2" sx={{ color: "text.secondary", mt: 1 }}>
+                    Rank #{rank}
+                  </Typography>
+                )}
               </Paper>
 
               {/* Right Side - 80% - Stats Grid */}
@@ -22,17 +22,35 @@ const fetchGamification = async (id) => {
   return res.json();
 };
 
+// other users' profiles have no stream to follow, so they are polled
+const POLL_INTERVAL_MS = 30000;
+
+const fetchMe = async () => {
+  const res = await fetch('/api/gamify/me');
+  if (!res.ok) throw new Error('Failed to fetch');
+  return res.json();
+};
+
 export default function GamificationProfile() {
   const router = useRouter();
   const { id } = router.query;
 
+  const { data: me } = useQuery(['me'], fetchMe, { staleTime: Infinity });
+  const isSelf = !!id && me?.userId === id;
+
+  // your own profile is kept fresh by the live stream below rather than by refetching
   const { data, isLoading, error, refetch } = useQuery(
     ['gamification', id],
     () => fetchGamification(id),
-    { enabled: !!id }
+    {
+      enabled: !!id,
+      refetchInterval: isSelf ? false : POLL_INTERVAL_MS,
+      refetchOnWindowFocus: !isSelf,
+    }
   );
 
   const [points, setPoints] = useState(0);
+  const [rank, setRank] = useState(null);
   const [toastOpen, setToastOpen] = useState(false);
 
   useEffect(() => {
@@ -41,6 +59,23 @@ export default function GamificationProfile() {
     }
   }, [data]);
 
+  useEffect(() => {
+    if (!isSelf) return undefined;
+    // this page shows no leaderboard, so only award and rank events are sent
+    const source = new EventSource('/api/gamify/me/stream?leaderboard=false');
+    source.addEventListener('award', (event) => {
+      const award = JSON.parse(event.data);
+      setPoints(award.totalPoints);
+      if (award.badges.length > 0) refetch();
+    });
+    source.addEventListener('rank', (event) => {
+      setRank(JSON.parse(event.data).rank);
+    });
+    // updates were dropped while this tab was slow; reload once instead
+    source.addEventListener('resync', () => refetch());
+    return () => source.close();
+  }, [isSelf, refetch]);
+
   const handleEarnPoint = () => {
     setPoints((p) => p + 1);
     setToastOpen(true);
@@ -81,6 +116,11 @@ export default function GamificationProfile() {
           <Box display="flex" flexDirection="column" justifyContent="center" alignItems="center" height="100%">
             <Avatar src={data.avatarUrl} alt={data.name} sx={{ width: 120, height: 120, mb: 2 }} />
             <Typography variant="h6">{data.name}</Typography>
+            {rank && (
+              <Typography variant="body2" color="text.secondary">
+                Rank #{rank}
+              </Typography>
+            )}
             <Box mt={2}>
               <Button variant="contained" onClick={handleEarnPoint}>Earn Point</Button>
             </Box>
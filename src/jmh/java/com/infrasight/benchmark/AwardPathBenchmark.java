@@ -0,0 +1,106 @@
+package com.infrasight.benchmark;
+
+import com.infrasight.data.PointsRequest;
+import com.infrasight.db.model.GamifyConfigDoc;
+import com.infrasight.db.model.UserGamify;
+import com.infrasight.db.repository.GamifyConfigRepository;
+import com.infrasight.db.repository.PointsLogRepository;
+import com.infrasight.db.repository.UserGamifyRepository;
+import com.infrasight.service.GamificationCalculator;
+import com.infrasight.service.GamificationService;
+import com.infrasight.service.LiveUpdates;
+import com.infrasight.service.MongoConfigService;
+import com.infrasight.service.PointsLogAppender;
+import com.infrasight.service.RankIndex;
+import com.infrasight.service.RecentActionFilter;
+import com.infrasight.service.UserLanes;
+import com.infrasight.service.UserSummaryCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full command award through {@link GamificationService} with in-memory repositories,
+ * so the numbers reflect scoring, badge evaluation and object churn but not Mongo.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AwardPathBenchmark {
+
+    @Param({"10", "200"})
+    int badgeCount;
+
+    @Param({"1", "50"})
+    int servers;
+
+    private GamificationService service;
+    private PointsRequest request;
+    private long sequence;
+
+    @Setup
+    public void setUp() {
+        GamifyConfigDoc config = BenchmarkFixtures.defaultConfig();
+        config.setBadges(BenchmarkFixtures.badges(badgeCount));
+
+        GamifyConfigRepository configRepo = BenchmarkFixtures.stubRepository(GamifyConfigRepository.class,
+                (method, args) -> Optional.of(config));
+        MongoConfigService configService = new MongoConfigService(configRepo, null);
+        configService.refresh(true);
+
+        UserGamify user = new UserGamify();
+        user.setUserId("bench-user");
+        user.setStreakDays(5);
+
+        UserGamifyRepository userRepo = BenchmarkFixtures.stubRepository(UserGamifyRepository.class,
+                (method, args) -> {
+                    switch (method) {
+                        case "findByUserId":
+                            return Optional.of(user);
+                        case "recordActivity":
+                            return user;
+                        case "grantBadge":
+                        case "replaceServers":
+                            return Boolean.TRUE;
+                        default:
+                            return args[0];
+                    }
+                });
+        PointsLogRepository logRepo = BenchmarkFixtures.stubRepository(PointsLogRepository.class,
+                (method, args) -> method.equals("existsByActionUuid") ? Boolean.FALSE : args[0]);
+
+        RankIndex ranks = new RankIndex(null, false);
+        service = new GamificationService(configService, userRepo, logRepo, new GamificationCalculator(),
+                new PointsLogAppender(logRepo, null), new RecentActionFilter(1_000_000, 0.01, Duration.ofMinutes(10)),
+                new UserLanes(256, Duration.ofSeconds(2), null),
+                new UserSummaryCache(null, 100_000, Duration.ofSeconds(30), false, null), ranks,
+                new LiveUpdates(ranks, 64, 10, Duration.ofMillis(500), Duration.ofMinutes(30), Duration.ofSeconds(15), 1, null));
+        request = BenchmarkFixtures.command("uuid", servers);
+    }
+
+    @Benchmark
+    public UserGamify awardCommandPoints() {
+        request.setActionUuid("uuid-" + sequence++);
+        return service.awardCommandPoints(request, "bench-user");
+    }
+
+    @Benchmark
+    public UserGamify awardLoginPoints() {
+        return service.awardLoginPoints("bench-user");
+    }
+}
@@ -0,0 +1,66 @@
+package com.infrasight.benchmark;
+
+import com.infrasight.db.model.GamifyConfigDoc.BadgeDef;
+import com.infrasight.service.BadgeContext;
+import com.infrasight.service.BadgeRuleSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluates every unearned badge condition for a mid-range user, as the award path does.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BadgeEvaluationBenchmark {
+
+    @Param({"10", "50", "200"})
+    int badgeCount;
+
+    private Map<String, BadgeDef> defs;
+    private BadgeRuleSet rules;
+    private BadgeContext ctx;
+    private final Set<String> owned = Collections.emptySet();
+
+    @Setup
+    public void setUp() {
+        defs = BenchmarkFixtures.badges(badgeCount);
+        rules = BadgeRuleSet.compile(defs);
+        ctx = new BadgeContext();
+        ctx.setUniqueServers(40);
+        ctx.setTotalCommands(25);
+        ctx.setProdCommands(5);
+        ctx.setStreakDays(3);
+        ctx.setTotalPoints(1200);
+    }
+
+    @Benchmark
+    public int evaluateBadges() {
+        List<String> earned = new ArrayList<>(0);
+        return rules.evaluate(ctx, owned, earned);
+    }
+
+    @Benchmark
+    public BadgeRuleSet compileBadges() {
+        return BadgeRuleSet.compile(defs);
+    }
+}
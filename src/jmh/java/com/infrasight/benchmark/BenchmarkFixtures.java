@@ -0,0 +1,144 @@
+package com.infrasight.benchmark;
+
+import com.infrasight.data.PointsRequest;
+import com.infrasight.db.model.GamifyConfigDoc;
+import com.infrasight.db.model.GamifyConfigDoc.BadgeDef;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+/**
+ * Shared inputs for the benchmarks: the seeded default configuration,
+ * synthetic badge sets and command requests.
+ */
+final class BenchmarkFixtures {
+
+    private static final String[] COUNTERS = {"uniqueServers", "totalCommands", "prodCommands", "streakDays"};
+
+    private BenchmarkFixtures() {
+    }
+
+    /** Same values as {@code ConfigSeeder}. */
+    static GamifyConfigDoc defaultConfig() {
+        GamifyConfigDoc doc = new GamifyConfigDoc();
+        doc.setId("default");
+        doc.setBaseScore(10);
+        doc.setLoginPoints(5);
+        doc.setWelcomeBackBonus(20);
+        doc.setWelcomeBackGap(7);
+
+        Map<String, Double> cmdWeight = new HashMap<>();
+        cmdWeight.put("default", 1.0);
+        cmdWeight.put("param", 1.2);
+        doc.setCommandWeight(cmdWeight);
+
+        Map<String, Double> paramWeight = new HashMap<>();
+        paramWeight.put("simple", 1.0);
+        paramWeight.put("regex", 3.0);
+        paramWeight.put("wildcard", 2.0);
+        doc.setParameterWeight(paramWeight);
+
+        Map<String, Double> tierWeight = new HashMap<>();
+        tierWeight.put("dev", 0.8);
+        tierWeight.put("udt", 1.0);
+        tierWeight.put("prod", 1.2);
+        doc.setAccessTierWeight(tierWeight);
+
+        GamifyConfigDoc.ServerScaling scaling = new GamifyConfigDoc.ServerScaling();
+        scaling.setFunction("log");
+        scaling.setLogBase(2);
+        doc.setServerScaling(scaling);
+
+        Map<Integer, Double> streakMult = new HashMap<>();
+        streakMult.put(1, 1.0);
+        streakMult.put(3, 1.1);
+        streakMult.put(7, 1.2);
+        streakMult.put(14, 1.35);
+        streakMult.put(30, 1.5);
+        doc.setStreakMultiplier(streakMult);
+
+        doc.setBadges(new HashMap<>());
+        return doc;
+    }
+
+    /**
+     * Badge definitions spread over the four counters with increasing thresholds;
+     * every fourth one is a compound condition.
+     */
+    static Map<String, BadgeDef> badges(int count) {
+        Map<String, BadgeDef> badges = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            String counter = COUNTERS[i % COUNTERS.length];
+            int threshold = 10 * (i + 1);
+            BadgeDef def = new BadgeDef();
+            def.setName("Badge " + i);
+            def.setBonus(25);
+            def.setCondition(i % 4 == 3
+                    ? counter + " >= " + threshold + " and totalCommands > " + threshold / 2
+                    : counter + " >= " + threshold);
+            badges.put("badge_" + i, def);
+        }
+        return badges;
+    }
+
+    static List<String> parameters(String mix, int count) {
+        List<String> params = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            switch (mix) {
+                case "wildcard":
+                    params.add("web-" + i + "-*");
+                    break;
+                case "regex":
+                    params.add("^db[0-9]{2}-" + i + "$");
+                    break;
+                case "mixed":
+                    params.add(i % 3 == 0 ? "host" + i : i % 3 == 1 ? "app-*" : "^api|svc$");
+                    break;
+                default:
+                    params.add("hostname-" + i);
+                    break;
+            }
+        }
+        return params;
+    }
+
+    static PointsRequest command(String uuid, int servers) {
+        PointsRequest request = new PointsRequest();
+        request.setEvent("cmd.param");
+        request.setEnvironment("prod");
+        request.setActionUuid(uuid);
+        request.setParameters(parameters("mixed", 3));
+        List<String> hosts = new ArrayList<>(servers);
+        for (int i = 0; i < servers; i++) {
+            hosts.add("srv-" + i + ".corp");
+        }
+        request.setServers(hosts);
+        return request;
+    }
+
+    /**
+     * Minimal in-memory stand-in for a Spring Data repository interface. Calls
+     * are dispatched by method name; anything unhandled returns null.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T stubRepository(Class<T> type, BiFunction<String, Object[], Object> handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        switch (method.getName()) {
+                            case "equals":
+                                return proxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            default:
+                                return type.getSimpleName() + "Stub";
+                        }
+                    }
+                    return handler.apply(method.getName(), args);
+                });
+    }
+}
@@ -0,0 +1,28 @@
+package com.infrasight.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the gamification benchmarks with the GC profiler attached so every
+ * result reports ops/s alongside allocation rate ({@code gc.alloc.rate.norm}).
+ * <p>
+ * An optional first argument narrows the run to benchmarks matching that regex,
+ * e.g. {@code ScoringBenchmark} or {@code AwardPath.*Command}.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(args.length > 0 ? args[0] : "com\\.infrasight\\.benchmark\\..*")
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
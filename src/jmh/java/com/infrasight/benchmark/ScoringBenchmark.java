@@ -0,0 +1,79 @@
+package com.infrasight.benchmark;
+
+import com.infrasight.service.ScoringPlan;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-factor scoring costs: parameter complexity, streak multiplier and server scaling.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScoringBenchmark {
+
+    private ScoringPlan plan;
+
+    @Setup
+    public void setUp() {
+        plan = ScoringPlan.compile(BenchmarkFixtures.defaultConfig());
+    }
+
+    @State(Scope.Benchmark)
+    public static class Parameters {
+        @Param({"simple", "wildcard", "regex", "mixed"})
+        String mix;
+
+        @Param({"1", "5", "20"})
+        int count;
+
+        List<String> values;
+
+        @Setup
+        public void setUp() {
+            values = BenchmarkFixtures.parameters(mix, count);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Streak {
+        @Param({"0", "5", "29", "365"})
+        int days;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Servers {
+        @Param({"1", "10", "100", "1000", "10000"})
+        int count;
+    }
+
+    @Benchmark
+    public int complexityScore(Parameters p) {
+        return plan.complexityScore(p.values);
+    }
+
+    @Benchmark
+    public double streakMultiplier(Streak s) {
+        return plan.streakMultiplier(s.days);
+    }
+
+    @Benchmark
+    public double serverScale(Servers s) {
+        return plan.serverScale(s.count);
+    }
+}
@@ -3,6 +3,7 @@ package com.infrasight.configuration;
 import com.infrasight.db.model.GamifyConfigDoc;
 import com.infrasight.db.model.GamifyConfigDoc.ServerScaling;
 import com.infrasight.db.repository.GamifyConfigRepository;
+import com.infrasight.service.MongoConfigService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Component;
@@ -19,6 +20,7 @@ import java.util.Map;
 public class ConfigSeeder implements CommandLineRunner {
 
     private final GamifyConfigRepository repo;
+    private final MongoConfigService configService;
 
     @Override
     public void run(String... args) {
@@ -28,6 +30,7 @@ public class ConfigSeeder implements CommandLineRunner {
 
         GamifyConfigDoc doc = new GamifyConfigDoc();
         doc.setId("default");
+        doc.setVersion(1);
         doc.setBaseScore(10);
         doc.setLoginPoints(5);
         doc.setWelcomeBackBonus(20);
@@ -64,5 +67,8 @@ public class ConfigSeeder implements CommandLineRunner {
         doc.setStreakMultiplier(streakMult);
 
         repo.save(doc);
+
+        // publish right away instead of waiting for the next version poll
+        configService.refresh(true);
     }
 }
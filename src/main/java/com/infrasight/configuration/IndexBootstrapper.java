@@ -0,0 +1,128 @@
+package com.infrasight.configuration;
+
+import com.infrasight.db.model.DepartmentWeekPoints;
+import com.infrasight.db.model.PointsLog;
+import com.infrasight.db.model.PointsLogDay;
+import com.infrasight.db.model.RescoreDiff;
+import com.infrasight.db.model.ServerEntry;
+import com.infrasight.db.model.UserDayPoints;
+import com.infrasight.db.model.UserGamify;
+import com.infrasight.db.model.UserWeekPoints;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Ensures the declared index set at startup and reports drift.
+ * <p>
+ * This list is the single source of truth for indexes; models carry no index
+ * annotations and automatic index creation stays off. Every declared index that is
+ * missing is created (unless {@code gamify.indexes.create} is off, in which case it is
+ * only reported), and indexes present in Mongo but not declared here are logged so
+ * they can be reviewed and dropped.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class IndexBootstrapper {
+
+    static final Map<Class<?>, List<Index>> INDEXES = new LinkedHashMap<>();
+
+    static {
+        declare(UserGamify.class,
+                new Index("userId", Sort.Direction.ASC).named("userId_unique").unique(),
+                new Index("department", Sort.Direction.ASC).on("totalPoints", Sort.Direction.DESC)
+                        .named("department_totalPoints"));
+        declare(PointsLog.class,
+                new Index("timestamp", Sort.Direction.ASC).on("userId", Sort.Direction.ASC)
+                        .named("timestamp_userId"),
+                // _id last so rescoring's (userId, timestamp, _id) stream needs no in-memory sort
+                new Index("userId", Sort.Direction.ASC).on("timestamp", Sort.Direction.ASC)
+                        .on("_id", Sort.Direction.ASC).named("userId_timestamp"),
+                new Index("actionUuid", Sort.Direction.ASC).named("actionUuid_unique").unique().sparse());
+        declare(PointsLogDay.class,
+                new Index("day", Sort.Direction.ASC).on("userId", Sort.Direction.ASC).named("day_userId"),
+                new Index("userId", Sort.Direction.ASC).on("day", Sort.Direction.ASC)
+                        .on("_id", Sort.Direction.ASC).named("userId_day"),
+                // multikey: unique across buckets, which is what rejects a repeated action;
+                // sparse so compacted buckets without entries are left out
+                new Index("entries.actionUuid", Sort.Direction.ASC).named("entries_actionUuid_unique")
+                        .unique().sparse());
+        declare(UserDayPoints.class,
+                new Index("userId", Sort.Direction.ASC).on("day", Sort.Direction.ASC).named("userId_day"),
+                new Index("day", Sort.Direction.ASC).on("userId", Sort.Direction.ASC).named("day_userId"));
+        // match the weekly leaderboards' sort, so a page is read straight off the index
+        declare(UserWeekPoints.class,
+                new Index("weekStart", Sort.Direction.ASC).on("points", Sort.Direction.DESC)
+                        .on("userId", Sort.Direction.ASC).named("weekStart_points"),
+                new Index("weekStart", Sort.Direction.ASC).on("department", Sort.Direction.ASC)
+                        .on("points", Sort.Direction.DESC).on("userId", Sort.Direction.ASC)
+                        .named("weekStart_department_points"));
+        declare(DepartmentWeekPoints.class,
+                new Index("weekStart", Sort.Direction.ASC).on("points", Sort.Direction.DESC)
+                        .named("weekStart_points"));
+        declare(ServerEntry.class,
+                new Index("serverId", Sort.Direction.ASC).named("serverId_unique").unique());
+        declare(RescoreDiff.class,
+                new Index("runId", Sort.Direction.ASC).on("diff", Sort.Direction.DESC).named("runId_diff"));
+    }
+
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${gamify.indexes.create:true}")
+    private boolean create = true;
+
+    @PostConstruct
+    public void ensureIndexes() {
+        for (Map.Entry<Class<?>, List<Index>> entry : INDEXES.entrySet()) {
+            IndexOperations ops = mongoTemplate.indexOps(entry.getKey());
+            String collection = mongoTemplate.getCollectionName(entry.getKey());
+            Set<String> existing = ops.getIndexInfo().stream().map(IndexInfo::getName).collect(Collectors.toSet());
+
+            List<String> declared = new ArrayList<>();
+            for (Index index : entry.getValue()) {
+                String name = index.getIndexOptions().getString("name");
+                declared.add(name);
+                if (existing.contains(name)) {
+                    continue;
+                }
+                if (!create) {
+                    log.warn("Missing index {}.{} {}", collection, name, index.getIndexKeys().toJson());
+                    continue;
+                }
+                try {
+                    ops.ensureIndex(index);
+                    log.info("Created index {}.{} {}", collection, name, index.getIndexKeys().toJson());
+                } catch (RuntimeException e) {
+                    // e.g. duplicates blocking a unique index, or the same keys under another name
+                    log.error("Could not create index {}.{} {}", collection, name, index.getIndexKeys().toJson(), e);
+                }
+            }
+
+            for (String name : existing) {
+                if (!"_id_".equals(name) && !declared.contains(name)) {
+                    log.warn("Undeclared index {}.{}; add it to IndexBootstrapper or drop it", collection, name);
+                }
+            }
+        }
+    }
+
+    private static void declare(Class<?> type, Index... indexes) {
+        INDEXES.put(type, Arrays.asList(indexes));
+    }
+}
@@ -0,0 +1,12 @@
+package com.infrasight.configuration;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Enables {@code @Scheduled} methods (config polling, batch jobs).
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
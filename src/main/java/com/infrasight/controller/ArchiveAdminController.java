@@ -0,0 +1,29 @@
+package com.infrasight.controller;
+
+import com.infrasight.db.model.JobCheckpoint;
+import com.infrasight.service.PointsLogCompactor;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping("/api/gamify/admin/archive")
+@RequiredArgsConstructor
+public class ArchiveAdminController {
+
+    private final PointsLogCompactor compactor;
+
+    /**
+     * Compacts every day past the retention window now instead of waiting for the schedule.
+     */
+    @PostMapping("/compact")
+    public ResponseEntity<Void> compact() {
+        return ResponseEntity.status(compactor.start() ? HttpStatus.ACCEPTED : HttpStatus.CONFLICT).build();
+    }
+
+    @GetMapping("/compact")
+    public ResponseEntity<JobCheckpoint> compactStatus() {
+        return ResponseEntity.of(compactor.getStatus());
+    }
+}
@@ -0,0 +1,41 @@
+package com.infrasight.controller;
+
+import com.infrasight.db.model.JobCheckpoint;
+import com.infrasight.service.BadgeBackfillService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@Slf4j
+@RestController
+@RequestMapping("/api/gamify/admin/badges")
+@RequiredArgsConstructor
+public class BadgeAdminController {
+
+    private final BadgeBackfillService backfillService;
+
+    /**
+     * Grants the given badges to every existing user that already qualifies.
+     * Rerunning with the same codes resumes from the last checkpoint unless {@code restart} is set.
+     */
+    @PostMapping("/backfill")
+    public ResponseEntity<Void> backfill(@RequestParam List<String> codes,
+                                         @RequestParam(defaultValue = "false") boolean restart) {
+        try {
+            boolean started = backfillService.start(codes, restart);
+            return ResponseEntity.status(started ? HttpStatus.ACCEPTED : HttpStatus.CONFLICT).build();
+        } catch (IllegalArgumentException e) {
+            log.warn("Rejected badge backfill for {}: {}", codes, e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @GetMapping("/backfill")
+    public ResponseEntity<JobCheckpoint> backfillStatus(@RequestParam List<String> codes) {
+        return ResponseEntity.of(backfillService.getStatus(codes));
+    }
+}
@@ -1,12 +1,26 @@
 package com.infrasight.controller;
 
+import com.infrasight.data.BadgeProgress;
+import com.infrasight.data.DailyPoints;
 import com.infrasight.data.PointsRequest;
+import com.infrasight.data.UserSummary;
+import com.infrasight.db.model.PointsLog;
 import com.infrasight.db.model.UserGamify;
 import com.infrasight.service.GamificationService;
+import com.infrasight.service.LiveUpdates;
+import com.infrasight.service.PointsHistoryService;
+import com.infrasight.service.UserLanes;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.time.LocalDate;
+import java.util.List;
 
 @Slf4j
 @RestController
@@ -15,6 +29,8 @@ import org.springframework.web.bind.annotation.*;
 public class GamificationController {
     
     private final GamificationService gamificationService;
+    private final PointsHistoryService historyService;
+    private final LiveUpdates liveUpdates;
 
     @PostMapping("/login")
     public ResponseEntity<UserGamify> awardLoginPoints() {
@@ -24,6 +40,9 @@ public class GamificationController {
         try {
             UserGamify result = gamificationService.awardLoginPoints(userId);
             return ResponseEntity.ok(result);
+        } catch (UserLanes.BusyException e) {
+            log.warn("Rejected award for busy user: {}", userId);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
         } catch (Exception e) {
             log.error("Error awarding login points for user: {}", userId, e);
             return ResponseEntity.internalServerError().build();
@@ -38,6 +57,9 @@ public class GamificationController {
         try {
             UserGamify result = gamificationService.awardCommandPoints(request, userId);
             return ResponseEntity.ok(result);
+        } catch (UserLanes.BusyException e) {
+            log.warn("Rejected award for busy user: {}", userId);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
         } catch (Exception e) {
             log.error("Error awarding command points for user: {}", userId, e);
             return ResponseEntity.internalServerError().build();
@@ -45,16 +67,80 @@ public class GamificationController {
     }
 
     @GetMapping("/me")
-    public ResponseEntity<UserGamify> getUserGamification() {
+    public ResponseEntity<UserSummary> getUserGamification() {
         // In a real application, you would extract userId from authentication context
         String userId = "default-user"; // Placeholder for authenticated user ID
         
         try {
-            UserGamify result = gamificationService.getUserGamify(userId);
-            return ResponseEntity.ok(result);
+            return ResponseEntity.ok(gamificationService.getUserSummary(userId));
         } catch (Exception e) {
             log.error("Error retrieving gamification data for user: {}", userId, e);
             return ResponseEntity.internalServerError().build();
         }
     }
+
+    /**
+     * Server-sent events replacing polling of {@code /me} and the leaderboard:
+     * {@code award} (points summed over a burst, new total, new badges), {@code rank}
+     * (the user's entry when it moves), {@code leaderboard} (top-N changes, unless
+     * {@code leaderboard=false}) and {@code resync}, after which the client should refetch.
+     */
+    @GetMapping(path = "/me/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamUpdates(@RequestParam(defaultValue = "true") boolean leaderboard) {
+        // In a real application, you would extract userId from authentication context
+        String userId = "default-user"; // Placeholder for authenticated user ID
+
+        return liveUpdates.subscribe(userId, leaderboard);
+    }
+
+    @GetMapping("/me/progress")
+    public ResponseEntity<List<BadgeProgress>> getBadgeProgress() {
+        // In a real application, you would extract userId from authentication context
+        String userId = "default-user"; // Placeholder for authenticated user ID
+
+        try {
+            return ResponseEntity.ok(gamificationService.getBadgeProgress(userId));
+        } catch (Exception e) {
+            log.error("Error retrieving badge progress for user: {}", userId, e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Points per day between {@code from} and {@code to} (inclusive; default the last 30 days).
+     */
+    @GetMapping("/me/daily")
+    public ResponseEntity<List<DailyPoints>> getDailyPoints(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        // In a real application, you would extract userId from authentication context
+        String userId = "default-user"; // Placeholder for authenticated user ID
+
+        LocalDate end = to != null ? to : LocalDate.now();
+        try {
+            return ResponseEntity.ok(historyService.getDailyPoints(userId, from != null ? from : end.minusDays(29), end));
+        } catch (Exception e) {
+            log.error("Error retrieving daily points for user: {}", userId, e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Individual points_log entries between {@code from} and {@code to} (inclusive; default the last 7 days).
+     */
+    @GetMapping("/me/log")
+    public ResponseEntity<List<PointsLog>> getAuditLog(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        // In a real application, you would extract userId from authentication context
+        String userId = "default-user"; // Placeholder for authenticated user ID
+
+        LocalDate end = to != null ? to : LocalDate.now();
+        try {
+            return ResponseEntity.ok(historyService.getAuditLog(userId, from != null ? from : end.minusDays(6), end));
+        } catch (Exception e) {
+            log.error("Error retrieving points log for user: {}", userId, e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
 }
@@ -0,0 +1,98 @@
+package com.infrasight.controller;
+
+import com.infrasight.data.LeaderboardEntry;
+import com.infrasight.data.LeaderboardPage;
+import com.infrasight.data.WeeklyLeaderboardEntry;
+import com.infrasight.db.model.DepartmentWeekPoints;
+import com.infrasight.service.LeaderboardService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/gamify/leaderboard")
+@RequiredArgsConstructor
+public class LeaderboardController {
+
+    private final LeaderboardService leaderboardService;
+
+    /**
+     * All-time leaderboard by total points, {@code limit} users from position
+     * {@code offset}, or after {@code cursor} (a previous page's {@code next}).
+     * {@code department} ranks within one department.
+     */
+    @GetMapping
+    public ResponseEntity<LeaderboardPage<LeaderboardEntry>> getLeaderboard(
+            @RequestParam(required = false) String department,
+            @RequestParam(defaultValue = "0") long offset,
+            @RequestParam(defaultValue = "20") int limit,
+            @RequestParam(required = false) String cursor) {
+        try {
+            return ResponseEntity.ok(leaderboardService.getLeaderboard(department, Math.max(0, offset),
+                    Math.max(1, Math.min(limit, 100)), cursor));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @GetMapping("/users/{userId}")
+    public ResponseEntity<LeaderboardEntry> getRank(@PathVariable String userId,
+                                                    @RequestParam(required = false) String department) {
+        return ResponseEntity.of(leaderboardService.getRank(department, userId));
+    }
+
+    /**
+     * The user with up to {@code k} neighbours above and below them in the all-time
+     * ranking, or in their department's.
+     */
+    @GetMapping("/users/{userId}/around")
+    public List<LeaderboardEntry> getAround(@PathVariable String userId,
+                                            @RequestParam(required = false) String department,
+                                            @RequestParam(defaultValue = "5") int k) {
+        return leaderboardService.getAround(department, userId, Math.min(Math.max(0, k), 50));
+    }
+
+    /**
+     * Name search for the search box: users whose name, or a word in it, starts with
+     * {@code q}, case- and accent-insensitively, with their all-time rank.
+     */
+    @GetMapping("/search")
+    public List<LeaderboardEntry> searchByName(@RequestParam String q,
+                                               @RequestParam(required = false) String department,
+                                               @RequestParam(defaultValue = "10") int limit) {
+        return leaderboardService.searchByName(q, department, Math.max(1, Math.min(limit, 50)));
+    }
+
+    /**
+     * Points earned from {@code weekStart} up to, not including, {@code weekEnd}
+     * (default: seven days later). Pages by number, or after {@code cursor} (a previous
+     * page's {@code next}), which stays cheap however deep it goes. {@code department}
+     * counts only that department's users.
+     */
+    @GetMapping("/weekly")
+    public ResponseEntity<LeaderboardPage<WeeklyLeaderboardEntry>> getWeeklyLeaderboard(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate weekStart,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate weekEnd,
+            @RequestParam(required = false) String department,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "20") int size,
+            @RequestParam(required = false) String cursor) {
+        try {
+            return ResponseEntity.ok(leaderboardService.getWeeklyLeaderboard(weekStart,
+                    weekEnd != null ? weekEnd : weekStart.plusDays(7), department, Math.max(0, page),
+                    Math.max(1, Math.min(size, 100)), cursor));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @GetMapping("/departments/weekly")
+    public List<DepartmentWeekPoints> getDepartmentWeek(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate weekStart) {
+        return leaderboardService.getDepartmentWeek(weekStart);
+    }
+}
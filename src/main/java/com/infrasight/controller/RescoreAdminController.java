@@ -0,0 +1,62 @@
+package com.infrasight.controller;
+
+import com.infrasight.data.RescoreRequest;
+import com.infrasight.db.model.RescoreDiff;
+import com.infrasight.db.model.RescoreRun;
+import com.infrasight.db.repository.RescoreDiffRepository;
+import com.infrasight.service.RescoringService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+@Slf4j
+@RestController
+@RequestMapping("/api/gamify/admin/rescore")
+@RequiredArgsConstructor
+public class RescoreAdminController {
+
+    private final RescoringService rescoringService;
+    private final RescoreDiffRepository diffRepository;
+
+    /**
+     * Rescores {@code points_log} between {@code from} and {@code to} (inclusive) under the
+     * candidate config. Nothing is changed for users until the run is applied.
+     */
+    @PostMapping
+    public ResponseEntity<RescoreRun> start(@RequestBody RescoreRequest request) {
+        try {
+            RescoreRun run = rescoringService.start(request.getFrom(), request.getTo(), request.getCandidate());
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(run);
+        } catch (IllegalArgumentException e) {
+            log.warn("Rejected rescore request: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @GetMapping("/{runId}")
+    public ResponseEntity<RescoreRun> status(@PathVariable String runId) {
+        return ResponseEntity.of(rescoringService.getRun(runId));
+    }
+
+    /**
+     * Per-user differences, largest gains first.
+     */
+    @GetMapping("/{runId}/diffs")
+    public Page<RescoreDiff> diffs(@PathVariable String runId,
+                                   @RequestParam(defaultValue = "0") int page,
+                                   @RequestParam(defaultValue = "50") int size) {
+        return diffRepository.findByRunId(runId,
+                PageRequest.of(page, Math.min(size, 500), Sort.by(Sort.Direction.DESC, "diff")));
+    }
+
+    @PostMapping("/{runId}/apply")
+    public ResponseEntity<Void> apply(@PathVariable String runId) {
+        boolean started = rescoringService.apply(runId);
+        return ResponseEntity.status(started ? HttpStatus.ACCEPTED : HttpStatus.CONFLICT).build();
+    }
+}
@@ -0,0 +1,36 @@
+package com.infrasight.controller;
+
+import com.infrasight.db.model.JobCheckpoint;
+import com.infrasight.service.PointsRollupRebuilder;
+import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDate;
+
+@RestController
+@RequestMapping("/api/gamify/admin/rollups")
+@RequiredArgsConstructor
+public class RollupAdminController {
+
+    private final PointsRollupRebuilder rebuilder;
+
+    /**
+     * Rebuilds the rollups for the ISO weeks overlapping {@code [from, to]}; by default
+     * everything from the first logged day up to today.
+     */
+    @PostMapping("/rebuild")
+    public ResponseEntity<Void> rebuild(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        boolean started = rebuilder.start(from, to != null ? to : LocalDate.now());
+        return ResponseEntity.status(started ? HttpStatus.ACCEPTED : HttpStatus.CONFLICT).build();
+    }
+
+    @GetMapping("/rebuild")
+    public ResponseEntity<JobCheckpoint> rebuildStatus() {
+        return ResponseEntity.of(rebuilder.getStatus());
+    }
+}
@@ -0,0 +1,16 @@
+package com.infrasight.data;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Awards pushed to a user's live stream since the last one: points summed over the
+ * burst, the total after the latest award, and badges earned in any of them.
+ */
+@Value
+public class AwardUpdate {
+    int points;
+    int totalPoints;
+    List<String> badges;
+}
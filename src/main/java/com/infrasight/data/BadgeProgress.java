@@ -0,0 +1,18 @@
+package com.infrasight.data;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * How far a user is from an unearned threshold badge.
+ */
+@Data
+@AllArgsConstructor
+public class BadgeProgress {
+    private String code;
+    private String name;
+    private String counter;
+    private int current;
+    private int threshold;
+    private int remaining;
+}
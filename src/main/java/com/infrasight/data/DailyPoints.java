@@ -0,0 +1,19 @@
+package com.infrasight.data;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+
+/**
+ * A user's points and event count for one day.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DailyPoints {
+    private LocalDate day;
+    private int points;
+    private int events;
+}
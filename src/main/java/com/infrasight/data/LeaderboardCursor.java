@@ -0,0 +1,36 @@
+package com.infrasight.data;
+
+import lombok.Value;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position on a leaderboard ordered by points desc, then userId: the last row a client
+ * has seen. Handed out as an opaque token; the next page starts right below it, found
+ * with an index seek however deep it is.
+ */
+@Value
+public class LeaderboardCursor {
+    int points;
+    String userId;
+    int rank;
+
+    public String encode() {
+        String raw = points + ":" + rank + ":" + userId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the token was not produced by {@link #encode()}
+     */
+    public static LeaderboardCursor decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split(":", 3);
+            return new LeaderboardCursor(Integer.parseInt(parts[0]), parts[2], Integer.parseInt(parts[1]));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid leaderboard cursor", e);
+        }
+    }
+}
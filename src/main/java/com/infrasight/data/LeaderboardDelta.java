@@ -0,0 +1,38 @@
+package com.infrasight.data;
+
+import lombok.Value;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Change to the top of the leaderboard: entries that are new or whose rank or points
+ * moved, and userIds that dropped out.
+ */
+@Value
+public class LeaderboardDelta {
+    List<LeaderboardEntry> entries;
+    List<String> removed;
+
+    /**
+     * The change from {@code before} to {@code after}, or null if there is none.
+     */
+    public static LeaderboardDelta between(List<LeaderboardEntry> before, List<LeaderboardEntry> after) {
+        Map<String, LeaderboardEntry> previous = new HashMap<>();
+        for (LeaderboardEntry entry : before) {
+            previous.put(entry.getUserId(), entry);
+        }
+        List<LeaderboardEntry> changed = new ArrayList<>();
+        for (LeaderboardEntry entry : after) {
+            if (!entry.equals(previous.remove(entry.getUserId()))) {
+                changed.add(entry);
+            }
+        }
+        if (changed.isEmpty() && previous.isEmpty()) {
+            return null;
+        }
+        return new LeaderboardDelta(changed, new ArrayList<>(previous.keySet()));
+    }
+}
@@ -0,0 +1,16 @@
+package com.infrasight.data;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LeaderboardEntry {
+    private String userId;
+    private String name;
+    private String department;
+    private int totalPoints;
+    private int rank;
+}
@@ -0,0 +1,22 @@
+package com.infrasight.data;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LeaderboardPage<T> {
+    private List<T> content;
+    private long total;
+    private int size;
+    private long offset;
+    private String next;   // cursor for the following page, null on the last one
+
+    public LeaderboardPage(List<T> content, long total, int size, long offset) {
+        this(content, total, size, offset, null);
+    }
+}
@@ -0,0 +1,13 @@
+package com.infrasight.data;
+
+import com.infrasight.db.model.GamifyConfigDoc;
+import lombok.Data;
+
+import java.time.LocalDate;
+
+@Data
+public class RescoreRequest {
+    private LocalDate from;
+    private LocalDate to;
+    private GamifyConfigDoc candidate;
+}
@@ -0,0 +1,74 @@
+package com.infrasight.data;
+
+import com.infrasight.db.model.UserGamify;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Outcome of scoring a batch of events against a user snapshot.
+ * Holds the per-event deltas plus the user state after the last event.
+ */
+@Data
+public class ScoreResult {
+    private final List<EventScore> events = new ArrayList<>();
+    private final Set<Integer> addedServers = new HashSet<>();
+    // hosts new to the user that have no id yet; see GamificationCalculator#resolveServers
+    private final Set<String> newHosts = new LinkedHashSet<>();
+    private final List<String> newBadges = new ArrayList<>();
+
+    private int totalDelta;
+    private int totalPoints;
+    private int streakDays;
+    private LocalDate lastActivity;
+    private int totalCommands;
+    private int prodCommands;
+    // known servers plus addedServers, without newHosts
+    private ServerBitmap servers;
+    // legacy hostnames from the snapshot were folded into servers
+    private boolean legacyServersMerged;
+
+    /**
+     * Copies the scored state onto a user document so it can be saved in one write.
+     * Hosts still in {@link #newHosts} are not part of the copied server bitmap.
+     */
+    public void applyTo(UserGamify user) {
+        user.setTotalPoints(totalPoints);
+        user.setStreakDays(streakDays);
+        user.setLastActivity(lastActivity);
+        user.setTotalCommands(totalCommands);
+        user.setProdCommands(prodCommands);
+        if (isServersChanged()) {
+            user.setLegacyServers(null);
+            user.setServerBitmap(servers.serialize());
+            user.setUniqueServerCount(servers.cardinality());
+        }
+        user.getBadges().addAll(newBadges);
+    }
+
+    public boolean isServersChanged() {
+        return legacyServersMerged || !addedServers.isEmpty() || !newHosts.isEmpty();
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class EventScore {
+        private PointsRequest request;
+        private int points;
+        private int badgeBonus;
+        private List<String> newBadges;
+        private int streakDays;
+        // a null entry for each host that had no id when scored, until resolved
+        private List<Integer> serverIds;
+
+        public int getTotalAwarded() {
+            return points + badgeBonus;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.infrasight.data;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compressed set of non-negative server ids in the Roaring layout.
+ * <p>
+ * Ids are split into a 16-bit high key and a 16-bit low value. Each key owns a
+ * container: a sorted {@code char[]} while it holds at most 4096 values, a 65536-bit
+ * bitmap once it grows past that. Dictionary ids are dense, so a user with thousands
+ * of servers typically needs one container and a few kilobytes, against tens of
+ * kilobytes for the same hostnames as strings.
+ * <p>
+ * Serialized form: {@code int containerCount}, then per container {@code char key},
+ * {@code int cardinality} and either {@code cardinality} chars or 1024 longs.
+ */
+public final class ServerBitmap {
+
+    private static final int ARRAY_MAX = 4096;
+    private static final int BITMAP_WORDS = 1024;
+
+    private char[] keys = new char[0];
+    private Object[] containers = new Object[0];   // char[] (array) or long[] (bitmap)
+    private int[] cardinalities = new int[0];
+    private int size;
+    private int cardinality;
+
+    public static ServerBitmap deserialize(byte[] bytes) {
+        ServerBitmap bitmap = new ServerBitmap();
+        if (bytes == null || bytes.length == 0) {
+            return bitmap;
+        }
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        int count = in.getInt();
+        bitmap.keys = new char[count];
+        bitmap.containers = new Object[count];
+        bitmap.cardinalities = new int[count];
+        for (int i = 0; i < count; i++) {
+            bitmap.keys[i] = in.getChar();
+            int card = in.getInt();
+            bitmap.cardinalities[i] = card;
+            if (card <= ARRAY_MAX) {
+                char[] values = new char[Math.max(card, 4)];
+                for (int j = 0; j < card; j++) {
+                    values[j] = in.getChar();
+                }
+                bitmap.containers[i] = values;
+            } else {
+                long[] words = new long[BITMAP_WORDS];
+                for (int j = 0; j < BITMAP_WORDS; j++) {
+                    words[j] = in.getLong();
+                }
+                bitmap.containers[i] = words;
+            }
+            bitmap.cardinality += card;
+        }
+        bitmap.size = count;
+        return bitmap;
+    }
+
+    public byte[] serialize() {
+        int length = 4;
+        for (int i = 0; i < size; i++) {
+            length += 6 + (cardinalities[i] <= ARRAY_MAX ? cardinalities[i] * 2 : BITMAP_WORDS * 8);
+        }
+        ByteBuffer out = ByteBuffer.allocate(length);
+        out.putInt(size);
+        for (int i = 0; i < size; i++) {
+            out.putChar(keys[i]);
+            out.putInt(cardinalities[i]);
+            if (containers[i] instanceof char[]) {
+                char[] values = (char[]) containers[i];
+                for (int j = 0; j < cardinalities[i]; j++) {
+                    out.putChar(values[j]);
+                }
+            } else {
+                for (long word : (long[]) containers[i]) {
+                    out.putLong(word);
+                }
+            }
+        }
+        return out.array();
+    }
+
+    /**
+     * @return whether the id was not already present
+     */
+    public boolean add(int id) {
+        char high = (char) (id >>> 16);
+        char low = (char) id;
+        int idx = Arrays.binarySearch(keys, 0, size, high);
+        if (idx < 0) {
+            idx = insertContainer(-idx - 1, high);
+        }
+        boolean added = containers[idx] instanceof char[]
+                ? addToArray(idx, low)
+                : addToBitmap((long[]) containers[idx], low);
+        if (added) {
+            cardinalities[idx]++;
+            cardinality++;
+        }
+        return added;
+    }
+
+    public boolean contains(int id) {
+        int idx = Arrays.binarySearch(keys, 0, size, (char) (id >>> 16));
+        if (idx < 0) {
+            return false;
+        }
+        char low = (char) id;
+        if (containers[idx] instanceof char[]) {
+            return Arrays.binarySearch((char[]) containers[idx], 0, cardinalities[idx], low) >= 0;
+        }
+        return (((long[]) containers[idx])[low >>> 6] & (1L << low)) != 0;
+    }
+
+    public int cardinality() {
+        return cardinality;
+    }
+
+    private int insertContainer(int at, char key) {
+        if (size == keys.length) {
+            int grown = Math.max(4, size * 2);
+            keys = Arrays.copyOf(keys, grown);
+            containers = Arrays.copyOf(containers, grown);
+            cardinalities = Arrays.copyOf(cardinalities, grown);
+        }
+        System.arraycopy(keys, at, keys, at + 1, size - at);
+        System.arraycopy(containers, at, containers, at + 1, size - at);
+        System.arraycopy(cardinalities, at, cardinalities, at + 1, size - at);
+        keys[at] = key;
+        containers[at] = new char[4];
+        cardinalities[at] = 0;
+        size++;
+        return at;
+    }
+
+    private boolean addToArray(int idx, char low) {
+        char[] values = (char[]) containers[idx];
+        int card = cardinalities[idx];
+        int pos = Arrays.binarySearch(values, 0, card, low);
+        if (pos >= 0) {
+            return false;
+        }
+        if (card == ARRAY_MAX) {
+            long[] words = new long[BITMAP_WORDS];
+            for (int i = 0; i < card; i++) {
+                words[values[i] >>> 6] |= 1L << values[i];
+            }
+            containers[idx] = words;
+            return addToBitmap(words, low);
+        }
+        pos = -pos - 1;
+        if (card == values.length) {
+            values = Arrays.copyOf(values, Math.min(ARRAY_MAX, card * 2));
+            containers[idx] = values;
+        }
+        System.arraycopy(values, pos, values, pos + 1, card - pos);
+        values[pos] = low;
+        return true;
+    }
+
+    private static boolean addToBitmap(long[] words, char low) {
+        long mask = 1L << low;
+        int word = low >>> 6;
+        if ((words[word] & mask) != 0) {
+            return false;
+        }
+        words[word] |= mask;
+        return true;
+    }
+}
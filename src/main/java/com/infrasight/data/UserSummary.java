@@ -0,0 +1,39 @@
+package com.infrasight.data;
+
+import com.infrasight.db.model.UserGamify;
+import lombok.Value;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * What the dashboard shows for a user: {@link UserGamify} without the server set.
+ * Immutable, so one instance can be cached and served to every caller.
+ */
+@Value
+public class UserSummary {
+    String userId;
+    String name;
+    String department;
+    int totalPoints;
+    int streakDays;
+    LocalDate lastActivity;
+    int uniqueServerCount;
+    int totalCommands;
+    int prodCommands;
+    List<String> badges;
+
+    public static UserSummary of(UserGamify user) {
+        return of(user, user.getLegacyServers() != null ? user.getLegacyServers().size() : 0);
+    }
+
+    /**
+     * @param legacyServers size of a not yet migrated hostname set, counted like {@code BadgeContext} does
+     */
+    public static UserSummary of(UserGamify user, int legacyServers) {
+        return new UserSummary(user.getUserId(), user.getName(), user.getDepartment(), user.getTotalPoints(),
+                user.getStreakDays(), user.getLastActivity(), Math.max(user.getUniqueServerCount(), legacyServers),
+                user.getTotalCommands(), user.getProdCommands(),
+                user.getBadges() != null ? List.copyOf(user.getBadges()) : List.of());
+    }
+}
@@ -0,0 +1,16 @@
+package com.infrasight.data;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class WeeklyLeaderboardEntry {
+    private String userId;
+    private String name;
+    private String department;
+    private int weekPoints;
+    private int rank;
+}
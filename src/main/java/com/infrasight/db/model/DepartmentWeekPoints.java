@@ -0,0 +1,26 @@
+package com.infrasight.db.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDate;
+
+/**
+ * Points a department earned in one ISO week, and how many of its users scored.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "points_department_week")
+public class DepartmentWeekPoints {
+    @Id
+    private String id;        // department:weekStart
+    private String department;
+    private LocalDate weekStart;
+    private long points;
+    private int events;
+    private int users;
+}
@@ -16,6 +16,9 @@ public class GamifyConfigDoc {
     @Id
     private String id;
 
+    // bump on every edit; nodes poll this field to pick up changes without a restart
+    private long version;
+
     private int baseScore;
     private int loginPoints;
     private int welcomeBackBonus;
@@ -39,7 +42,7 @@ public class GamifyConfigDoc {
     public static class BadgeDef {
         private String name;
         private String description;
-        private String condition;
+        private String condition;   // SpEL over BadgeContext, e.g. "totalCommands >= 1000"
         private int bonus;
         private String iconUrl;
     }
@@ -0,0 +1,22 @@
+package com.infrasight.db.model;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Resume point for long-running batch jobs, keyed by job name.
+ */
+@Data
+@Document(collection = "job_checkpoint")
+public class JobCheckpoint {
+    @Id
+    private String id;
+    private String lastKey;
+    private long processed;
+    private long applied;
+    private boolean completed;
+    private Instant updatedAt;
+}
@@ -1,7 +1,9 @@
 package com.infrasight.db.model;
 
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 
@@ -10,8 +12,15 @@ import java.util.List;
 
 @Data
 @Builder
+@NoArgsConstructor
+@AllArgsConstructor
 @Document(collection = "points_log")
 public class PointsLog {
+    /**
+     * Per-user day total left in place of entries moved to the archive.
+     */
+    public static final String COMPACTED_EVENT = "log.compacted";
+
     @Id
     private String id;
     private String userId;
@@ -21,4 +30,11 @@ public class PointsLog {
     private String actionUuid;
     private String environment;
     private List<String> servers;
+    private List<Integer> serverIds;   // instead of servers when gamify.points-log.server-ids is on
+    private List<String> parameters;
+    private int streakDays;   // streak after this event, seeds retrospective rescoring
+    private int badgeBonus;   // part of pointsAwarded that came from badges earned by this event
+    private long configVersion;
+    private Integer archivedEvents;   // COMPACTED_EVENT only: number of entries it replaced
+    private String department;   // the user's department when logged, for department rollups
 }
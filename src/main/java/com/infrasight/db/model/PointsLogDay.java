@@ -0,0 +1,33 @@
+package com.infrasight.db.model;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One user's {@link PointsLog} entries for one day, used instead of one document per
+ * event when {@code gamify.points-log.daily-buckets} is on.
+ * <p>
+ * Entries are appended with {@code $push} while {@code points} and {@code events} are
+ * kept as running sums with {@code $inc}, so day and week totals are read without
+ * touching the entries. A bucket is closed once it holds
+ * {@code gamify.points-log.bucket-max-events} entries and the next event opens another
+ * for the same day; readers sum across them. The day is the server-local award date,
+ * the same value as {@link PointsLog#getTimestamp()}.
+ */
+@Data
+@Document(collection = "points_log_daily")
+public class PointsLogDay {
+    @Id
+    private String id;
+    private String userId;
+    private LocalDate day;
+    private int points;
+    private int events;
+    private String department;
+    private List<PointsLog> entries = new ArrayList<>();
+}
@@ -0,0 +1,27 @@
+package com.infrasight.db.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Points one user would have earned in a {@link RescoreRun}'s range under the candidate
+ * config, next to what was actually awarded. Badge bonuses are excluded from both sides.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "rescore_diff")
+public class RescoreDiff {
+    @Id
+    private String id;        // runId:userId
+    private String runId;
+    private String userId;
+    private int events;
+    private long oldPoints;
+    private long newPoints;
+    private long diff;
+    private boolean applied;
+}
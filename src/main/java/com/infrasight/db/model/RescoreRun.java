@@ -0,0 +1,34 @@
+package com.infrasight.db.model;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.time.LocalDate;
+
+/**
+ * One "what-if" rescoring of {@code points_log} under a candidate config, with its totals.
+ * Per-user results are in {@link RescoreDiff}.
+ */
+@Data
+@Document(collection = "rescore_run")
+public class RescoreRun {
+
+    public enum Status { RUNNING, COMPLETED, FAILED, APPLYING, APPLIED }
+
+    @Id
+    private String id;
+    private LocalDate from;
+    private LocalDate to;
+    private GamifyConfigDoc candidate;
+    private Status status;
+    private long eventsScanned;
+    private long usersScanned;
+    private long usersChanged;
+    private long oldPoints;
+    private long newPoints;
+    private String error;
+    private Instant startedAt;
+    private Instant finishedAt;
+}
@@ -0,0 +1,20 @@
+package com.infrasight.db.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * One hostname in the global server dictionary. Ids are allocated once and never reused.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "server_dictionary")
+public class ServerEntry {
+    @Id
+    private String host;
+    private int serverId;
+}
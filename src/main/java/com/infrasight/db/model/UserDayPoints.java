@@ -0,0 +1,26 @@
+package com.infrasight.db.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDate;
+
+/**
+ * Points one user earned on one day; maintained from {@code points_log} writes.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "points_user_day")
+public class UserDayPoints {
+    @Id
+    private String id;        // userId:day
+    private String userId;
+    private LocalDate day;
+    private int points;
+    private int events;
+    private String department;
+}
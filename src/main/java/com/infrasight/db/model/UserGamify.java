@@ -1,12 +1,13 @@
 package com.infrasight.db.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Data;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -16,11 +17,29 @@ public class UserGamify {
     @Id
     private String id;
     private String userId;
+    private String name;
+    private String department;
     private int totalPoints = 0;
     private int streakDays = 0;
     private LocalDate lastActivity;
-    private Set<String> uniqueServers = new HashSet<>();
+    // ServerBitmap of dictionary ids; uniqueServerCount is its cardinality
+    @JsonIgnore
+    private byte[] serverBitmap;
+    private int uniqueServerCount = 0;
+    // hostnames from before the server dictionary, folded into the bitmap on the next award
+    @JsonIgnore
+    @Field("uniqueServers")
+    private Set<String> legacyServers;
     private int totalCommands = 0;
     private int prodCommands = 0;
     private List<String> badges = new ArrayList<>();
+    // badges granted by a backfill rather than a live award, so a resumed backfill logs only its own
+    @JsonIgnore
+    private List<String> backfilledBadges;
+    // rescore runs whose diff has been credited, so a resumed apply cannot credit twice
+    @JsonIgnore
+    private List<String> appliedRescores;
+    // nightly_<day> for each day the nightly job has credited, so a rerun cannot credit twice
+    @JsonIgnore
+    private List<String> creditedDays;
 }
@@ -0,0 +1,27 @@
+package com.infrasight.db.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDate;
+
+/**
+ * Points one user earned in one ISO week (Monday to Sunday); maintained from
+ * {@code points_log} writes.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "points_user_week")
+public class UserWeekPoints {
+    @Id
+    private String id;        // userId:weekStart
+    private String userId;
+    private LocalDate weekStart;
+    private int points;
+    private int events;
+    private String department;
+}
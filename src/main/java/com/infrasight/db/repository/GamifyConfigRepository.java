@@ -2,8 +2,14 @@ package com.infrasight.db.repository;
 
 import com.infrasight.db.model.GamifyConfigDoc;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.Optional;
+
 @Repository
 public interface GamifyConfigRepository extends MongoRepository<GamifyConfigDoc, String> {
+
+    @Query(value = "{ '_id': ?0 }", fields = "{ 'version': 1 }")
+    Optional<GamifyConfigDoc> findVersionById(String id);
 }
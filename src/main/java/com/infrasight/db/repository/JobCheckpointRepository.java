@@ -0,0 +1,9 @@
+package com.infrasight.db.repository;
+
+import com.infrasight.db.model.JobCheckpoint;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface JobCheckpointRepository extends MongoRepository<JobCheckpoint, String> {
+}
@@ -5,6 +5,5 @@ import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
 @Repository
-public interface PointsLogRepository extends MongoRepository<PointsLog, String> {
-    boolean existsByActionUuid(String actionUuid);
+public interface PointsLogRepository extends MongoRepository<PointsLog, String>, PointsLogRepositoryCustom {
 }
@@ -0,0 +1,126 @@
+package com.infrasight.db.repository;
+
+import com.infrasight.data.DailyPoints;
+import com.infrasight.data.WeeklyLeaderboardEntry;
+import com.infrasight.db.model.DepartmentWeekPoints;
+import com.infrasight.db.model.PointsLog;
+import org.springframework.data.util.CloseableIterator;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Reads and writes of the points audit log that work in either storage layout: one
+ * {@code points_log} document per event, or per-user-per-day buckets in
+ * {@code points_log_daily} ({@code gamify.points-log.daily-buckets}). In the bucketed
+ * layout totals come from the pre-summed bucket fields and individual events are
+ * unwound from the buckets, so callers see the same {@link PointsLog} entries either way.
+ * <p>
+ * Days that have been compacted keep only their totals here; their entries are in
+ * {@link com.infrasight.service.PointsLogArchive}.
+ * <p>
+ * Unless {@code gamify.rollups.enabled} is off, every write is also folded into per-user
+ * day and week and per-department week totals ({@link PointsRollups}), which serve daily
+ * points and the weekly leaderboards.
+ */
+public interface PointsLogRepositoryCustom {
+
+    /**
+     * Writes one entry.
+     *
+     * @throws org.springframework.dao.DuplicateKeyException if its {@code actionUuid} is already logged
+     */
+    void append(PointsLog entry);
+
+    /**
+     * Writes entries with one unordered bulk write.
+     *
+     * @throws org.springframework.data.mongodb.BulkOperationException listing the failed
+     *         entries by index, e.g. duplicate {@code actionUuid}s, after the rest were written
+     */
+    void appendAll(List<PointsLog> entries);
+
+    boolean existsByActionUuid(String actionUuid);
+
+    /**
+     * Entries for a date range (inclusive) ordered by user, then as they were logged;
+     * each user's entries are contiguous. The caller must close the iterator.
+     */
+    CloseableIterator<PointsLog> streamByUser(LocalDate from, LocalDate to, int batchSize);
+
+    /**
+     * One user's entries for a date range (inclusive), as they were logged.
+     */
+    List<PointsLog> findAuditLog(String userId, LocalDate from, LocalDate to);
+
+    /**
+     * The user's last entry dated before {@code before}, skipping the given events, or
+     * null if they have none. A compacted day's total counts, and carries that day's
+     * closing streak.
+     */
+    PointsLog findLastBefore(String userId, LocalDate before, Collection<String> excludedEvents);
+
+    /**
+     * One user's totals per day for a date range (inclusive); days without events are omitted.
+     */
+    List<DailyPoints> findDailyPoints(String userId, LocalDate from, LocalDate to);
+
+    /**
+     * Users ranked by points earned in {@code [weekStart, weekEnd)}, highest first, ties
+     * by userId. Only userId and weekPoints are filled in. With rollups on, an ISO week
+     * (Monday to Monday) is read straight from the weekly rollup and other ranges are
+     * summed from the daily one.
+     * <p>
+     * A non-null {@code department} ranks only that department's points, filtered before
+     * grouping and paging. Without rollups this relies on the department recorded on
+     * each log entry, which entries written before it was recorded lack.
+     */
+    List<WeeklyLeaderboardEntry> getWeeklyLeaderboard(LocalDate weekStart, LocalDate weekEnd, String department,
+                                                      int page, int size);
+
+    /**
+     * The {@code size} users ranked directly below {@code after} (by its weekPoints and
+     * userId) on the same leaderboard as {@link #getWeeklyLeaderboard}. Seeks instead of
+     * skipping, so deep pages cost the same as the first.
+     */
+    List<WeeklyLeaderboardEntry> getWeeklyLeaderboardAfter(LocalDate weekStart, LocalDate weekEnd, String department,
+                                                           WeeklyLeaderboardEntry after, int size);
+
+    /**
+     * The number of users (of one department, if given) on that leaderboard.
+     */
+    long countDistinctUsersInWeek(LocalDate weekStart, LocalDate weekEnd, String department);
+
+    /**
+     * Departments' totals for the ISO week containing {@code weekStart}, highest first.
+     * Always read from the rollups.
+     */
+    List<DepartmentWeekPoints> findDepartmentWeek(LocalDate weekStart);
+
+    /**
+     * Recomputes the rollups for the ISO weeks overlapping {@code [from, to]} from the log.
+     *
+     * @return the number of user-days written
+     */
+    long rebuildRollups(LocalDate from, LocalDate to);
+
+    /**
+     * The earliest day with log data, or null if the log is empty.
+     */
+    LocalDate findFirstDay();
+
+    /**
+     * Stores per-user day totals ({@link PointsLog#COMPACTED_EVENT} entries) for days whose
+     * entries are about to be dropped. Summaries already present are left alone. The
+     * bucketed layout keeps its own totals and ignores them.
+     */
+    void writeSummaries(List<PointsLog> summaries);
+
+    /**
+     * Removes a day's individual entries, keeping its totals.
+     *
+     * @return the number of documents changed
+     */
+    long dropEntries(LocalDate day);
+}
@@ -0,0 +1,382 @@
+package com.infrasight.db.repository;
+
+import com.infrasight.data.DailyPoints;
+import com.infrasight.data.WeeklyLeaderboardEntry;
+import com.infrasight.db.model.DepartmentWeekPoints;
+import com.infrasight.db.model.PointsLog;
+import com.infrasight.db.model.PointsLogDay;
+import com.infrasight.db.model.UserDayPoints;
+import com.mongodb.bulk.BulkWriteError;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.aggregation.GroupOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.group;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.match;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.newAggregation;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.project;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.replaceRoot;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.sort;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.unwind;
+
+@Slf4j
+public class PointsLogRepositoryCustomImpl implements PointsLogRepositoryCustom {
+
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final MongoTemplate mongoTemplate;
+    private final PointsRollups rollups;
+
+    @Value("${gamify.points-log.daily-buckets:false}")
+    private boolean dailyBuckets;
+
+    @Value("${gamify.points-log.bucket-max-events:2000}")
+    private int bucketMaxEvents = 2000;
+
+    @Value("${gamify.rollups.enabled:true}")
+    private boolean rollupsEnabled = true;
+
+    public PointsLogRepositoryCustomImpl(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+        this.rollups = new PointsRollups(mongoTemplate);
+    }
+
+    @Override
+    public void append(PointsLog entry) {
+        if (dailyBuckets) {
+            mongoTemplate.upsert(bucketFor(entry), pushTo(entry), PointsLogDay.class);
+        } else {
+            mongoTemplate.insert(entry);
+        }
+        roll(List.of(entry));
+    }
+
+    @Override
+    public void appendAll(List<PointsLog> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        BulkOperations ops = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED,
+                dailyBuckets ? PointsLogDay.class : PointsLog.class);
+        for (PointsLog entry : entries) {
+            if (dailyBuckets) {
+                ops.upsert(bucketFor(entry), pushTo(entry));
+            } else {
+                ops.insert(entry);
+            }
+        }
+        try {
+            ops.execute();
+        } catch (BulkOperationException e) {
+            Set<Integer> failed = e.getErrors().stream().map(BulkWriteError::getIndex).collect(Collectors.toSet());
+            List<PointsLog> written = new ArrayList<>(entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                if (!failed.contains(i)) {
+                    written.add(entries.get(i));
+                }
+            }
+            roll(written);
+            throw e;
+        }
+        roll(entries);
+    }
+
+    @Override
+    public boolean existsByActionUuid(String actionUuid) {
+        return mongoTemplate.exists(byAction(dailyBuckets, actionUuid), dailyBuckets ? PointsLogDay.class : PointsLog.class);
+    }
+
+    @Override
+    public CloseableIterator<PointsLog> streamByUser(LocalDate from, LocalDate to, int batchSize) {
+        if (dailyBuckets) {
+            Aggregation agg = bucketStream(from, to)
+                    .withOptions(AggregationOptions.builder().allowDiskUse(true).cursorBatchSize(batchSize).build());
+            return mongoTemplate.aggregateStream(agg, PointsLogDay.class, PointsLog.class);
+        }
+        Query query = userStream(from, to);
+        query.cursorBatchSize(batchSize);
+        return mongoTemplate.stream(query, PointsLog.class);
+    }
+
+    @Override
+    public List<PointsLog> findAuditLog(String userId, LocalDate from, LocalDate to) {
+        if (dailyBuckets) {
+            return mongoTemplate.aggregate(bucketAuditLog(userId, from, to), PointsLogDay.class, PointsLog.class)
+                    .getMappedResults();
+        }
+        return mongoTemplate.find(auditLog(userId, from, to), PointsLog.class);
+    }
+
+    @Override
+    public PointsLog findLastBefore(String userId, LocalDate before, Collection<String> excludedEvents) {
+        if (dailyBuckets) {
+            // newest bucket first; usually the first one holds the answer
+            Query buckets = bucketsBefore(userId, before);
+            buckets.cursorBatchSize(1);
+            try (CloseableIterator<PointsLogDay> days = mongoTemplate.stream(buckets, PointsLogDay.class)) {
+                while (days.hasNext()) {
+                    List<PointsLog> entries = days.next().getEntries();
+                    for (int i = entries.size() - 1; i >= 0; i--) {
+                        if (!excludedEvents.contains(entries.get(i).getEvent())) {
+                            return entries.get(i);
+                        }
+                    }
+                }
+            }
+            return null;
+        }
+        return mongoTemplate.findOne(lastBefore(userId, before, excludedEvents), PointsLog.class);
+    }
+
+    @Override
+    public List<DailyPoints> findDailyPoints(String userId, LocalDate from, LocalDate to) {
+        if (rollupsEnabled) {
+            return rollups.dailyPoints(userId, from, to);
+        }
+        return mongoTemplate.aggregate(dailyPoints(dailyBuckets, userId, from, to), collection(), DailyPoints.class)
+                .getMappedResults();
+    }
+
+    @Override
+    public List<WeeklyLeaderboardEntry> getWeeklyLeaderboard(LocalDate weekStart, LocalDate weekEnd,
+                                                             String department, int page, int size) {
+        return weeklyPage(weekStart, weekEnd, department, null, (long) page * size, size);
+    }
+
+    @Override
+    public List<WeeklyLeaderboardEntry> getWeeklyLeaderboardAfter(LocalDate weekStart, LocalDate weekEnd,
+                                                                  String department, WeeklyLeaderboardEntry after,
+                                                                  int size) {
+        return weeklyPage(weekStart, weekEnd, department, after, 0, size);
+    }
+
+    private List<WeeklyLeaderboardEntry> weeklyPage(LocalDate weekStart, LocalDate weekEnd, String department,
+                                                    WeeklyLeaderboardEntry after, long skip, int size) {
+        if (rollupsEnabled) {
+            return rollups.weeklyLeaderboard(weekStart, weekEnd, department, after, skip, size);
+        }
+        Aggregation agg = weeklyPage(dailyBuckets, weekStart, weekEnd, department, after, skip, size);
+        return mongoTemplate.aggregate(agg, collection(), WeeklyLeaderboardEntry.class).getMappedResults();
+    }
+
+    @Override
+    public long countDistinctUsersInWeek(LocalDate weekStart, LocalDate weekEnd, String department) {
+        if (rollupsEnabled) {
+            return rollups.countUsers(weekStart, weekEnd, department);
+        }
+        Aggregation agg = newAggregation(
+                match(inWeek(dailyBuckets, weekStart, weekEnd, department)),
+                group("userId"),
+                Aggregation.count().as("total"));
+        Document result = mongoTemplate.aggregate(agg, collection(), Document.class).getUniqueMappedResult();
+        return result != null ? ((Number) result.get("total")).longValue() : 0;
+    }
+
+    @Override
+    public LocalDate findFirstDay() {
+        if (dailyBuckets) {
+            PointsLogDay first = mongoTemplate.findOne(firstDay(true), PointsLogDay.class);
+            return first != null ? first.getDay() : null;
+        }
+        PointsLog first = mongoTemplate.findOne(firstDay(false), PointsLog.class);
+        return first != null ? first.getTimestamp() : null;
+    }
+
+    @Override
+    public void writeSummaries(List<PointsLog> summaries) {
+        if (dailyBuckets || summaries.isEmpty()) {
+            return;
+        }
+        try {
+            appendAll(summaries);
+        } catch (BulkOperationException e) {
+            // written by an earlier, interrupted compaction of the same day
+            if (e.getErrors().stream().anyMatch(err -> err.getCode() != DUPLICATE_KEY)) {
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public long dropEntries(LocalDate day) {
+        if (dailyBuckets) {
+            return mongoTemplate.updateMulti(entriesOf(true, day), new Update().unset("entries"), PointsLogDay.class)
+                    .getModifiedCount();
+        }
+        return mongoTemplate.remove(entriesOf(false, day), PointsLog.class).getDeletedCount();
+    }
+
+    @Override
+    public List<DepartmentWeekPoints> findDepartmentWeek(LocalDate weekStart) {
+        return rollups.departmentWeek(PointsRollups.weekStart(weekStart));
+    }
+
+    @Override
+    public long rebuildRollups(LocalDate from, LocalDate to) {
+        LocalDate first = PointsRollups.weekStart(from);
+        LocalDate last = PointsRollups.weekStart(to).plusDays(6);
+        String day = dailyBuckets ? "day" : "timestamp";
+        GroupOperation perUserDay = dailyBuckets
+                ? group("userId", day).sum("points").as("points").sum("events").as("events")
+                : group("userId", day).sum("pointsAwarded").as("points")
+                        .sum(ConditionalOperators.ifNull("archivedEvents").then(1)).as("events");
+        Aggregation agg = newAggregation(
+                match(Criteria.where(day).gte(first).lte(last)),
+                perUserDay.last("department").as("department"),
+                sort(Sort.by("userId", day)),
+                project("userId", "points", "events", "department").and(day).as("day").andExclude("_id"))
+                .withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+        return rollups.rebuild(first, last, mongoTemplate.aggregateStream(agg, collection(), UserDayPoints.class));
+    }
+
+    /**
+     * Rollup writes follow the log write they account for; a failure here leaves the
+     * log correct and the rollups short until the affected weeks are rebuilt.
+     */
+    private void roll(List<PointsLog> written) {
+        if (!rollupsEnabled || written.isEmpty()) {
+            return;
+        }
+        try {
+            rollups.record(written);
+        } catch (RuntimeException e) {
+            log.warn("Points rollup update failed for {} entries; rebuild the affected weeks", written.size(), e);
+        }
+    }
+
+    /**
+     * The open bucket for the entry's user and day that does not already hold its
+     * action; upserting on it opens a new bucket when the current one is full. A repeated
+     * action therefore lands in a different bucket than the first and is rejected by the
+     * unique index on {@code entries.actionUuid}.
+     */
+    private Query bucketFor(PointsLog entry) {
+        if (entry.getActionUuid() == null) {
+            // the multikey unique index would treat every missing uuid as the same null key
+            entry.setActionUuid("auto_" + new ObjectId());
+        }
+        return openBucket(entry, bucketMaxEvents);
+    }
+
+    private static Update pushTo(PointsLog entry) {
+        Update update = new Update()
+                .push("entries", entry)
+                .inc("points", entry.getPointsAwarded())
+                .inc("events", 1);
+        if (entry.getDepartment() != null) {
+            update.set("department", entry.getDepartment());
+        }
+        return update;
+    }
+
+    // The queries below are built here rather than inline so QueryPlanTest explains
+    // exactly what runs; each takes the layout where both have one.
+
+    static Query byAction(boolean dailyBuckets, String actionUuid) {
+        return Query.query(Criteria.where(dailyBuckets ? "entries.actionUuid" : "actionUuid").is(actionUuid));
+    }
+
+    static Query userStream(LocalDate from, LocalDate to) {
+        return Query.query(Criteria.where("timestamp").gte(from).lte(to))
+                .with(Sort.by("userId", "timestamp", "_id"))
+                .withHint("userId_timestamp");
+    }
+
+    static Aggregation bucketStream(LocalDate from, LocalDate to) {
+        return unwound(Criteria.where("day").gte(from).lte(to), Sort.by("userId", "day", "_id"));
+    }
+
+    static Query auditLog(String userId, LocalDate from, LocalDate to) {
+        return Query.query(Criteria.where("userId").is(userId).and("timestamp").gte(from).lte(to)
+                        .and("event").ne(PointsLog.COMPACTED_EVENT))
+                .with(Sort.by("timestamp", "_id"));
+    }
+
+    static Aggregation bucketAuditLog(String userId, LocalDate from, LocalDate to) {
+        return unwound(Criteria.where("userId").is(userId).and("day").gte(from).lte(to), Sort.by("day", "_id"));
+    }
+
+    static Query lastBefore(String userId, LocalDate before, Collection<String> excludedEvents) {
+        return Query.query(Criteria.where("userId").is(userId).and("timestamp").lt(before)
+                        .and("event").nin(excludedEvents))
+                .with(Sort.by(Sort.Direction.DESC, "timestamp", "_id"))
+                .withHint("userId_timestamp");
+    }
+
+    static Query bucketsBefore(String userId, LocalDate before) {
+        return Query.query(Criteria.where("userId").is(userId).and("day").lt(before))
+                .with(Sort.by(Sort.Direction.DESC, "day", "_id"));
+    }
+
+    static Query firstDay(boolean dailyBuckets) {
+        return new Query().with(Sort.by(dailyBuckets ? "day" : "timestamp")).limit(1);
+    }
+
+    /**
+     * A day's entries: the buckets still holding them, or the entries besides the summaries.
+     */
+    static Query entriesOf(boolean dailyBuckets, LocalDate day) {
+        return dailyBuckets
+                ? Query.query(Criteria.where("day").is(day).and("entries").exists(true))
+                : Query.query(Criteria.where("timestamp").is(day).and("event").ne(PointsLog.COMPACTED_EVENT));
+    }
+
+    static Query openBucket(PointsLog entry, int bucketMaxEvents) {
+        return Query.query(Criteria.where("userId").is(entry.getUserId())
+                .and("day").is(entry.getTimestamp())
+                .and("events").lt(bucketMaxEvents)
+                .and("entries.actionUuid").ne(entry.getActionUuid()));
+    }
+
+    static Aggregation dailyPoints(boolean dailyBuckets, String userId, LocalDate from, LocalDate to) {
+        String day = dailyBuckets ? "day" : "timestamp";
+        GroupOperation perDay = dailyBuckets
+                ? group(day).sum("points").as("points").sum("events").as("events")
+                : group(day).sum("pointsAwarded").as("points")
+                        .sum(ConditionalOperators.ifNull("archivedEvents").then(1)).as("events");
+        return newAggregation(
+                match(Criteria.where("userId").is(userId).and(day).gte(from).lte(to)),
+                perDay,
+                sort(Sort.Direction.ASC, "_id"),
+                project("points", "events").and("day").previousOperation());
+    }
+
+    static Aggregation weeklyPage(boolean dailyBuckets, LocalDate weekStart, LocalDate weekEnd, String department,
+                                  WeeklyLeaderboardEntry after, long skip, int size) {
+        return newAggregation(PointsRollups.rankedPage(inWeek(dailyBuckets, weekStart, weekEnd, department),
+                group("userId").sum(dailyBuckets ? "points" : "pointsAwarded").as("weekPoints"), after, skip, size));
+    }
+
+    private static Aggregation unwound(Criteria buckets, Sort order) {
+        return newAggregation(match(buckets), sort(order), unwind("entries"), replaceRoot("entries"));
+    }
+
+    private static Criteria inWeek(boolean dailyBuckets, LocalDate weekStart, LocalDate weekEnd, String department) {
+        return PointsRollups.inDepartment(
+                Criteria.where(dailyBuckets ? "day" : "timestamp").gte(weekStart).lt(weekEnd), department);
+    }
+
+    private String collection() {
+        return mongoTemplate.getCollectionName(dailyBuckets ? PointsLogDay.class : PointsLog.class);
+    }
+}
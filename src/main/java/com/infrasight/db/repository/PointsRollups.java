@@ -0,0 +1,397 @@
+package com.infrasight.db.repository;
+
+import com.infrasight.data.DailyPoints;
+import com.infrasight.data.WeeklyLeaderboardEntry;
+import com.infrasight.db.model.DepartmentWeekPoints;
+import com.infrasight.db.model.PointsLog;
+import com.infrasight.db.model.UserDayPoints;
+import com.infrasight.db.model.UserGamify;
+import com.infrasight.db.model.UserWeekPoints;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import org.bson.Document;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.GroupOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.group;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.limit;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.match;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.newAggregation;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.project;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.skip;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.sort;
+
+/**
+ * Points rollups by user x day, user x ISO week and department x ISO week, kept in step
+ * with {@code points_log} by {@link PointsLogRepositoryCustomImpl}.
+ * <p>
+ * Every successful log write is folded in with {@code $inc} upserts, one per rollup key
+ * touched by the batch. A user's first points in a week insert their week document; that
+ * insert is what counts them once towards their department's {@code users}. Reads cost
+ * an index range over users (or departments), never over events.
+ */
+class PointsRollups {
+
+    private static final int BATCH = 1000;
+
+    private final MongoTemplate mongoTemplate;
+
+    PointsRollups(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    static LocalDate weekStart(LocalDate day) {
+        return day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+    }
+
+    static boolean isWeek(LocalDate from, LocalDate toExclusive) {
+        return from.getDayOfWeek() == DayOfWeek.MONDAY && toExclusive.equals(from.plusDays(7));
+    }
+
+    /**
+     * Adds entries that were just written to the log. Compaction summaries are skipped;
+     * their points were counted when the original entries were written. Entries logged
+     * without a department (backfills, rescoring adjustments) take the user's current one.
+     */
+    void record(List<PointsLog> entries) {
+        Map<String, String> departmentOf = departmentsOf(entries);
+        Map<String, UserDayPoints> days = new LinkedHashMap<>();
+        Map<String, UserWeekPoints> weeks = new LinkedHashMap<>();
+        for (PointsLog entry : entries) {
+            if (PointsLog.COMPACTED_EVENT.equals(entry.getEvent()) || entry.getTimestamp() == null) {
+                continue;
+            }
+            LocalDate day = entry.getTimestamp();
+            LocalDate week = weekStart(day);
+            UserDayPoints d = days.computeIfAbsent(entry.getUserId() + ":" + day,
+                    id -> new UserDayPoints(id, entry.getUserId(), day, 0, 0, null));
+            d.setPoints(d.getPoints() + entry.getPointsAwarded());
+            d.setEvents(d.getEvents() + 1);
+            UserWeekPoints w = weeks.computeIfAbsent(entry.getUserId() + ":" + week,
+                    id -> new UserWeekPoints(id, entry.getUserId(), week, 0, 0, null));
+            w.setPoints(w.getPoints() + entry.getPointsAwarded());
+            w.setEvents(w.getEvents() + 1);
+            String department = entry.getDepartment() != null
+                    ? entry.getDepartment() : departmentOf.get(entry.getUserId());
+            if (department != null) {
+                d.setDepartment(department);
+                w.setDepartment(department);
+            }
+        }
+        if (days.isEmpty()) {
+            return;
+        }
+
+        BulkOperations dayOps = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UserDayPoints.class);
+        for (UserDayPoints d : days.values()) {
+            dayOps.upsert(byId(d.getId()), increment(d.getPoints(), d.getEvents(), d.getDepartment())
+                    .setOnInsert("userId", d.getUserId())
+                    .setOnInsert("day", d.getDay()));
+        }
+        dayOps.execute();
+
+        List<UserWeekPoints> weekList = new ArrayList<>(weeks.values());
+        BulkOperations weekOps = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UserWeekPoints.class);
+        for (UserWeekPoints w : weekList) {
+            weekOps.upsert(byId(w.getId()), increment(w.getPoints(), w.getEvents(), w.getDepartment())
+                    .setOnInsert("userId", w.getUserId())
+                    .setOnInsert("weekStart", w.getWeekStart()));
+        }
+        BulkWriteResult result = weekOps.execute();
+
+        Map<String, DepartmentWeekPoints> departments = new LinkedHashMap<>();
+        for (UserWeekPoints w : weekList) {
+            if (w.getDepartment() != null) {
+                DepartmentWeekPoints dep = departments.computeIfAbsent(w.getDepartment() + ":" + w.getWeekStart(),
+                        id -> new DepartmentWeekPoints(id, w.getDepartment(), w.getWeekStart(), 0, 0, 0));
+                dep.setPoints(dep.getPoints() + w.getPoints());
+                dep.setEvents(dep.getEvents() + w.getEvents());
+            }
+        }
+        if (departments.isEmpty()) {
+            return;
+        }
+        for (BulkWriteUpsert upsert : result.getUpserts()) {
+            UserWeekPoints w = weekList.get(upsert.getIndex());
+            if (w.getDepartment() != null) {
+                DepartmentWeekPoints dep = departments.get(w.getDepartment() + ":" + w.getWeekStart());
+                dep.setUsers(dep.getUsers() + 1);
+            }
+        }
+        BulkOperations depOps = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, DepartmentWeekPoints.class);
+        for (DepartmentWeekPoints dep : departments.values()) {
+            depOps.upsert(byId(dep.getId()), new Update()
+                    .inc("points", dep.getPoints())
+                    .inc("events", dep.getEvents())
+                    .inc("users", dep.getUsers())
+                    .setOnInsert("department", dep.getDepartment())
+                    .setOnInsert("weekStart", dep.getWeekStart()));
+        }
+        depOps.execute();
+    }
+
+    /**
+     * Replaces the rollups for whole weeks {@code [from, to]} with per-user-day totals
+     * recomputed from the log, which must arrive ordered by userId, then day.
+     * Increments from awards made while this runs can be overwritten, so rebuild closed
+     * weeks or expect the current one to drift until rebuilt again.
+     *
+     * @return the number of user-days written
+     */
+    long rebuild(LocalDate from, LocalDate to, CloseableIterator<UserDayPoints> totals) {
+        mongoTemplate.remove(daysBetween(from, to), UserDayPoints.class);
+        mongoTemplate.remove(weeksBetween(from, to), UserWeekPoints.class);
+        mongoTemplate.remove(weeksBetween(from, to), DepartmentWeekPoints.class);
+
+        long written = 0;
+        Map<String, DepartmentWeekPoints> departments = new HashMap<>();
+        BulkOperations dayOps = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UserDayPoints.class);
+        BulkOperations weekOps = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UserWeekPoints.class);
+        int dayBatch = 0;
+        int weekBatch = 0;
+        UserWeekPoints week = null;
+        try (totals) {
+            while (totals.hasNext()) {
+                UserDayPoints d = totals.next();
+                d.setId(d.getUserId() + ":" + d.getDay());
+                dayOps.upsert(byId(d.getId()), replacement(d.getPoints(), d.getEvents(), d.getDepartment())
+                        .set("userId", d.getUserId()).set("day", d.getDay()));
+                written++;
+                if (++dayBatch == BATCH) {
+                    dayOps.execute();
+                    dayOps = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UserDayPoints.class);
+                    dayBatch = 0;
+                }
+
+                LocalDate ws = weekStart(d.getDay());
+                if (week == null || !week.getUserId().equals(d.getUserId()) || !week.getWeekStart().equals(ws)) {
+                    if (week != null) {
+                        addWeek(weekOps, week, departments);
+                        if (++weekBatch == BATCH) {
+                            weekOps.execute();
+                            weekOps = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UserWeekPoints.class);
+                            weekBatch = 0;
+                        }
+                    }
+                    week = new UserWeekPoints(d.getUserId() + ":" + ws, d.getUserId(), ws, 0, 0, null);
+                }
+                week.setPoints(week.getPoints() + d.getPoints());
+                week.setEvents(week.getEvents() + d.getEvents());
+                if (d.getDepartment() != null) {
+                    week.setDepartment(d.getDepartment());
+                }
+            }
+        }
+        if (week != null) {
+            addWeek(weekOps, week, departments);
+            weekBatch++;
+        }
+        if (dayBatch > 0) {
+            dayOps.execute();
+        }
+        if (weekBatch > 0) {
+            weekOps.execute();
+        }
+        if (!departments.isEmpty()) {
+            BulkOperations depOps = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, DepartmentWeekPoints.class);
+            for (DepartmentWeekPoints dep : departments.values()) {
+                depOps.upsert(byId(dep.getId()), new Update()
+                        .set("department", dep.getDepartment())
+                        .set("weekStart", dep.getWeekStart())
+                        .set("points", dep.getPoints())
+                        .set("events", dep.getEvents())
+                        .set("users", dep.getUsers()));
+            }
+            depOps.execute();
+        }
+        return written;
+    }
+
+    /**
+     * A page of users (of one department, if given) by points in {@code [from, toExclusive)}:
+     * the {@code size} users ranked below {@code after} if given, else from position {@code skip}.
+     */
+    List<WeeklyLeaderboardEntry> weeklyLeaderboard(LocalDate from, LocalDate toExclusive, String department,
+                                                   WeeklyLeaderboardEntry after, long skip, int size) {
+        if (isWeek(from, toExclusive)) {
+            return mongoTemplate.find(weekPage(from, department, after, skip, size), UserWeekPoints.class).stream()
+                    .map(w -> new WeeklyLeaderboardEntry(w.getUserId(), null, null, w.getPoints(), 0))
+                    .collect(Collectors.toList());
+        }
+        return mongoTemplate.aggregate(rangePage(from, toExclusive, department, after, skip, size),
+                UserDayPoints.class, WeeklyLeaderboardEntry.class).getMappedResults();
+    }
+
+    static Query weekPage(LocalDate weekStart, String department, WeeklyLeaderboardEntry after, long skip, int size) {
+        Criteria criteria = inDepartment(Criteria.where("weekStart").is(weekStart), department);
+        if (after != null) {
+            criteria = criteria.andOperator(below("points", "userId", after));
+        }
+        return Query.query(criteria)
+                .with(Sort.by(Sort.Direction.DESC, "points").and(Sort.by(Sort.Direction.ASC, "userId")))
+                .skip(after != null ? 0 : skip)
+                .limit(size);
+    }
+
+    static Aggregation rangePage(LocalDate from, LocalDate toExclusive, String department,
+                                 WeeklyLeaderboardEntry after, long skip, int size) {
+        return newAggregation(rankedPage(inDepartment(Criteria.where("day").gte(from).lt(toExclusive), department),
+                group("userId").sum("points").as("weekPoints"), after, skip, size));
+    }
+
+    /**
+     * Stages that group per user and return one page sorted by weekPoints desc, then
+     * userId; with {@code after}, the page starts below that user instead of at {@code skip}.
+     */
+    static List<AggregationOperation> rankedPage(Criteria filter, GroupOperation perUser,
+                                                 WeeklyLeaderboardEntry after, long skip, int size) {
+        List<AggregationOperation> ops = new ArrayList<>();
+        ops.add(match(filter));
+        ops.add(perUser);
+        if (after != null) {
+            ops.add(match(below("weekPoints", "_id", after)));
+        }
+        ops.add(sort(Sort.by(Sort.Direction.DESC, "weekPoints").and(Sort.by(Sort.Direction.ASC, "_id"))));
+        if (after == null && skip > 0) {
+            ops.add(skip(skip));
+        }
+        ops.add(limit(size));
+        ops.add(project("weekPoints").and("userId").previousOperation());
+        return ops;
+    }
+
+    /**
+     * Narrows rollup or log rows to one department; a null department keeps everyone.
+     */
+    static Criteria inDepartment(Criteria criteria, String department) {
+        return department != null ? criteria.and("department").is(department) : criteria;
+    }
+
+    /**
+     * Rows ranked below {@code after}: fewer points, or as many and a later userId.
+     */
+    static Criteria below(String pointsField, String userIdField, WeeklyLeaderboardEntry after) {
+        return new Criteria().orOperator(
+                Criteria.where(pointsField).lt(after.getWeekPoints()),
+                Criteria.where(pointsField).is(after.getWeekPoints()).and(userIdField).gt(after.getUserId()));
+    }
+
+    long countUsers(LocalDate from, LocalDate toExclusive, String department) {
+        if (isWeek(from, toExclusive)) {
+            return mongoTemplate.count(weekUsers(from, department), UserWeekPoints.class);
+        }
+        Aggregation agg = newAggregation(
+                match(inDepartment(Criteria.where("day").gte(from).lt(toExclusive), department)),
+                group("userId"),
+                Aggregation.count().as("total"));
+        Document result = mongoTemplate.aggregate(agg, UserDayPoints.class, Document.class).getUniqueMappedResult();
+        return result != null ? ((Number) result.get("total")).longValue() : 0;
+    }
+
+    static Query weekUsers(LocalDate weekStart, String department) {
+        return Query.query(inDepartment(Criteria.where("weekStart").is(weekStart), department));
+    }
+
+    List<DailyPoints> dailyPoints(String userId, LocalDate from, LocalDate to) {
+        return mongoTemplate.find(userDays(userId, from, to), UserDayPoints.class).stream()
+                .map(d -> new DailyPoints(d.getDay(), d.getPoints(), d.getEvents()))
+                .collect(Collectors.toList());
+    }
+
+    static Query userDays(String userId, LocalDate from, LocalDate to) {
+        return Query.query(Criteria.where("userId").is(userId).and("day").gte(from).lte(to))
+                .with(Sort.by("day"));
+    }
+
+    List<DepartmentWeekPoints> departmentWeek(LocalDate weekStart) {
+        return mongoTemplate.find(departmentsInWeek(weekStart), DepartmentWeekPoints.class);
+    }
+
+    static Query departmentsInWeek(LocalDate weekStart) {
+        return Query.query(Criteria.where("weekStart").is(weekStart)).with(Sort.by(Sort.Direction.DESC, "points"));
+    }
+
+    private Map<String, String> departmentsOf(List<PointsLog> entries) {
+        Set<String> missing = entries.stream()
+                .filter(e -> e.getDepartment() == null && !PointsLog.COMPACTED_EVENT.equals(e.getEvent()))
+                .map(PointsLog::getUserId)
+                .collect(Collectors.toSet());
+        if (missing.isEmpty()) {
+            return Map.of();
+        }
+        Map<String, String> departments = new HashMap<>();
+        for (UserGamify user : mongoTemplate.find(userDepartments(missing), UserGamify.class)) {
+            if (user.getDepartment() != null) {
+                departments.put(user.getUserId(), user.getDepartment());
+            }
+        }
+        return departments;
+    }
+
+    static Query userDepartments(Collection<String> userIds) {
+        Query query = Query.query(Criteria.where("userId").in(userIds));
+        query.fields().include("userId").include("department");
+        return query;
+    }
+
+    static Query daysBetween(LocalDate from, LocalDate to) {
+        return Query.query(Criteria.where("day").gte(from).lte(to));
+    }
+
+    static Query weeksBetween(LocalDate from, LocalDate to) {
+        return Query.query(Criteria.where("weekStart").gte(from).lte(to));
+    }
+
+    private static void addWeek(BulkOperations weekOps, UserWeekPoints week,
+                                Map<String, DepartmentWeekPoints> departments) {
+        weekOps.upsert(byId(week.getId()), replacement(week.getPoints(), week.getEvents(), week.getDepartment())
+                .set("userId", week.getUserId()).set("weekStart", week.getWeekStart()));
+        if (week.getDepartment() != null) {
+            DepartmentWeekPoints dep = departments.computeIfAbsent(week.getDepartment() + ":" + week.getWeekStart(),
+                    id -> new DepartmentWeekPoints(id, week.getDepartment(), week.getWeekStart(), 0, 0, 0));
+            dep.setPoints(dep.getPoints() + week.getPoints());
+            dep.setEvents(dep.getEvents() + week.getEvents());
+            dep.setUsers(dep.getUsers() + 1);
+        }
+    }
+
+    private static Query byId(String id) {
+        return Query.query(Criteria.where("_id").is(id));
+    }
+
+    private static Update increment(int points, int events, String department) {
+        Update update = new Update().inc("points", points).inc("events", events);
+        if (department != null) {
+            update.set("department", department);
+        }
+        return update;
+    }
+
+    private static Update replacement(int points, int events, String department) {
+        Update update = new Update().set("points", points).set("events", events);
+        if (department != null) {
+            update.set("department", department);
+        }
+        return update;
+    }
+}
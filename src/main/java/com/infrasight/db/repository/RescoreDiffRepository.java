@@ -0,0 +1,12 @@
+package com.infrasight.db.repository;
+
+import com.infrasight.db.model.RescoreDiff;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface RescoreDiffRepository extends MongoRepository<RescoreDiff, String> {
+    Page<RescoreDiff> findByRunId(String runId, Pageable pageable);
+}
@@ -0,0 +1,9 @@
+package com.infrasight.db.repository;
+
+import com.infrasight.db.model.RescoreRun;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface RescoreRunRepository extends MongoRepository<RescoreRun, String> {
+}
@@ -4,9 +4,13 @@ import com.infrasight.db.model.UserGamify;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface UserGamifyRepository extends MongoRepository<UserGamify, String> {
+public interface UserGamifyRepository extends MongoRepository<UserGamify, String>, UserGamifyRepositoryCustom {
     Optional<UserGamify> findByUserId(String userId);
+
+    List<UserGamify> findByUserIdIn(Collection<String> userIds);
 }
@@ -0,0 +1,56 @@
+package com.infrasight.db.repository;
+
+import com.infrasight.db.model.UserGamify;
+
+import java.time.LocalDate;
+
+/**
+ * Server-side updates of {@link UserGamify}, so an award never rewrites the whole
+ * document and concurrent awards for the same user cannot overwrite each other.
+ */
+public interface UserGamifyRepositoryCustom {
+
+    /**
+     * Applies the counter side of an event in one {@code findAndModify} (creating the
+     * user if needed) and returns the document as it was just before this update.
+     * Because the update is atomic, concurrent callers each see a distinct pre-image.
+     */
+    UserGamify recordActivity(String userId, int commands, int prodCommands, LocalDate day);
+
+    /**
+     * Replaces the user's server bitmap if it still equals {@code expected} (null meaning
+     * none yet), dropping any legacy hostname set in the same write.
+     *
+     * @return false if the bitmap changed since {@code expected} was read
+     */
+    boolean replaceServers(String userId, byte[] expected, byte[] replacement, int count);
+
+    byte[] findServerBitmap(String userId);
+
+    /**
+     * Adds points and, when {@code streakDays} is not null, sets the streak.
+     */
+    void creditPoints(String userId, int points, Integer streakDays);
+
+    /**
+     * Applies a scored day's counters, points and streak in one update guarded by
+     * {@code marker}, which is added to {@code creditedDays} in the same write, so the
+     * day can be credited at most once however often the caller retries.
+     *
+     * @return false if the day was already credited
+     */
+    boolean creditDay(String userId, String marker, int commands, int prodCommands, int points,
+                      int streakDays, LocalDate day);
+
+    /**
+     * Grants a badge and its bonus unless the user already holds it.
+     *
+     * @return false if another award granted it first
+     */
+    boolean grantBadge(String userId, String code, int bonus);
+
+    /**
+     * Takes back a badge and its bonus; used to undo an award found to be a duplicate.
+     */
+    void revokeBadge(String userId, String code, int bonus);
+}
@@ -0,0 +1,108 @@
+package com.infrasight.db.repository;
+
+import com.infrasight.db.model.UserGamify;
+import com.mongodb.client.result.UpdateResult;
+import lombok.RequiredArgsConstructor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.LocalDate;
+
+@RequiredArgsConstructor
+public class UserGamifyRepositoryCustomImpl implements UserGamifyRepositoryCustom {
+
+    private final MongoTemplate mongoTemplate;
+
+    @Override
+    public UserGamify recordActivity(String userId, int commands, int prodCommands, LocalDate day) {
+        Update update = new Update();
+        if (day != null) {
+            update.max("lastActivity", day);
+        }
+        if (commands != 0) {
+            update.inc("totalCommands", commands);
+        }
+        if (prodCommands != 0) {
+            update.inc("prodCommands", prodCommands);
+        }
+        UserGamify before = mongoTemplate.findAndModify(byUser(userId), update,
+                FindAndModifyOptions.options().upsert(true).returnNew(false), UserGamify.class);
+        if (before == null) {
+            // just inserted; the pre-image is an empty user
+            before = new UserGamify();
+            before.setUserId(userId);
+        }
+        return before;
+    }
+
+    @Override
+    public boolean replaceServers(String userId, byte[] expected, byte[] replacement, int count) {
+        Criteria match = Criteria.where("userId").is(userId);
+        match = expected != null ? match.and("serverBitmap").is(expected) : match.and("serverBitmap").exists(false);
+        return mongoTemplate.updateFirst(Query.query(match),
+                new Update().set("serverBitmap", replacement).set("uniqueServerCount", count).unset("uniqueServers"),
+                UserGamify.class).getModifiedCount() > 0;
+    }
+
+    @Override
+    public byte[] findServerBitmap(String userId) {
+        Query query = byUser(userId);
+        query.fields().include("serverBitmap");
+        UserGamify user = mongoTemplate.findOne(query, UserGamify.class);
+        return user != null ? user.getServerBitmap() : null;
+    }
+
+    @Override
+    public void creditPoints(String userId, int points, Integer streakDays) {
+        Update update = new Update().inc("totalPoints", points);
+        if (streakDays != null) {
+            update.set("streakDays", streakDays);
+        }
+        mongoTemplate.updateFirst(byUser(userId), update, UserGamify.class);
+    }
+
+    @Override
+    public boolean creditDay(String userId, String marker, int commands, int prodCommands, int points,
+                             int streakDays, LocalDate day) {
+        Update update = new Update()
+                .inc("totalCommands", commands)
+                .inc("prodCommands", prodCommands)
+                .inc("totalPoints", points)
+                .set("streakDays", streakDays)
+                .max("lastActivity", day)
+                .addToSet("creditedDays", marker);
+        try {
+            UpdateResult result = mongoTemplate.upsert(
+                    Query.query(Criteria.where("userId").is(userId).and("creditedDays").ne(marker)),
+                    update, UserGamify.class);
+            return result.getModifiedCount() > 0 || result.getUpsertedId() != null;
+        } catch (DuplicateKeyException e) {
+            // the user exists and already carries the marker, so the upsert collided on userId
+            return false;
+        }
+    }
+
+    @Override
+    public boolean grantBadge(String userId, String code, int bonus) {
+        return mongoTemplate.updateFirst(
+                Query.query(Criteria.where("userId").is(userId).and("badges").ne(code)),
+                new Update().push("badges", code).inc("totalPoints", bonus),
+                UserGamify.class).getModifiedCount() > 0;
+    }
+
+    @Override
+    public void revokeBadge(String userId, String code, int bonus) {
+        mongoTemplate.updateFirst(
+                Query.query(Criteria.where("userId").is(userId).and("badges").is(code)),
+                new Update().pull("badges", code).inc("totalPoints", -bonus),
+                UserGamify.class);
+    }
+
+    static Query byUser(String userId) {
+        return Query.query(Criteria.where("userId").is(userId));
+    }
+}
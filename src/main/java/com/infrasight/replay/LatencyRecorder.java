@@ -0,0 +1,73 @@
+package com.infrasight.replay;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear latency histogram in microseconds. Values below 64us are
+ * exact; above that each power of two is split into 32 buckets (~3% error).
+ */
+class LatencyRecorder {
+
+    private static final int SUB_BUCKETS = 32;
+    private static final int BUCKETS = 64 + (63 - 6) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    void record(long micros) {
+        counts.incrementAndGet(bucket(Math.max(0, micros)));
+        total.increment();
+    }
+
+    void error() {
+        errors.increment();
+    }
+
+    long count() {
+        return total.sum();
+    }
+
+    long errors() {
+        return errors.sum();
+    }
+
+    /**
+     * @param quantile between 0 and 1, e.g. 0.999
+     * @return lower bound in microseconds of the bucket holding that quantile
+     */
+    long percentile(double quantile) {
+        long n = total.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return lowerBound(i);
+            }
+        }
+        return lowerBound(BUCKETS - 1);
+    }
+
+    static int bucket(long micros) {
+        if (micros < 64) {
+            return (int) micros;
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (msb - 5)) & (SUB_BUCKETS - 1);
+        return 64 + (msb - 6) * SUB_BUCKETS + sub;
+    }
+
+    static long lowerBound(int bucket) {
+        if (bucket < 64) {
+            return bucket;
+        }
+        int k = bucket - 64;
+        int msb = k / SUB_BUCKETS + 6;
+        return (long) (SUB_BUCKETS | (k % SUB_BUCKETS)) << (msb - 5);
+    }
+}
@@ -0,0 +1,23 @@
+package com.infrasight.replay;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.infrasight.data.PointsRequest;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+/**
+ * One line of an NDJSON capture: a {@link PointsRequest} plus the user it was
+ * issued for. {@code type} is {@code login} or {@code points}; when absent it is
+ * inferred from the event name.
+ */
+@Data
+@EqualsAndHashCode(callSuper = true)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ReplayEvent extends PointsRequest {
+    private String type;
+    private String userId;
+
+    public boolean isLogin() {
+        return "login".equals(type) || (type == null && "login".equals(getEvent()));
+    }
+}
@@ -0,0 +1,27 @@
+package com.infrasight.replay;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+@Data
+@Profile("replay")
+@Configuration
+@ConfigurationProperties(prefix = "replay")
+public class ReplayProperties {
+    /** NDJSON capture to replay, one event per line. */
+    private String file;
+    /** Worker threads issuing awards. */
+    private int concurrency = 16;
+    /** Target events per second across all workers; 0 replays as fast as possible. */
+    private int rate = 0;
+    /** When > 0, remap every event onto this many synthetic users. */
+    private int users = 0;
+    /** Zipf exponent for the synthetic user distribution; 0 is uniform. */
+    private double skew = 1.0;
+    /** Stop after this many events; 0 replays the whole file. */
+    private long limit = 0;
+    /** Seconds between progress reports. */
+    private int reportInterval = 10;
+}
@@ -0,0 +1,160 @@
+package com.infrasight.replay;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.infrasight.service.GamificationService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Replays an NDJSON capture of login/points events against {@link GamificationService}
+ * and reports throughput, latency percentiles and errors per endpoint.
+ * <p>
+ * The capture is read line by line so arbitrarily large files stay off the heap; at most
+ * {@code 4 * concurrency} events are in flight at once. When a rate is set, latency is
+ * measured from each event's scheduled send time so a stalled service is not hidden by
+ * the sender slowing down with it.
+ * <p>
+ * Run with {@code --spring.profiles.active=replay --replay.file=capture.ndjson[.gz]}.
+ */
+@Slf4j
+@Component
+@Profile("replay")
+@RequiredArgsConstructor
+public class ReplayRunner implements CommandLineRunner {
+
+    private final ReplayProperties props;
+    private final GamificationService gamificationService;
+    private final ObjectMapper objectMapper;
+
+    private final Map<String, LatencyRecorder> endpoints = new ConcurrentHashMap<>();
+    private final LongAdder parseErrors = new LongAdder();
+
+    @Override
+    public void run(String... args) throws Exception {
+        if (props.getFile() == null) {
+            throw new IllegalStateException("replay.file must point at an NDJSON capture");
+        }
+        ZipfUserSampler users = props.getUsers() > 0 ? new ZipfUserSampler(props.getUsers(), props.getSkew()) : null;
+        long intervalNanos = props.getRate() > 0 ? TimeUnit.SECONDS.toNanos(1) / props.getRate() : 0;
+
+        ExecutorService workers = Executors.newFixedThreadPool(props.getConcurrency());
+        Semaphore inFlight = new Semaphore(props.getConcurrency() * 4);
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+
+        long start = System.nanoTime();
+        reporter.scheduleAtFixedRate(() -> report(start, "progress"),
+                props.getReportInterval(), props.getReportInterval(), TimeUnit.SECONDS);
+        log.info("Replaying {} with concurrency={}, rate={}/s, users={}, skew={}",
+                props.getFile(), props.getConcurrency(), props.getRate(), props.getUsers(), props.getSkew());
+
+        long sent = 0;
+        try (BufferedReader reader = open(props.getFile())) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (props.getLimit() > 0 && sent >= props.getLimit()) {
+                    break;
+                }
+                if (line.isBlank()) {
+                    continue;
+                }
+                ReplayEvent event;
+                try {
+                    event = objectMapper.readValue(line, ReplayEvent.class);
+                } catch (IOException e) {
+                    parseErrors.increment();
+                    continue;
+                }
+                String userId = users != null ? users.next() : event.getUserId();
+
+                long scheduled = System.nanoTime();
+                if (intervalNanos > 0) {
+                    scheduled = start + sent * intervalNanos;
+                    long wait = scheduled - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+                sent++;
+
+                inFlight.acquire();
+                long sendTime = scheduled;
+                workers.execute(() -> {
+                    try {
+                        dispatch(event, userId, sendTime);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        }
+
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.HOURS);
+        reporter.shutdownNow();
+        report(start, "final");
+    }
+
+    private void dispatch(ReplayEvent event, String userId, long sendTime) {
+        LatencyRecorder recorder = endpoints.computeIfAbsent(
+                event.isLogin() ? "POST /api/gamify/login" : "POST /api/gamify/points", k -> new LatencyRecorder());
+        try {
+            if (event.isLogin()) {
+                gamificationService.awardLoginPoints(userId);
+            } else {
+                gamificationService.awardCommandPoints(event, userId);
+            }
+            recorder.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sendTime));
+        } catch (RuntimeException e) {
+            recorder.error();
+            log.debug("Replay of {} for user {} failed", event.getActionUuid(), userId, e);
+        }
+    }
+
+    private void report(long start, String phase) {
+        double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+        for (Map.Entry<String, LatencyRecorder> e : new TreeMap<>(endpoints).entrySet()) {
+            LatencyRecorder r = e.getValue();
+            log.info("[{}] {}: count={} errors={} throughput={}/s p50={}ms p99={}ms p999={}ms",
+                    phase, e.getKey(), r.count(), r.errors(),
+                    String.format("%.1f", r.count() / seconds),
+                    millis(r.percentile(0.50)), millis(r.percentile(0.99)), millis(r.percentile(0.999)));
+        }
+        if (parseErrors.sum() > 0) {
+            log.info("[{}] unparseable lines: {}", phase, parseErrors.sum());
+        }
+    }
+
+    private static String millis(long micros) {
+        return String.format("%.3f", micros / 1000.0);
+    }
+
+    private static BufferedReader open(String file) throws IOException {
+        InputStream in = Files.newInputStream(Paths.get(file));
+        if (file.endsWith(".gz")) {
+            in = new GZIPInputStream(in, 1 << 16);
+        }
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+    }
+}
@@ -0,0 +1,33 @@
+package com.infrasight.replay;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Draws synthetic user ids {@code replay-user-<rank>} where rank k is chosen
+ * with probability proportional to 1 / k^skew. A skew of 0 is uniform.
+ */
+class ZipfUserSampler {
+
+    private final double[] cdf;
+
+    ZipfUserSampler(int users, double skew) {
+        cdf = new double[users];
+        double sum = 0;
+        for (int k = 1; k <= users; k++) {
+            sum += 1.0 / Math.pow(k, skew);
+            cdf[k - 1] = sum;
+        }
+        for (int i = 0; i < users; i++) {
+            cdf[i] /= sum;
+        }
+    }
+
+    String next() {
+        int idx = Arrays.binarySearch(cdf, ThreadLocalRandom.current().nextDouble());
+        if (idx < 0) {
+            idx = -idx - 1;
+        }
+        return "replay-user-" + (Math.min(idx, cdf.length - 1) + 1);
+    }
+}
@@ -0,0 +1,282 @@
+package com.infrasight.service;
+
+import com.infrasight.db.model.GamifyConfigDoc.BadgeDef;
+import com.infrasight.db.model.JobCheckpoint;
+import com.infrasight.db.model.PointsLog;
+import com.infrasight.db.model.UserGamify;
+import com.infrasight.db.repository.JobCheckpointRepository;
+import com.infrasight.db.repository.PointsLogRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Retroactively grants new or changed badges to existing users.
+ * <p>
+ * Streams {@code user_gamify} in {@code userId} order, evaluates the selected badges
+ * for each batch in parallel on a dedicated pool (half the cores, so live traffic keeps
+ * the rest), then applies grants and bonus points with one unordered bulk write. Each
+ * grant also records the badge in {@code backfilledBadges}, and only badges found there
+ * afterwards get a {@link PointsLog} entry, so a grant that a live award beat is neither
+ * logged nor counted. A checkpoint is saved after every batch so an interrupted run
+ * resumes from the last completed user.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class BadgeBackfillService {
+
+    static final String BACKFILL_EVENT = "badge.backfill";
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final MongoConfigService configService;
+    private final MongoTemplate mongoTemplate;
+    private final JobCheckpointRepository checkpointRepository;
+    private final PointsLogRepository pointsLogRepository;
+
+    @Value("${gamify.backfill.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${gamify.backfill.pause-ms:0}")
+    private long pauseMs;
+
+    private final ExecutorService runner = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "badge-backfill");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ForkJoinPool evaluators = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /**
+     * Starts a backfill in the background.
+     *
+     * @param codes   badge codes to grant; must exist in the current config
+     * @param restart ignore any saved checkpoint and start from the first user
+     * @return false if a backfill is already running
+     */
+    public boolean start(Collection<String> codes, boolean restart) {
+        Map<String, BadgeDef> defs = selectBadges(codes);
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        runner.execute(() -> {
+            try {
+                run(defs, restart);
+            } catch (Exception e) {
+                log.error("Badge backfill for {} failed; rerun to resume from the checkpoint", defs.keySet(), e);
+            } finally {
+                running.set(false);
+            }
+        });
+        return true;
+    }
+
+    public Optional<JobCheckpoint> getStatus(Collection<String> codes) {
+        return checkpointRepository.findById(checkpointId(new TreeSet<>(codes)));
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    void run(Map<String, BadgeDef> defs, boolean restart) throws InterruptedException, ExecutionException {
+        BadgeRuleSet rules = BadgeRuleSet.compile(defs);
+        String id = checkpointId(defs.keySet());
+        JobCheckpoint checkpoint = restart ? null : checkpointRepository.findById(id).orElse(null);
+        if (checkpoint == null || checkpoint.isCompleted()) {
+            checkpoint = new JobCheckpoint();
+            checkpoint.setId(id);
+        }
+        log.info("Badge backfill for {} starting after userId={}", defs.keySet(), checkpoint.getLastKey());
+
+        Query query = usersAfter(checkpoint.getLastKey());
+        query.cursorBatchSize(batchSize);
+
+        List<UserGamify> batch = new ArrayList<>(batchSize);
+        try (CloseableIterator<UserGamify> users = mongoTemplate.stream(query, UserGamify.class)) {
+            while (users.hasNext()) {
+                batch.add(users.next());
+                if (batch.size() == batchSize) {
+                    processBatch(batch, rules, defs, checkpoint);
+                    batch.clear();
+                    if (pauseMs > 0) {
+                        Thread.sleep(pauseMs);
+                    }
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            processBatch(batch, rules, defs, checkpoint);
+        }
+
+        checkpoint.setCompleted(true);
+        checkpoint.setUpdatedAt(Instant.now());
+        checkpointRepository.save(checkpoint);
+        log.info("Badge backfill for {} finished: {} users scanned, {} badges granted",
+                defs.keySet(), checkpoint.getProcessed(), checkpoint.getApplied());
+    }
+
+    private void processBatch(List<UserGamify> batch, BadgeRuleSet rules, Map<String, BadgeDef> defs,
+                              JobCheckpoint checkpoint) throws InterruptedException, ExecutionException {
+        List<Grant> grants = evaluators.submit(() -> batch.parallelStream()
+                .flatMap(user -> {
+                    List<String> earned = new ArrayList<>();
+                    rules.evaluate(BadgeContext.of(user), user.getBadges(), earned);
+                    return earned.stream().map(code -> new Grant(user.getUserId(), code, defs.get(code).getBonus()));
+                })
+                .collect(Collectors.toList())).get();
+
+        if (!grants.isEmpty()) {
+            BulkOperations userOps = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UserGamify.class);
+            for (Grant grant : grants) {
+                // the $ne guard keeps a concurrent live award from being paid twice
+                userOps.updateOne(
+                        Query.query(Criteria.where("userId").is(grant.userId).and("badges").ne(grant.code)),
+                        new Update().addToSet("badges", grant.code).inc("totalPoints", grant.bonus)
+                                .addToSet("backfilledBadges", grant.code));
+            }
+            userOps.execute();
+        }
+        // also covers grants made by an earlier, interrupted pass over this batch, which
+        // are no longer evaluated because the users already hold the badges
+        int applied = log(backfilled(batch), defs);
+
+        checkpoint.setLastKey(batch.get(batch.size() - 1).getUserId());
+        checkpoint.setProcessed(checkpoint.getProcessed() + batch.size());
+        checkpoint.setApplied(checkpoint.getApplied() + applied);
+        checkpoint.setUpdatedAt(Instant.now());
+        checkpointRepository.save(checkpoint);
+    }
+
+    /**
+     * The badges each user in the batch got from a backfill. A grant whose guard matched
+     * nothing, because a live award got there first, is not among them.
+     */
+    private Map<String, List<String>> backfilled(List<UserGamify> batch) {
+        List<String> userIds = batch.stream().map(UserGamify::getUserId).collect(Collectors.toList());
+        Map<String, List<String>> backfilled = new TreeMap<>();
+        for (UserGamify user : mongoTemplate.find(backfilledAmong(userIds), UserGamify.class)) {
+            backfilled.put(user.getUserId(), user.getBackfilledBadges());
+        }
+        return backfilled;
+    }
+
+    /**
+     * Users in userId order after {@code lastKey}, the checkpoint, or all of them if null.
+     */
+    static Query usersAfter(String lastKey) {
+        Query query = new Query().with(Sort.by(Sort.Direction.ASC, "userId"));
+        if (lastKey != null) {
+            query.addCriteria(Criteria.where("userId").gt(lastKey));
+        }
+        query.fields().exclude("_id");
+        return query;
+    }
+
+    static Query backfilledAmong(List<String> userIds) {
+        Query query = Query.query(Criteria.where("userId").in(userIds).and("backfilledBadges").exists(true));
+        query.fields().include("userId").include("backfilledBadges");
+        return query;
+    }
+
+    /**
+     * Logs the selected badges that were backfilled; entries an earlier pass already
+     * wrote are rejected by their {@code actionUuid}.
+     *
+     * @return the number of entries written now
+     */
+    private int log(Map<String, List<String>> backfilled, Map<String, BadgeDef> defs) {
+        List<PointsLog> entries = new ArrayList<>();
+        LocalDate today = LocalDate.now();
+        backfilled.forEach((userId, codes) -> {
+            for (String code : codes) {
+                BadgeDef def = defs.get(code);
+                if (def == null) {
+                    continue;
+                }
+                entries.add(PointsLog.builder()
+                        .userId(userId)
+                        .event(BACKFILL_EVENT)
+                        .pointsAwarded(def.getBonus())
+                        .badgeBonus(def.getBonus())
+                        .timestamp(today)
+                        .actionUuid("backfill_" + code + "_" + userId)
+                        .build());
+            }
+        });
+        try {
+            pointsLogRepository.appendAll(entries);
+            return entries.size();
+        } catch (BulkOperationException e) {
+            if (e.getErrors().stream().anyMatch(err -> err.getCode() != DUPLICATE_KEY)) {
+                throw e;
+            }
+            return entries.size() - e.getErrors().size();
+        }
+    }
+
+    private Map<String, BadgeDef> selectBadges(Collection<String> codes) {
+        Map<String, BadgeDef> all = configService.getConfig().getBadges();
+        Map<String, BadgeDef> selected = new TreeMap<>();
+        for (String code : codes) {
+            BadgeDef def = all != null ? all.get(code) : null;
+            if (def == null) {
+                throw new IllegalArgumentException("Unknown badge: " + code);
+            }
+            selected.put(code, def);
+        }
+        if (selected.isEmpty()) {
+            throw new IllegalArgumentException("No badges selected for backfill");
+        }
+        return selected;
+    }
+
+    private static String checkpointId(Collection<String> sortedCodes) {
+        return "badge-backfill:" + String.join(",", sortedCodes);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        runner.shutdownNow();
+        evaluators.shutdownNow();
+    }
+
+    private static final class Grant {
+        private final String userId;
+        private final String code;
+        private final int bonus;
+
+        private Grant(String userId, String code, int bonus) {
+            this.userId = userId;
+            this.code = code;
+            this.bonus = bonus;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.infrasight.service;
+
+import com.infrasight.db.model.UserGamify;
+import lombok.Data;
+
+/**
+ * Root object that badge conditions are evaluated against, e.g.
+ * {@code uniqueServers >= 100 and prodCommands > 50}.
+ */
+@Data
+public class BadgeContext {
+    private int uniqueServers;
+    private int totalCommands;
+    private int prodCommands;
+    private int streakDays;
+    private int totalPoints;
+
+    public static BadgeContext of(UserGamify user) {
+        BadgeContext ctx = new BadgeContext();
+        int legacy = user.getLegacyServers() != null ? user.getLegacyServers().size() : 0;
+        ctx.setUniqueServers(Math.max(user.getUniqueServerCount(), legacy));
+        ctx.setTotalCommands(user.getTotalCommands());
+        ctx.setProdCommands(user.getProdCommands());
+        ctx.setStreakDays(user.getStreakDays());
+        ctx.setTotalPoints(user.getTotalPoints());
+        return ctx;
+    }
+}
@@ -0,0 +1,301 @@
+package com.infrasight.service;
+
+import com.infrasight.data.BadgeProgress;
+import com.infrasight.db.model.GamifyConfigDoc.BadgeDef;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelNode;
+import org.springframework.expression.spel.SpelParserConfiguration;
+import org.springframework.expression.spel.ast.PropertyOrFieldReference;
+import org.springframework.expression.spel.standard.SpelExpression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.SimpleEvaluationContext;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Badge definitions with their conditions parsed and, where possible, compiled
+ * to bytecode once per configuration.
+ * <p>
+ * Conditions are evaluated against a {@link BadgeContext} through a shared
+ * read-only context. MIXED compiler mode means a compiled condition that fails
+ * at runtime quietly drops back to interpretation instead of failing the award.
+ * <p>
+ * At build time every condition is analysed for the counters it reads. Plain
+ * threshold conditions such as {@code totalCommands >= 1000} never run as
+ * expressions: they go into a per-counter sorted threshold table, and a
+ * {@link Cursor} tracks the user's next unearned threshold so the per-event
+ * check is a single integer compare. Other conditions are only re-evaluated
+ * when one of the counters they depend on changed.
+ */
+@Slf4j
+public final class BadgeRuleSet {
+
+    public static final int UNIQUE_SERVERS = 1;
+    public static final int TOTAL_COMMANDS = 1 << 1;
+    public static final int PROD_COMMANDS = 1 << 2;
+    public static final int STREAK_DAYS = 1 << 3;
+    public static final int TOTAL_POINTS = 1 << 4;
+    public static final int ALL_COUNTERS = (1 << 5) - 1;
+
+    // bit i of a dependency mask refers to COUNTERS[i]
+    private static final String[] COUNTERS = {"uniqueServers", "totalCommands", "prodCommands", "streakDays", "totalPoints"};
+
+    private static final Pattern THRESHOLD = Pattern.compile("^\\s*(\\w+)\\s*(>=|>|ge|gt)\\s*(\\d+)\\s*$");
+
+    private static final SpelExpressionParser PARSER = new SpelExpressionParser(
+            new SpelParserConfiguration(SpelCompilerMode.MIXED, BadgeRuleSet.class.getClassLoader()));
+    private static final EvaluationContext CONTEXT = SimpleEvaluationContext.forReadOnlyDataBinding().build();
+
+    private final Map<String, BadgeDef> source;
+    private final String[] codes;
+    private final int[] bonuses;
+
+    // threshold badges: per counter, thresholds ascending and the badge index for each
+    private final int[][] thresholds = new int[COUNTERS.length][];
+    private final int[][] thresholdBadges = new int[COUNTERS.length][];
+
+    // expression badges with their counter dependency masks
+    private final int[] exprBadges;
+    private final Expression[] exprConditions;
+    private final int[] exprDependencies;
+
+    private BadgeRuleSet(Map<String, BadgeDef> badges) {
+        this.source = badges != null ? new HashMap<>(badges) : new HashMap<>();
+        List<String> codeList = new ArrayList<>();
+        List<Integer> bonusList = new ArrayList<>();
+        List<List<long[]>> byCounter = new ArrayList<>();
+        for (int c = 0; c < COUNTERS.length; c++) {
+            byCounter.add(new ArrayList<>());
+        }
+        List<Integer> exprIdx = new ArrayList<>();
+        List<Expression> exprList = new ArrayList<>();
+        List<Integer> depList = new ArrayList<>();
+
+        for (Map.Entry<String, BadgeDef> e : source.entrySet()) {
+            String condition = e.getValue().getCondition();
+            int badge = codeList.size();
+            try {
+                Matcher m = THRESHOLD.matcher(condition);
+                int counter = m.matches() ? counterIndex(m.group(1)) : -1;
+                if (counter >= 0) {
+                    String op = m.group(2);
+                    long value = Long.parseLong(m.group(3)) + (">=".equals(op) || "ge".equals(op) ? 0 : 1);
+                    byCounter.get(counter).add(new long[]{Math.min(value, Integer.MAX_VALUE), badge});
+                } else {
+                    SpelExpression expr = compileCondition(e.getKey(), condition);
+                    exprIdx.add(badge);
+                    exprList.add(expr);
+                    int deps = dependencies(expr.getAST());
+                    depList.add(deps != 0 ? deps : ALL_COUNTERS);
+                }
+                codeList.add(e.getKey());
+                bonusList.add(e.getValue().getBonus());
+            } catch (RuntimeException ex) {
+                log.error("Skipping badge {} with invalid condition: {}", e.getKey(), condition, ex);
+            }
+        }
+
+        this.codes = codeList.toArray(new String[0]);
+        this.bonuses = bonusList.stream().mapToInt(Integer::intValue).toArray();
+        for (int c = 0; c < COUNTERS.length; c++) {
+            List<long[]> entries = byCounter.get(c);
+            entries.sort((a, b) -> Long.compare(a[0], b[0]));
+            thresholds[c] = entries.stream().mapToInt(t -> (int) t[0]).toArray();
+            thresholdBadges[c] = entries.stream().mapToInt(t -> (int) t[1]).toArray();
+        }
+        this.exprBadges = exprIdx.stream().mapToInt(Integer::intValue).toArray();
+        this.exprConditions = exprList.toArray(new Expression[0]);
+        this.exprDependencies = depList.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    public static BadgeRuleSet compile(Map<String, BadgeDef> badges) {
+        return new BadgeRuleSet(badges);
+    }
+
+    /**
+     * Whether this set was built from the same definitions, so a config reload
+     * that did not touch badges can keep the already compiled expressions.
+     */
+    public boolean isCompiledFrom(Map<String, BadgeDef> badges) {
+        return Objects.equals(source, badges != null ? badges : new HashMap<>());
+    }
+
+    /**
+     * Evaluation state for one user, seeded from the badges they already hold.
+     */
+    public Cursor cursor(Collection<String> owned) {
+        return new Cursor(owned);
+    }
+
+    /**
+     * Evaluates every badge regardless of which counters changed. Appends the codes
+     * of badges that {@code ctx} satisfies and that are not in {@code owned}.
+     *
+     * @return total bonus points of the newly earned badges
+     */
+    public int evaluate(BadgeContext ctx, Collection<String> owned, List<String> earned) {
+        return cursor(owned).evaluate(ctx, ALL_COUNTERS, earned);
+    }
+
+    /**
+     * Distance to every unearned threshold badge, computed from the index alone.
+     */
+    public List<BadgeProgress> progress(BadgeContext ctx, Collection<String> owned) {
+        List<BadgeProgress> result = new ArrayList<>();
+        for (int c = 0; c < COUNTERS.length; c++) {
+            int value = counterValue(ctx, c);
+            for (int i = 0; i < thresholds[c].length; i++) {
+                String code = codes[thresholdBadges[c][i]];
+                if (owned.contains(code)) {
+                    continue;
+                }
+                BadgeDef def = source.get(code);
+                int threshold = thresholds[c][i];
+                result.add(new BadgeProgress(code, def.getName(), COUNTERS[c], value, threshold,
+                        Math.max(0, threshold - value)));
+            }
+        }
+        result.sort((a, b) -> Double.compare(
+                (double) a.getRemaining() / Math.max(1, a.getThreshold()),
+                (double) b.getRemaining() / Math.max(1, b.getThreshold())));
+        return result;
+    }
+
+    public final class Cursor {
+        private final Set<String> owned;
+        private final int[] next = new int[COUNTERS.length];
+
+        private Cursor(Collection<String> owned) {
+            this.owned = new HashSet<>(owned);
+            for (int c = 0; c < COUNTERS.length; c++) {
+                next[c] = nextThreshold(c);
+            }
+        }
+
+        /**
+         * Checks the badges that depend on the {@code changed} counters.
+         *
+         * @return total bonus points of the newly earned badges, whose codes are appended to {@code earned}
+         */
+        public int evaluate(BadgeContext ctx, int changed, List<String> earned) {
+            int bonus = 0;
+            for (int c = 0; c < COUNTERS.length; c++) {
+                if ((changed & (1 << c)) == 0) {
+                    continue;
+                }
+                int value = counterValue(ctx, c);
+                if (value < next[c]) {
+                    continue;
+                }
+                int[] t = thresholds[c];
+                for (int i = 0; i < t.length && t[i] <= value; i++) {
+                    int badge = thresholdBadges[c][i];
+                    if (owned.add(codes[badge])) {
+                        earned.add(codes[badge]);
+                        bonus += bonuses[badge];
+                    }
+                }
+                next[c] = nextThreshold(c);
+            }
+
+            for (int i = 0; i < exprBadges.length; i++) {
+                int badge = exprBadges[i];
+                if ((exprDependencies[i] & changed) == 0 || owned.contains(codes[badge])) {
+                    continue;
+                }
+                Boolean ok;
+                try {
+                    ok = exprConditions[i].getValue(CONTEXT, ctx, Boolean.class);
+                } catch (RuntimeException ex) {
+                    log.warn("Badge condition for {} failed to evaluate", codes[badge], ex);
+                    continue;
+                }
+                if (Boolean.TRUE.equals(ok)) {
+                    owned.add(codes[badge]);
+                    earned.add(codes[badge]);
+                    bonus += bonuses[badge];
+                }
+            }
+            return bonus;
+        }
+
+        private int nextThreshold(int counter) {
+            int[] t = thresholds[counter];
+            for (int i = 0; i < t.length; i++) {
+                if (!owned.contains(codes[thresholdBadges[counter][i]])) {
+                    return t[i];
+                }
+            }
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    private static int counterIndex(String name) {
+        for (int c = 0; c < COUNTERS.length; c++) {
+            if (COUNTERS[c].equals(name)) {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    private static int counterValue(BadgeContext ctx, int counter) {
+        switch (counter) {
+            case 0:
+                return ctx.getUniqueServers();
+            case 1:
+                return ctx.getTotalCommands();
+            case 2:
+                return ctx.getProdCommands();
+            case 3:
+                return ctx.getStreakDays();
+            default:
+                return ctx.getTotalPoints();
+        }
+    }
+
+    /**
+     * Counters referenced anywhere in the expression tree. A reference to anything
+     * that is not a known counter makes the condition depend on all of them.
+     */
+    private static int dependencies(SpelNode node) {
+        int mask = 0;
+        if (node instanceof PropertyOrFieldReference) {
+            int c = counterIndex(((PropertyOrFieldReference) node).getName());
+            if (c < 0) {
+                return ALL_COUNTERS;
+            }
+            mask |= 1 << c;
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            mask |= dependencies(node.getChild(i));
+        }
+        return mask;
+    }
+
+    private static SpelExpression compileCondition(String code, String condition) {
+        SpelExpression expr = PARSER.parseRaw(condition);
+        try {
+            // one interpreted run records the operand types the compiler needs
+            expr.getValue(CONTEXT, new BadgeContext(), Boolean.class);
+            if (!expr.compileExpression()) {
+                log.debug("Badge {} condition is not compilable, evaluating interpreted: {}", code, condition);
+            }
+        } catch (RuntimeException ex) {
+            log.debug("Badge {} condition could not be compiled up front: {}", code, condition, ex);
+        }
+        return expr;
+    }
+}
@@ -0,0 +1,174 @@
+package com.infrasight.service;
+
+import com.mongodb.MongoException;
+import com.mongodb.MongoInterruptedException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDocument;
+import org.bson.Document;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Keeps a change stream open for a watcher thread, reopening it after errors.
+ * <p>
+ * The cursor's resume token is kept as events are handled, and a reopened stream resumes
+ * after it, so a failover or dropped connection loses nothing. When the stream cannot
+ * resume (no token yet, the token has fallen off the oplog, or the stream was invalidated)
+ * it is reopened from the current time and {@code onGap} runs once it is open, so the
+ * owner can reload whatever it may have missed. Reopening backs off exponentially. On a
+ * deployment without change streams (standalone Mongo) the first attempt logs the
+ * fallback and the loop ends.
+ */
+@Slf4j
+final class ChangeStreamLoop {
+
+    private static final long INITIAL_BACKOFF_MS = 500;
+    private static final long MAX_BACKOFF_MS = 30_000;
+    // $changeStream is only supported on replica sets
+    private static final int UNSUPPORTED = 40573;
+    // InvalidResumeToken, ChangeStreamFatalError, ChangeStreamHistoryLost
+    private static final Set<Integer> CANNOT_RESUME = Set.of(260, 280, 286);
+
+    private final String name;
+    private final String fallback;
+    private final Function<BsonDocument, MongoChangeStreamCursor<ChangeStreamDocument<Document>>> open;
+    private final Consumer<ChangeStreamDocument<Document>> onChange;
+    private final Runnable onGap;
+    private final long initialBackoffMs;
+
+    private volatile boolean unsupported;
+
+    /**
+     * @param name     what is watched, for log messages
+     * @param fallback what the owner does without a change stream, for log messages
+     * @param open     opens the stream, resuming after the given token unless it is null
+     */
+    ChangeStreamLoop(String name, String fallback,
+                     Function<BsonDocument, MongoChangeStreamCursor<ChangeStreamDocument<Document>>> open,
+                     Consumer<ChangeStreamDocument<Document>> onChange, Runnable onGap) {
+        this(name, fallback, open, onChange, onGap, INITIAL_BACKOFF_MS);
+    }
+
+    ChangeStreamLoop(String name, String fallback,
+                     Function<BsonDocument, MongoChangeStreamCursor<ChangeStreamDocument<Document>>> open,
+                     Consumer<ChangeStreamDocument<Document>> onChange, Runnable onGap, long initialBackoffMs) {
+        this.name = name;
+        this.fallback = fallback;
+        this.open = open;
+        this.onChange = onChange;
+        this.onGap = onGap;
+        this.initialBackoffMs = initialBackoffMs;
+    }
+
+    /**
+     * Opens the stream from the current time, for owners that must open it before they
+     * seed. Returns null if that failed; {@link #run} then opens it and runs
+     * {@code onGap}, unless change streams are {@link #isUnsupported() unsupported}.
+     */
+    MongoChangeStreamCursor<ChangeStreamDocument<Document>> open() {
+        try {
+            return open.apply(null);
+        } catch (RuntimeException e) {
+            failed(e, false);
+            return null;
+        }
+    }
+
+    boolean isUnsupported() {
+        return unsupported;
+    }
+
+    /**
+     * Handles events until the thread is interrupted, starting with {@code first} if it
+     * is not null.
+     */
+    void run(MongoChangeStreamCursor<ChangeStreamDocument<Document>> first) {
+        MongoChangeStreamCursor<ChangeStreamDocument<Document>> changes = first;
+        BsonDocument resumeToken = null;
+        long backoff = initialBackoffMs;
+        while (!unsupported && !Thread.currentThread().isInterrupted()) {
+            try {
+                if (changes == null) {
+                    changes = open.apply(resumeToken);
+                    if (resumeToken == null) {
+                        onGap.run();
+                    }
+                }
+                log.info("Watching {}", name);
+                resumeToken = tokenOf(changes, resumeToken);
+                while (!Thread.currentThread().isInterrupted() && changes.hasNext()) {
+                    ChangeStreamDocument<Document> change = changes.next();
+                    try {
+                        onChange.accept(change);
+                    } catch (RuntimeException e) {
+                        log.warn("Skipping {} change that could not be applied", name, e);
+                    }
+                    resumeToken = tokenOf(changes, resumeToken);
+                    backoff = initialBackoffMs;
+                }
+                // invalidated (collection dropped or renamed); a new stream starts from now
+                resumeToken = null;
+            } catch (RuntimeException e) {
+                if (Thread.currentThread().isInterrupted() || e instanceof MongoInterruptedException) {
+                    return;
+                }
+                if (failed(e, resumeToken != null)) {
+                    resumeToken = null;
+                }
+            } finally {
+                if (changes != null) {
+                    close(changes);
+                    changes = null;
+                }
+            }
+            if (unsupported) {
+                return;
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(backoff);
+            } catch (InterruptedException e) {
+                return;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+        }
+    }
+
+    /**
+     * Logs a failure and records whether change streams are unsupported.
+     *
+     * @return whether the resume token must be dropped
+     */
+    private boolean failed(RuntimeException e, boolean resuming) {
+        int code = e instanceof MongoException ? ((MongoException) e).getCode() : -1;
+        if (code == UNSUPPORTED) {
+            unsupported = true;
+            log.info("{} change stream unavailable ({}); {}", name, e.getMessage(), fallback);
+            return true;
+        }
+        if (resuming && CANNOT_RESUME.contains(code)) {
+            log.warn("{} change stream cannot resume ({}); reopening from now and reloading", name, e.getMessage());
+            return true;
+        }
+        log.warn("{} change stream failed, reopening", name, e);
+        return false;
+    }
+
+    // the token after the last event returned, or the post-batch token of an idle stream
+    private static BsonDocument tokenOf(MongoChangeStreamCursor<?> changes, BsonDocument previous) {
+        BsonDocument token = changes.getResumeToken();
+        return token != null ? token : previous;
+    }
+
+    private static void close(MongoChangeStreamCursor<?> cursor) {
+        try {
+            cursor.close();
+        } catch (RuntimeException e) {
+            // the connection is already gone
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.infrasight.service;
+
+import com.infrasight.data.PointsRequest;
+import com.infrasight.data.ScoreResult;
+import com.infrasight.data.ScoreResult.EventScore;
+import com.infrasight.data.ServerBitmap;
+import com.infrasight.db.model.UserGamify;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Side-effect-free scoring of events against a user snapshot.
+ * <p>
+ * Events are evaluated in order; the snapshot is never modified and nothing is written
+ * to Mongo, so a whole day of events can be scored in memory and persisted with a single
+ * write, and replays can score hypothetical events freely. Hostnames are looked up
+ * read-only: one with no server id yet is new to every user and is counted through
+ * {@link ScoreResult#getNewHosts()}. Callers that persist a result allocate those ids
+ * with {@link #resolveServers} first.
+ */
+@Component
+public class GamificationCalculator {
+
+    public static final String LOGIN_EVENT = "login";
+
+    private final ServerIds serverIds;
+
+    public GamificationCalculator() {
+        this(ServerIds.inMemory());
+    }
+
+    @Autowired
+    public GamificationCalculator(ServerIds serverIds) {
+        this.serverIds = serverIds;
+    }
+
+    public ScoreResult scoreAll(ScoringPlan plan, BadgeRuleSet badges, UserGamify snapshot,
+                                List<PointsRequest> events, LocalDate day) {
+        ScoreResult result = new ScoreResult();
+        result.setTotalPoints(snapshot.getTotalPoints());
+        result.setStreakDays(snapshot.getStreakDays());
+        result.setLastActivity(snapshot.getLastActivity());
+        result.setTotalCommands(snapshot.getTotalCommands());
+        result.setProdCommands(snapshot.getProdCommands());
+
+        ServerBitmap servers = ServerBitmap.deserialize(snapshot.getServerBitmap());
+        if (snapshot.getLegacyServers() != null && !snapshot.getLegacyServers().isEmpty()) {
+            for (String host : snapshot.getLegacyServers()) {
+                Integer id = serverIds.find(host);
+                if (id != null) {
+                    servers.add(id);
+                } else {
+                    result.getNewHosts().add(host);
+                }
+            }
+            result.setLegacyServersMerged(true);
+        }
+        result.setServers(servers);
+        BadgeRuleSet.Cursor badgeCursor = badges.cursor(snapshot.getBadges());
+        Set<String> seenUuids = new HashSet<>();
+        BadgeContext ctx = new BadgeContext();
+
+        for (PointsRequest request : events) {
+            if (request.getActionUuid() != null && !seenUuids.add(request.getActionUuid())) {
+                continue;
+            }
+
+            int points;
+            List<Integer> ids = null;
+            int changed = BadgeRuleSet.TOTAL_POINTS;
+            if (LOGIN_EVENT.equals(request.getEvent())) {
+                points = scoreLogin(plan, result, day);
+                changed |= BadgeRuleSet.STREAK_DAYS;
+            } else {
+                int serversBefore = result.getAddedServers().size() + result.getNewHosts().size();
+                ids = request.getServers() != null ? new ArrayList<>(request.getServers().size()) : null;
+                points = scoreCommand(plan, result, request, ids, day);
+                changed |= BadgeRuleSet.TOTAL_COMMANDS;
+                if ("prod".equals(request.getEnvironment())) {
+                    changed |= BadgeRuleSet.PROD_COMMANDS;
+                }
+                if (result.getAddedServers().size() + result.getNewHosts().size() != serversBefore) {
+                    changed |= BadgeRuleSet.UNIQUE_SERVERS;
+                }
+            }
+            result.setTotalPoints(result.getTotalPoints() + points);
+
+            ctx.setUniqueServers(servers.cardinality() + result.getNewHosts().size());
+            ctx.setTotalCommands(result.getTotalCommands());
+            ctx.setProdCommands(result.getProdCommands());
+            ctx.setStreakDays(result.getStreakDays());
+            ctx.setTotalPoints(result.getTotalPoints());
+
+            List<String> earned = new ArrayList<>(0);
+            int bonus = badgeCursor.evaluate(ctx, changed, earned);
+            result.getNewBadges().addAll(earned);
+            result.setTotalPoints(result.getTotalPoints() + bonus);
+
+            result.setTotalDelta(result.getTotalDelta() + points + bonus);
+            result.getEvents().add(new EventScore(request, points, bonus, earned, result.getStreakDays(), ids));
+        }
+        return result;
+    }
+
+    private int scoreLogin(ScoringPlan plan, ScoreResult state, LocalDate day) {
+        int points = plan.getLoginPoints();
+        if (isWelcomeBack(state.getLastActivity(), day, plan.getWelcomeBackGap())) {
+            points += plan.getWelcomeBackBonus();
+        }
+        state.setStreakDays(updateStreak(state.getLastActivity(), day, state.getStreakDays()));
+        state.setLastActivity(day);
+        return points;
+    }
+
+    /**
+     * Scores a command, filling {@code ids} with its hosts' ids (null for a host that has
+     * none yet).
+     */
+    private int scoreCommand(ScoringPlan plan, ScoreResult state, PointsRequest request,
+                             List<Integer> ids, LocalDate day) {
+        List<String> hosts = request.getServers();
+        int points = plan.commandDelta(
+                request.getParameters(),
+                request.getEnvironment(),
+                hosts != null ? hosts.size() : 1,
+                state.getStreakDays());
+
+        state.setTotalCommands(state.getTotalCommands() + 1);
+        if ("prod".equals(request.getEnvironment())) {
+            state.setProdCommands(state.getProdCommands() + 1);
+        }
+        if (hosts != null) {
+            for (String host : hosts) {
+                Integer id = serverIds.find(host);
+                if (id == null) {
+                    state.getNewHosts().add(host);
+                } else if (state.getServers().add(id)) {
+                    state.getAddedServers().add(id);
+                }
+                ids.add(id);
+            }
+        }
+        state.setLastActivity(day);
+        return points;
+    }
+
+    /**
+     * Allocates ids for the hosts scoring found no id for and folds them into the
+     * result's bitmap, added servers and per-event ids. This registers the hosts in the
+     * server dictionary, so only call it for a result that is about to be persisted.
+     */
+    public void resolveServers(ScoreResult result) {
+        if (result.getNewHosts().isEmpty()) {
+            return;
+        }
+        for (String host : result.getNewHosts()) {
+            int id = serverIds.idOf(host);
+            if (result.getServers().add(id)) {
+                result.getAddedServers().add(id);
+            }
+        }
+        result.getNewHosts().clear();
+        for (EventScore scored : result.getEvents()) {
+            List<Integer> ids = scored.getServerIds();
+            if (ids != null && ids.contains(null)) {
+                List<String> hosts = scored.getRequest().getServers();
+                List<Integer> resolved = new ArrayList<>(hosts.size());
+                for (String host : hosts) {
+                    resolved.add(serverIds.idOf(host));
+                }
+                scored.setServerIds(resolved);
+            }
+        }
+    }
+
+    static boolean isWelcomeBack(LocalDate lastActivity, LocalDate day, int gap) {
+        if (lastActivity == null) return true;
+
+        return ChronoUnit.DAYS.between(lastActivity, day) >= gap;
+    }
+
+    static int updateStreak(LocalDate lastActivity, LocalDate day, int currentStreak) {
+        if (lastActivity == null) return 1;
+
+        long daysBetween = ChronoUnit.DAYS.between(lastActivity, day);
+
+        if (daysBetween == 1) {
+            // Consecutive day - increment streak
+            return currentStreak + 1;
+        } else if (daysBetween == 0) {
+            // Same day - maintain streak
+            return Math.max(currentStreak, 1);
+        } else {
+            // Gap in activity - reset streak
+            return 1;
+        }
+    }
+}
@@ -1,106 +1,66 @@
 package com.infrasight.service;
 
-import com.infrasight.db.model.GamifyConfigDoc;
 import com.infrasight.service.MongoConfigService;
+import com.infrasight.data.BadgeProgress;
 import com.infrasight.data.PointsRequest;
+import com.infrasight.data.ScoreResult;
+import com.infrasight.data.ServerBitmap;
+import com.infrasight.data.UserSummary;
 import com.infrasight.db.model.PointsLog;
 import com.infrasight.db.model.UserGamify;
 import com.infrasight.db.repository.PointsLogRepository;
 import com.infrasight.db.repository.UserGamifyRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
-import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class GamificationService {
-    
+
+    private static final int SERVER_WRITE_ATTEMPTS = 5;
+
     private final MongoConfigService configService;
     private final UserGamifyRepository userGamifyRepository;
     private final PointsLogRepository pointsLogRepository;
+    private final GamificationCalculator calculator;
+    private final PointsLogAppender pointsLogAppender;
+    private final RecentActionFilter recentActions;
+    private final UserLanes lanes;
+    private final UserSummaryCache summaries;
+    private final RankIndex ranks;
+    private final LiveUpdates live;
+
+    @Value("${gamify.points-log.server-ids:false}")
+    private boolean logServerIds;
 
     public UserGamify awardLoginPoints(String userId) {
-        GamifyConfigDoc cfg = configService.getConfig();
-        UserGamify user = getUserGamify(userId);
+        LocalDate today = LocalDate.now();
 
-        int delta = cfg.getLoginPoints();
+        PointsRequest login = new PointsRequest();
+        login.setEvent(GamificationCalculator.LOGIN_EVENT);
+        login.setActionUuid("login_" + userId + "_" + today);
 
-        if (isWelcomeBack(user.getLastActivity(), cfg.getWelcomeBackGap())) {
-            delta += cfg.getWelcomeBackBonus();
-            log.info("Welcome back bonus awarded to user: {}", userId);
-        }
-        
-        user.setStreakDays(updateStreak(user.getLastActivity(), LocalDate.now()));
-        user.setLastActivity(LocalDate.now());
-        user.setTotalPoints(user.getTotalPoints() + delta);
-        
-        // Log the points award
-        PointsLog pointsLog = PointsLog.builder()
-                .userId(userId)
-                .event("login")
-                .pointsAwarded(delta)
-                .timestamp(LocalDate.now())
-                .actionUuid("login_" + userId + "_" + LocalDate.now())
-                .build();
-        
-        pointsLogRepository.save(pointsLog);
-        return userGamifyRepository.save(user);
+        return lanes.run(userId, () -> remember(award(userId, login, today)));
     }
 
     public UserGamify awardCommandPoints(PointsRequest request, String userId) {
-        // Check for idempotency
-        if (pointsLogRepository.existsByActionUuid(request.getActionUuid())) {
-            log.warn("Duplicate action UUID detected: {}", request.getActionUuid());
-            return getUserGamify(userId);
-        }
-        
-        GamifyConfigDoc cfg = configService.getConfig();
-        UserGamify user = getUserGamify(userId);
+        return lanes.run(userId, () -> remember(award(userId, request, LocalDate.now())));
+    }
 
-        int base = cfg.getBaseScore();
-        int complexity = complexityScore(request.getParameters(), cfg);
-
-        double commandWeight = (request.getParameters() == null || request.getParameters().isEmpty())
-            ? cfg.getCommandWeight().getOrDefault("default", 1.0)
-            : cfg.getCommandWeight().getOrDefault("param", 1.0);
-
-        double envWeight = cfg.getAccessTierWeight().getOrDefault(request.getEnvironment(), 1.0);
-        double serverScale = serverScale(request.getServers() != null ? request.getServers().size() : 1, cfg);
-        double streakMult = streakMultiplier(user.getStreakDays(), cfg);
-        
-        int delta = (int) Math.ceil((base + complexity) * commandWeight * envWeight * serverScale * streakMult);
-        
-        // Update user stats
-        user.setTotalPoints(user.getTotalPoints() + delta);
-        user.setTotalCommands(user.getTotalCommands() + 1);
-        user.setLastActivity(LocalDate.now());
-        
-        if (request.getServers() != null) {
-            user.getUniqueServers().addAll(request.getServers());
-        }
-        
-        if ("prod".equals(request.getEnvironment())) {
-            user.setProdCommands(user.getProdCommands() + 1);
-        }
-        
-        // Log the points award
-        PointsLog pointsLog = PointsLog.builder()
-                .userId(userId)
-                .event(request.getEvent())
-                .pointsAwarded(delta)
-                .timestamp(LocalDate.now())
-                .actionUuid(request.getActionUuid())
-                .environment(request.getEnvironment())
-                .servers(request.getServers())
-                .build();
-        
-        pointsLogRepository.save(pointsLog);
-        return userGamifyRepository.save(user);
+    /**
+     * The user's summary from the near cache, loading (and creating) the user on a miss.
+     */
+    public UserSummary getUserSummary(String userId) {
+        return summaries.get(userId, id -> UserSummary.of(getUserGamify(id)));
     }
 
     public UserGamify getUserGamify(String userId) {
@@ -112,66 +72,161 @@ public class GamificationService {
                 });
     }
 
-    private double serverScale(int serverCount, GamifyConfigDoc cfg) {
-        if (serverCount <= 1) return 1.0;
+    public List<BadgeProgress> getBadgeProgress(String userId) {
+        UserGamify user = getUserGamify(userId);
+        return configService.getSnapshot().getBadgeRules().progress(BadgeContext.of(user), user.getBadges());
+    }
+
+    /**
+     * Applies counters atomically, scores the event against the pre-image that update
+     * returned, then credits points and grants badges with targeted updates. The user
+     * document is never rewritten as a whole, so concurrent awards cannot lose updates.
+     * <p>
+     * Idempotency: the recent-action filter answers "definitely new" in memory for most
+     * requests, and only a possible hit is checked against {@code points_log}, including
+     * entries still queued for write-behind. The unique
+     * index on {@code actionUuid} catches the rest when the log entry is written, in which
+     * case the award is undone: here for inline writes, or by the flusher when a queued
+     * entry is rejected.
+     * <p>
+     * Callers hold the user's lane, so awards for one user never interleave.
+     */
+    private UserGamify award(String userId, PointsRequest request, LocalDate day) {
+        String actionUuid = request.getActionUuid();
+        if (actionUuid != null && recentActions.checkAndAdd(actionUuid)
+                && (pointsLogAppender.isPending(actionUuid) || pointsLogRepository.existsByActionUuid(actionUuid))) {
+            log.warn("Duplicate action UUID detected: {}", actionUuid);
+            return getUserGamify(userId);
+        }
+
+        GamifyConfigSnapshot cfg = configService.getSnapshot();
+        boolean login = GamificationCalculator.LOGIN_EVENT.equals(request.getEvent());
+        UserGamify before = login
+                ? userGamifyRepository.recordActivity(userId, 0, 0, day)
+                : userGamifyRepository.recordActivity(userId, 1, "prod".equals(request.getEnvironment()) ? 1 : 0, day);
+
+        ScoreResult result = calculator.scoreAll(
+                cfg.getScoringPlan(), cfg.getBadgeRules(), before, List.of(request), day);
+        ScoreResult.EventScore scored = result.getEvents().get(0);
+        if (scored.getPoints() != 0 || login) {
+            userGamifyRepository.creditPoints(userId, scored.getPoints(), login ? result.getStreakDays() : null);
+        }
+        for (String code : new ArrayList<>(scored.getNewBadges())) {
+            int bonus = cfg.getConfig().getBadges().get(code).getBonus();
+            if (!userGamifyRepository.grantBadge(userId, code, bonus)) {
+                // a concurrent award got there first and paid the bonus
+                scored.getNewBadges().remove(code);
+                scored.setBadgeBonus(scored.getBadgeBonus() - bonus);
+                result.getNewBadges().remove(code);
+                result.setTotalPoints(result.getTotalPoints() - bonus);
+            }
+        }
+        saveServers(userId, before, result);
 
-        String function = cfg.getServerScaling().getFunction();
-        int logBase = cfg.getServerScaling().getLogBase();
-        
-        if ("log".equals(function)) {
-            return 1.0 + (Math.log(serverCount) / Math.log(logBase)) * 0.1;
+        // Log the points award
+        try {
+            logEvents(userId, before.getDepartment(), result, day, cfg.getVersion(),
+                    rejected -> undoQueued(userId, request, scored, cfg));
+        } catch (DuplicateKeyException e) {
+            log.warn("Duplicate action UUID detected on write, undoing award: {}", actionUuid);
+            undo(userId, request, scored, cfg);
+            return before;
         }
-        
-        return 1.0;
+        result.applyTo(before);
+        live.awarded(userId, scored.getTotalAwarded(), result.getTotalPoints(), result.getNewBadges());
+        return before;
     }
 
-    private double streakMultiplier(int days, GamifyConfigDoc cfg) {
-        return cfg.getStreakMultiplier().entrySet().stream()
-                .filter(entry -> days >= entry.getKey())
-                .mapToDouble(Map.Entry::getValue)
-                .max()
-                .orElse(1.0);
+    // write-through while still holding the lane, so this node's entries follow award order
+    private UserGamify remember(UserGamify user) {
+        summaries.put(UserSummary.of(user));
+        ranks.update(user.getUserId(), user.getTotalPoints(), user.getDepartment(), user.getName());
+        return user;
     }
 
-    private int complexityScore(List<String> parameters, GamifyConfigDoc cfg) {
-        if (parameters == null || parameters.isEmpty()) {
-            return 0;
+    /**
+     * Allocates ids for hosts that scoring saw for the first time, then writes the merged
+     * server bitmap with compare-and-set on the bytes it was built from.
+     * Lanes serialize awards per user within this node, so a conflict means another node
+     * wrote first; the new ids are then merged into the fresh bitmap and written again.
+     */
+    private void saveServers(String userId, UserGamify before, ScoreResult result) {
+        if (!result.isServersChanged()) {
+            return;
+        }
+        calculator.resolveServers(result);
+        byte[] expected = before.getServerBitmap();
+        ServerBitmap merged = result.getServers();
+        for (int attempt = 1; ; attempt++) {
+            if (userGamifyRepository.replaceServers(userId, expected, merged.serialize(), merged.cardinality())) {
+                return;
+            }
+            if (attempt == SERVER_WRITE_ATTEMPTS) {
+                log.warn("Could not record servers {} for user {} after {} attempts",
+                        result.getAddedServers(), userId, attempt);
+                return;
+            }
+            expected = userGamifyRepository.findServerBitmap(userId);
+            merged = ServerBitmap.deserialize(expected);
+            result.getAddedServers().forEach(merged::add);
         }
-        
-        return parameters.stream()
-                .mapToInt(param -> {
-                    if (param.contains("*") || param.contains("?")) {
-                        return (int) (cfg.getParameterWeight().getOrDefault("wildcard", 2.0) * 5);
-                    } else if (param.matches(".*[\\[\\]\\$\\{\\}\\^\\$\\|\\\\].*")) {
-                        return (int) (cfg.getParameterWeight().getOrDefault("regex", 3.0) * 5);
-                    } else {
-                        return (int) (cfg.getParameterWeight().getOrDefault("simple", 1.0) * 5);
-                    }
-                })
-                .sum();
     }
 
-    private boolean isWelcomeBack(LocalDate lastActivity, int gap) {
-        if (lastActivity == null) return true;
+    private void undo(String userId, PointsRequest request, ScoreResult.EventScore scored, GamifyConfigSnapshot cfg) {
+        if (!GamificationCalculator.LOGIN_EVENT.equals(request.getEvent())) {
+            // servers and lastActivity were already recorded by the original award
+            userGamifyRepository.recordActivity(userId, -1, "prod".equals(request.getEnvironment()) ? -1 : 0, null);
+        }
+        if (scored.getPoints() != 0) {
+            userGamifyRepository.creditPoints(userId, -scored.getPoints(), null);
+        }
+        for (String code : scored.getNewBadges()) {
+            userGamifyRepository.revokeBadge(userId, code, cfg.getConfig().getBadges().get(code).getBonus());
+        }
+    }
 
-        long daysBetween = ChronoUnit.DAYS.between(lastActivity, LocalDate.now());
-        return daysBetween >= gap;
+    /**
+     * Undoes an award whose queued log entry the flusher rejected as a duplicate. Runs on
+     * the flusher thread after the award returned, so the caches it already updated are
+     * refreshed under the lane; if the lane is busy the cached summary is dropped instead
+     * and the rank index catches up from its change stream.
+     */
+    private void undoQueued(String userId, PointsRequest request, ScoreResult.EventScore scored,
+                            GamifyConfigSnapshot cfg) {
+        log.warn("Duplicate action UUID rejected on flush, undoing award: {}", request.getActionUuid());
+        undo(userId, request, scored, cfg);
+        try {
+            UserGamify user = lanes.run(userId, () -> remember(getUserGamify(userId)));
+            live.awarded(userId, -scored.getTotalAwarded(), user.getTotalPoints(), List.of());
+        } catch (UserLanes.BusyException e) {
+            summaries.invalidate(userId);
+        }
     }
 
-    private int updateStreak(LocalDate lastActivity, LocalDate today) {
-        if (lastActivity == null) return 1;
-        
-        long daysBetween = ChronoUnit.DAYS.between(lastActivity, today);
-        
-        if (daysBetween == 1) {
-            // Consecutive day - increment streak
-            return getUserGamify("temp").getStreakDays() + 1;
-        } else if (daysBetween == 0) {
-            // Same day - maintain streak
-            return getUserGamify("temp").getStreakDays();
-        } else {
-            // Gap in activity - reset streak
-            return 1;
+    private void logEvents(String userId, String department, ScoreResult result, LocalDate day, long configVersion,
+                           Consumer<PointsLog> onRejected) {
+        List<PointsLog> entries = new ArrayList<>(result.getEvents().size());
+        for (ScoreResult.EventScore scored : result.getEvents()) {
+            PointsRequest request = scored.getRequest();
+            if (!scored.getNewBadges().isEmpty()) {
+                log.info("User {} earned badges {}", userId, scored.getNewBadges());
+            }
+            entries.add(PointsLog.builder()
+                    .userId(userId)
+                    .event(request.getEvent())
+                    .pointsAwarded(scored.getTotalAwarded())
+                    .timestamp(day)
+                    .actionUuid(request.getActionUuid())
+                    .environment(request.getEnvironment())
+                    .servers(logServerIds ? null : request.getServers())
+                    .serverIds(logServerIds ? scored.getServerIds() : null)
+                    .parameters(request.getParameters())
+                    .streakDays(scored.getStreakDays())
+                    .badgeBonus(scored.getBadgeBonus())
+                    .configVersion(configVersion)
+                    .department(department)
+                    .build());
         }
+        pointsLogAppender.append(entries, onRejected);
     }
 }
@@ -0,0 +1,40 @@
+package com.infrasight.service;
+
+import com.infrasight.db.model.GamifyConfigDoc;
+import lombok.Getter;
+
+/**
+ * One published version of the gamification config together with everything
+ * derived from it. An award reads the snapshot once and uses it throughout, so
+ * a reload in the middle of an award cannot mix two versions.
+ */
+@Getter
+public final class GamifyConfigSnapshot {
+
+    private final long version;
+    private final GamifyConfigDoc config;
+    private final ScoringPlan scoringPlan;
+    private final BadgeRuleSet badgeRules;
+
+    private GamifyConfigSnapshot(GamifyConfigDoc config, BadgeRuleSet badgeRules) {
+        this.version = config.getVersion();
+        this.config = config;
+        this.scoringPlan = ScoringPlan.compile(config);
+        this.badgeRules = badgeRules;
+    }
+
+    public static GamifyConfigSnapshot of(GamifyConfigDoc config) {
+        return new GamifyConfigSnapshot(config, BadgeRuleSet.compile(config.getBadges()));
+    }
+
+    /**
+     * Builds the snapshot for a newer document, keeping the previous compiled
+     * badge expressions when the badge definitions did not change.
+     */
+    static GamifyConfigSnapshot next(GamifyConfigDoc config, GamifyConfigSnapshot previous) {
+        if (previous != null && previous.badgeRules.isCompiledFrom(config.getBadges())) {
+            return new GamifyConfigSnapshot(config, previous.badgeRules);
+        }
+        return of(config);
+    }
+}
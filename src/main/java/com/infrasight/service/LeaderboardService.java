@@ -0,0 +1,131 @@
+package com.infrasight.service;
+
+import com.infrasight.data.LeaderboardCursor;
+import com.infrasight.data.LeaderboardEntry;
+import com.infrasight.data.LeaderboardPage;
+import com.infrasight.data.WeeklyLeaderboardEntry;
+import com.infrasight.db.model.DepartmentWeekPoints;
+import com.infrasight.db.model.UserGamify;
+import com.infrasight.db.repository.PointsLogRepository;
+import com.infrasight.db.repository.UserGamifyRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+@Service
+@RequiredArgsConstructor
+public class LeaderboardService {
+
+    private final PointsLogRepository pointsLogRepository;
+    private final UserGamifyRepository userGamifyRepository;
+    private final RankIndex ranks;
+
+    /**
+     * One page of the all-time leaderboard from the in-memory ranking (names and
+     * departments included): the users after
+     * {@code cursor} if given, else from position {@code offset}. With a department, ranks
+     * and the total are within that department.
+     *
+     * @throws IllegalArgumentException if the cursor is not one this service handed out
+     */
+    public LeaderboardPage<LeaderboardEntry> getLeaderboard(String department, long offset, int limit,
+                                                            String cursor) {
+        List<LeaderboardEntry> entries;
+        if (cursor != null) {
+            LeaderboardCursor after = LeaderboardCursor.decode(cursor);
+            entries = ranks.after(department, after.getPoints(), after.getUserId(), limit);
+            offset = entries.isEmpty() ? after.getRank() : entries.get(0).getRank() - 1;
+        } else {
+            entries = ranks.range(department, offset, limit);
+        }
+        String next = null;
+        if (!entries.isEmpty() && entries.size() == limit) {
+            LeaderboardEntry last = entries.get(entries.size() - 1);
+            next = new LeaderboardCursor(last.getTotalPoints(), last.getUserId(), last.getRank()).encode();
+        }
+        return new LeaderboardPage<>(entries, ranks.size(department), limit, offset, next);
+    }
+
+    /**
+     * The user's all-time rank, overall or within their department if one is given.
+     */
+    public Optional<LeaderboardEntry> getRank(String department, String userId) {
+        return Optional.ofNullable(ranks.get(department, userId));
+    }
+
+    /**
+     * The user and up to {@code k} users on either side of them in the all-time ranking,
+     * overall or within a department.
+     */
+    public List<LeaderboardEntry> getAround(String department, String userId, int k) {
+        return ranks.around(department, userId, k);
+    }
+
+    /**
+     * Users whose name or a word of it starts with {@code query}, best ranked first, with
+     * their all-time rank overall or within {@code department}.
+     */
+    public List<LeaderboardEntry> searchByName(String query, String department, int limit) {
+        return ranks.search(query, department, limit);
+    }
+
+    /**
+     * One page of the leaderboard for points earned in {@code [weekStart, weekEnd)}, with
+     * names and departments joined from {@code user_gamify} for that page only. With a
+     * {@code cursor} the page is the users after it and {@code page} is ignored. With a
+     * department, only its users' points count and ranks and the total are within it.
+     *
+     * @throws IllegalArgumentException if the cursor is not one this service handed out
+     */
+    public LeaderboardPage<WeeklyLeaderboardEntry> getWeeklyLeaderboard(LocalDate weekStart, LocalDate weekEnd,
+                                                                        String department, int page, int size,
+                                                                        String cursor) {
+        List<WeeklyLeaderboardEntry> entries;
+        long offset;
+        if (cursor != null) {
+            LeaderboardCursor after = LeaderboardCursor.decode(cursor);
+            WeeklyLeaderboardEntry last = new WeeklyLeaderboardEntry(after.getUserId(), null, null,
+                    after.getPoints(), after.getRank());
+            entries = pointsLogRepository.getWeeklyLeaderboardAfter(weekStart, weekEnd, department, last, size);
+            offset = after.getRank();
+        } else {
+            entries = pointsLogRepository.getWeeklyLeaderboard(weekStart, weekEnd, department, page, size);
+            offset = (long) page * size;
+        }
+
+        List<String> userIds = entries.stream().map(WeeklyLeaderboardEntry::getUserId).collect(Collectors.toList());
+        Map<String, UserGamify> users = userGamifyRepository.findByUserIdIn(userIds).stream()
+                .collect(Collectors.toMap(UserGamify::getUserId, Function.identity()));
+
+        int rank = (int) offset + 1;
+        for (WeeklyLeaderboardEntry entry : entries) {
+            UserGamify user = users.get(entry.getUserId());
+            if (user != null) {
+                entry.setName(user.getName());
+                entry.setDepartment(user.getDepartment());
+            }
+            entry.setRank(rank++);
+        }
+
+        String next = null;
+        if (!entries.isEmpty() && entries.size() == size) {
+            WeeklyLeaderboardEntry last = entries.get(entries.size() - 1);
+            next = new LeaderboardCursor(last.getWeekPoints(), last.getUserId(), last.getRank()).encode();
+        }
+        long total = pointsLogRepository.countDistinctUsersInWeek(weekStart, weekEnd, department);
+        return new LeaderboardPage<>(entries, total, size, offset, next);
+    }
+
+    /**
+     * Departments ranked by points earned in the ISO week containing {@code weekStart}.
+     */
+    public List<DepartmentWeekPoints> getDepartmentWeek(LocalDate weekStart) {
+        return pointsLogRepository.findDepartmentWeek(weekStart);
+    }
+}
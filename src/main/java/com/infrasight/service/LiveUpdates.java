@@ -0,0 +1,349 @@
+package com.infrasight.service;
+
+import com.infrasight.data.AwardUpdate;
+import com.infrasight.data.LeaderboardDelta;
+import com.infrasight.data.LeaderboardEntry;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Pushes award results, rank changes and top-N leaderboard deltas to open dashboards
+ * as server-sent events, so they no longer poll {@code /me} and the leaderboard.
+ * <p>
+ * Nothing is written to a connection on the award path. Awards fold into each of the
+ * user's subscribers, and every {@code flush-interval} a flusher sends what is pending:
+ * a burst of awards goes out as one {@code award} event with the points summed, and the
+ * subscriber's rank and the top {@code top} users are compared against what was last
+ * queued, so each is sent at most once per tick however often it moved. Writes run on
+ * a small sender pool. While a write to a slow client is still in progress that
+ * connection gets nothing new; once its pending items exceed {@code buffer} they are
+ * dropped for a single {@code resync} event, and the client refetches.
+ * <p>
+ * Award events come from awards made on this node. Ranks and the top-N are read from
+ * {@link RankIndex}, which also follows other nodes' writes.
+ */
+@Slf4j
+@Component
+public class LiveUpdates {
+
+    private final RankIndex ranks;
+    private final int buffer;
+    private final int top;
+    private final Duration flushInterval;
+    private final long timeoutMillis;
+    private final long heartbeatNanos;
+    private final int senderThreads;
+    private final LongSupplier clock;
+
+    private final Map<String, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final LongAdder resyncs = new LongAdder();
+
+    private Executor senders;
+    private ScheduledExecutorService flusher;
+    // flusher thread only; null until a tick has taken a baseline
+    private List<LeaderboardEntry> lastTop;
+
+    @Autowired
+    public LiveUpdates(RankIndex ranks,
+                       @Value("${gamify.live.buffer:64}") int buffer,
+                       @Value("${gamify.live.top:10}") int top,
+                       @Value("${gamify.live.flush-interval:PT0.5S}") Duration flushInterval,
+                       @Value("${gamify.live.timeout:PT30M}") Duration timeout,
+                       @Value("${gamify.live.heartbeat:PT15S}") Duration heartbeat,
+                       @Value("${gamify.live.senders:4}") int senders,
+                       ObjectProvider<MeterRegistry> meters) {
+        this(ranks, buffer, top, flushInterval, timeout, heartbeat, senders, System::nanoTime);
+        MeterRegistry registry = meters != null ? meters.getIfAvailable() : null;
+        if (registry != null) {
+            Gauge.builder("gamify.live.connections", connections, AtomicInteger::get).register(registry);
+            FunctionCounter.builder("gamify.live.resyncs", resyncs, LongAdder::sum).register(registry);
+        }
+    }
+
+    LiveUpdates(RankIndex ranks, int buffer, int top, Executor senders, LongSupplier clock) {
+        this(ranks, buffer, top, Duration.ofMillis(500), Duration.ofMinutes(30), Duration.ofSeconds(15), 1, clock);
+        this.senders = senders;
+    }
+
+    private LiveUpdates(RankIndex ranks, int buffer, int top, Duration flushInterval, Duration timeout,
+                        Duration heartbeat, int senderThreads, LongSupplier clock) {
+        this.ranks = ranks;
+        this.buffer = buffer;
+        this.top = top;
+        this.flushInterval = flushInterval;
+        this.timeoutMillis = timeout.toMillis();
+        this.heartbeatNanos = heartbeat.toNanos();
+        this.senderThreads = senderThreads;
+        this.clock = clock;
+    }
+
+    @PostConstruct
+    public void start() {
+        ExecutorService pool = Executors.newFixedThreadPool(senderThreads, r -> {
+            Thread t = new Thread(r, "live-updates-sender");
+            t.setDaemon(true);
+            return t;
+        });
+        senders = pool;
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "live-updates-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = flushInterval.toMillis();
+        flusher.scheduleWithFixedDelay(this::tickSafely, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+        if (senders instanceof ExecutorService) {
+            ((ExecutorService) senders).shutdownNow();
+        }
+        subscribers.values().forEach(set -> set.forEach(s -> s.emitter.complete()));
+    }
+
+    /**
+     * Opens a stream for the user. It closes after {@code gamify.live.timeout}, and
+     * EventSource reconnects on its own.
+     *
+     * @param leaderboard whether to send top-N changes; pages that show no leaderboard
+     *                    get only their own award and rank events
+     */
+    public SseEmitter subscribe(String userId, boolean leaderboard) {
+        return subscribe(userId, leaderboard, new SseEmitter(timeoutMillis));
+    }
+
+    SseEmitter subscribe(String userId, boolean leaderboard, SseEmitter emitter) {
+        Subscriber subscriber = new Subscriber(userId, leaderboard, emitter, clock.getAsLong());
+        subscribers.compute(userId, (id, set) -> {
+            Set<Subscriber> own = set != null ? set : ConcurrentHashMap.newKeySet();
+            own.add(subscriber);
+            return own;
+        });
+        connections.incrementAndGet();
+        emitter.onCompletion(() -> unsubscribe(subscriber));
+        emitter.onTimeout(() -> unsubscribe(subscriber));
+        emitter.onError(e -> unsubscribe(subscriber));
+        return emitter;
+    }
+
+    /**
+     * Queues an award for the user's open streams. Cheap when they have none.
+     */
+    public void awarded(String userId, int points, int totalPoints, List<String> newBadges) {
+        Set<Subscriber> own = subscribers.get(userId);
+        if (own == null) {
+            return;
+        }
+        for (Subscriber subscriber : own) {
+            subscriber.award(points, totalPoints, newBadges);
+        }
+    }
+
+    public int connections() {
+        return connections.get();
+    }
+
+    public long resyncs() {
+        return resyncs.sum();
+    }
+
+    private void tickSafely() {
+        try {
+            tick();
+        } catch (RuntimeException e) {
+            log.warn("Live update flush failed", e);
+        }
+    }
+
+    /**
+     * Queues rank and top-N changes and starts a send for every subscriber that has
+     * something pending (or is due a heartbeat) and is not still busy with the last one.
+     */
+    void tick() {
+        if (subscribers.isEmpty()) {
+            lastTop = null;
+            return;
+        }
+        List<LeaderboardEntry> now = ranks.top(top);
+        LeaderboardDelta delta = lastTop != null ? LeaderboardDelta.between(lastTop, now) : null;
+        lastTop = now;
+
+        long at = clock.getAsLong();
+        for (Set<Subscriber> own : subscribers.values()) {
+            for (Subscriber subscriber : own) {
+                subscriber.offer(delta, ranks.get(subscriber.userId));
+                if (subscriber.due(at) && subscriber.sending.compareAndSet(false, true)) {
+                    senders.execute(() -> send(subscriber, at));
+                }
+            }
+        }
+    }
+
+    private void send(Subscriber subscriber, long at) {
+        try {
+            List<SseEmitter.SseEventBuilder> events = subscriber.drain();
+            if (events.isEmpty()) {
+                subscriber.emitter.send(SseEmitter.event().comment("ping"));
+            }
+            for (SseEmitter.SseEventBuilder event : events) {
+                subscriber.emitter.send(event);
+            }
+            subscriber.lastSent = at;
+        } catch (IOException | IllegalStateException e) {
+            // client went away; the container completes the emitter
+            log.debug("Dropping live update stream for {}: {}", subscriber.userId, e.getMessage());
+            unsubscribe(subscriber);
+        } finally {
+            subscriber.sending.set(false);
+        }
+    }
+
+    private void unsubscribe(Subscriber subscriber) {
+        if (!subscriber.closed.compareAndSet(false, true)) {
+            return;
+        }
+        subscribers.computeIfPresent(subscriber.userId, (id, set) -> {
+            set.remove(subscriber);
+            return set.isEmpty() ? null : set;
+        });
+        connections.decrementAndGet();
+    }
+
+    private final class Subscriber {
+        private final String userId;
+        private final boolean leaderboard;
+        private final SseEmitter emitter;
+        private final AtomicBoolean sending = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile long lastSent;
+
+        // guarded by this
+        private boolean awarded;
+        private int points;
+        private int totalPoints;
+        private final List<String> badges = new ArrayList<>();
+        private LeaderboardEntry rank;
+        private LeaderboardEntry lastRank;
+        // userId -> entry, or null for a user who left the top-N
+        private final Map<String, LeaderboardEntry> topChanges = new LinkedHashMap<>();
+        private boolean resync;
+
+        private Subscriber(String userId, boolean leaderboard, SseEmitter emitter, long now) {
+            this.userId = userId;
+            this.leaderboard = leaderboard;
+            this.emitter = emitter;
+            this.lastSent = now;
+        }
+
+        synchronized void award(int points, int totalPoints, List<String> newBadges) {
+            if (resync) {
+                return;
+            }
+            this.awarded = true;
+            this.points += points;
+            this.totalPoints = totalPoints;
+            this.badges.addAll(newBadges);
+            checkBuffer();
+        }
+
+        synchronized void offer(LeaderboardDelta delta, LeaderboardEntry current) {
+            if (current != null && !current.equals(lastRank)) {
+                rank = current;
+                lastRank = current;
+            }
+            if (resync || delta == null || !leaderboard) {
+                return;
+            }
+            for (LeaderboardEntry entry : delta.getEntries()) {
+                topChanges.put(entry.getUserId(), entry);
+            }
+            for (String removed : delta.getRemoved()) {
+                topChanges.put(removed, null);
+            }
+            checkBuffer();
+        }
+
+        synchronized boolean due(long now) {
+            return resync || awarded || rank != null || !topChanges.isEmpty() || now - lastSent >= heartbeatNanos;
+        }
+
+        synchronized List<SseEmitter.SseEventBuilder> drain() {
+            List<SseEmitter.SseEventBuilder> events = new ArrayList<>(3);
+            if (resync) {
+                resync = false;
+                rank = null;
+                events.add(SseEmitter.event().name("resync").data(""));
+                return events;
+            }
+            if (awarded) {
+                events.add(SseEmitter.event().name("award").data(new AwardUpdate(points, totalPoints, List.copyOf(badges))));
+                awarded = false;
+                points = 0;
+                badges.clear();
+            }
+            if (rank != null) {
+                events.add(SseEmitter.event().name("rank").data(rank));
+                rank = null;
+            }
+            if (!topChanges.isEmpty()) {
+                List<LeaderboardEntry> entries = new ArrayList<>();
+                List<String> removed = new ArrayList<>();
+                topChanges.forEach((id, entry) -> {
+                    if (entry != null) {
+                        entries.add(entry);
+                    } else {
+                        removed.add(id);
+                    }
+                });
+                events.add(SseEmitter.event().name("leaderboard").data(new LeaderboardDelta(entries, removed)));
+                topChanges.clear();
+            }
+            return events;
+        }
+
+        // called holding this
+        private void checkBuffer() {
+            if (badges.size() + topChanges.size() + 2 > buffer) {
+                awarded = false;
+                points = 0;
+                badges.clear();
+                rank = null;
+                topChanges.clear();
+                resync = true;
+                resyncs.increment();
+            }
+        }
+    }
+}
@@ -2,28 +2,134 @@ package com.infrasight.service;
 
 import com.infrasight.db.model.GamifyConfigDoc;
 import com.infrasight.db.repository.GamifyConfigRepository;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Service that loads gamification configuration from MongoDB.
+ * <p>
+ * The {@code default} document is published as an immutable {@link GamifyConfigSnapshot}
+ * through an atomic reference. Changes are picked up from a change stream when the
+ * deployment supports one (replica set / sharded cluster), reopened after errors; a
+ * cheap poll of the {@code version} field runs either way, so standalone servers reload
+ * too.
  */
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class MongoConfigService {
 
+    static final String CONFIG_ID = "default";
+
     private final GamifyConfigRepository repo;
-    private GamifyConfigDoc config;
+    private final MongoTemplate mongoTemplate;
+
+    private final AtomicReference<GamifyConfigSnapshot> snapshot = new AtomicReference<>();
+    private volatile Thread watcher;
+
+    @Value("${gamify.config.change-stream:true}")
+    private boolean changeStreamEnabled = true;
 
     @PostConstruct
     public void load() {
-        this.config = repo.findById("default")
-                .orElseThrow(() -> new IllegalStateException("Missing gamify config in Mongo (id=default)"));
+        if (!refresh(true)) {
+            log.warn("No gamify config in Mongo yet (id={}); awards are rejected until one is saved", CONFIG_ID);
+        }
+        if (changeStreamEnabled && mongoTemplate != null) {
+            // the document may be edited without a version bump; rebuild on every event
+            ChangeStreamLoop loop = new ChangeStreamLoop("gamify config", "relying on version polling",
+                    this::openChangeStream, change -> refresh(true), () -> refresh(true));
+            watcher = new Thread(() -> loop.run(null), "gamify-config-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        Thread t = watcher;
+        if (t != null) {
+            t.interrupt();
+        }
+    }
+
+    /**
+     * Polls only the version field and reloads the full document when it moved.
+     */
+    @Scheduled(fixedDelayString = "${gamify.config.poll-interval-ms:30000}")
+    public void poll() {
+        GamifyConfigSnapshot current = snapshot.get();
+        long latest = repo.findVersionById(CONFIG_ID).map(GamifyConfigDoc::getVersion).orElse(-1L);
+        if (latest >= 0 && (current == null || latest != current.getVersion())) {
+            refresh(false);
+        }
+    }
+
+    /**
+     * Reloads the config document and publishes a new snapshot.
+     *
+     * @param force rebuild even when the stored version matches the published one
+     * @return whether a config document exists
+     */
+    public boolean refresh(boolean force) {
+        GamifyConfigDoc loaded = repo.findById(CONFIG_ID).orElse(null);
+        if (loaded == null) {
+            return false;
+        }
+        GamifyConfigSnapshot previous = snapshot.get();
+        if (!force && previous != null && previous.getVersion() == loaded.getVersion()) {
+            return true;
+        }
+        GamifyConfigSnapshot next = GamifyConfigSnapshot.next(loaded, previous);
+        if (snapshot.compareAndSet(previous, next)) {
+            log.info("Published gamify config version {}", next.getVersion());
+        }
+        return true;
+    }
+
+    /**
+     * The current snapshot. Callers should read it once per operation.
+     */
+    public GamifyConfigSnapshot getSnapshot() {
+        GamifyConfigSnapshot current = snapshot.get();
+        if (current == null) {
+            throw new IllegalStateException("Missing gamify config in Mongo (id=" + CONFIG_ID + ")");
+        }
+        return current;
     }
 
     public GamifyConfigDoc getConfig() {
-        return config;
+        return getSnapshot().getConfig();
+    }
+
+    public ScoringPlan getScoringPlan() {
+        return getSnapshot().getScoringPlan();
+    }
+
+    public BadgeRuleSet getBadgeRules() {
+        return getSnapshot().getBadgeRules();
+    }
+
+    private MongoChangeStreamCursor<ChangeStreamDocument<Document>> openChangeStream(BsonDocument resumeAfter) {
+        String collection = mongoTemplate.getCollectionName(GamifyConfigDoc.class);
+        ChangeStreamIterable<Document> stream = mongoTemplate.getCollection(collection)
+                .watch(Collections.singletonList(Aggregates.match(Filters.eq("documentKey._id", CONFIG_ID))));
+        return (resumeAfter != null ? stream.resumeAfter(resumeAfter) : stream).cursor();
     }
 }
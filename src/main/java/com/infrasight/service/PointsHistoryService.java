@@ -0,0 +1,47 @@
+package com.infrasight.service;
+
+import com.infrasight.data.DailyPoints;
+import com.infrasight.db.model.PointsLog;
+import com.infrasight.db.repository.PointsLogRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A user's points history across Mongo and the archive.
+ */
+@Service
+@RequiredArgsConstructor
+public class PointsHistoryService {
+
+    private final PointsLogRepository pointsLogRepository;
+    private final PointsLogArchive archive;
+
+    /**
+     * Day totals survive compaction, so these always come from Mongo.
+     */
+    public List<DailyPoints> getDailyPoints(String userId, LocalDate from, LocalDate to) {
+        return pointsLogRepository.findDailyPoints(userId, from, to);
+    }
+
+    /**
+     * Archived days first, then what is still in Mongo. A day being compacted right now
+     * can be in both; its archived copy wins. The archived days are listed once up
+     * front, so both parts agree on them and a wide range costs no more than its
+     * archived days.
+     */
+    public List<PointsLog> getAuditLog(String userId, LocalDate from, LocalDate to) {
+        Set<LocalDate> archived = archive.days(from, to);
+        List<PointsLog> entries = new ArrayList<>(archive.find(userId, archived));
+        for (PointsLog entry : pointsLogRepository.findAuditLog(userId, from, to)) {
+            if (!archived.contains(entry.getTimestamp())) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,360 @@
+package com.infrasight.service;
+
+import com.infrasight.db.model.PointsLog;
+import com.infrasight.db.repository.PointsLogRepository;
+import com.mongodb.bulk.BulkWriteError;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Writes {@link PointsLog} entries, either inline or through a write-behind buffer.
+ * <p>
+ * Inline (the default) keeps the current behaviour: each entry is saved before the
+ * award returns. With {@code gamify.points-log.write-behind} enabled, entries go into a
+ * bounded queue that a single flusher drains with unordered bulk inserts whenever a
+ * batch fills or the flush interval passes. A full queue blocks the caller for up to
+ * {@code offer-timeout-ms}, after which the entry is written inline, so load never
+ * drops entries. A batch whose bulk insert keeps failing is written entry by entry, each
+ * retried with backoff until Mongo takes it; while that lasts the queue fills and callers
+ * write inline, so an outage surfaces on the award path rather than losing entries.
+ * Remaining entries are flushed on shutdown, when retries are bounded: entries that
+ * still fail are logged and counted in {@code gamify.points_log.failed}.
+ * <p>
+ * Queued entries are invisible to {@link PointsLogRepository#existsByActionUuid} until
+ * flushed, so their action ids are kept in {@link #isPending} for duplicate checks. An
+ * entry the unique index still rejects at flush time is handed to the caller's
+ * {@code onRejected} callback, the write-behind counterpart of the inline
+ * {@link DuplicateKeyException}. A duplicate seen only after a write whose outcome is
+ * unknown (a timeout, a dropped connection) is taken to be that earlier write of ours
+ * and is not reported.
+ * <p>
+ * Both modes write through {@link PointsLogRepository#append} and
+ * {@link PointsLogRepository#appendAll}, so they follow the configured storage layout.
+ */
+@Slf4j
+@Component
+public class PointsLogAppender {
+
+    private static final int DUPLICATE_KEY = 11000;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long MAX_BACKOFF_MS = 10_000;
+
+    private final PointsLogRepository repository;
+    private final MeterRegistry meters;
+
+    @Value("${gamify.points-log.write-behind:false}")
+    private boolean writeBehind;
+
+    @Value("${gamify.points-log.capacity:10000}")
+    private int capacity = 10000;
+
+    @Value("${gamify.points-log.batch-size:500}")
+    private int batchSize = 500;
+
+    @Value("${gamify.points-log.flush-interval-ms:200}")
+    private long flushIntervalMs = 200;
+
+    @Value("${gamify.points-log.offer-timeout-ms:50}")
+    private long offerTimeoutMs = 50;
+
+    @Value("${gamify.points-log.retry-backoff-ms:100}")
+    private long retryBackoffMs = 100;
+
+    private BlockingQueue<Queued> queue;
+    // actionUuids queued and not yet written (or given up on)
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private Thread flusher;
+    private volatile boolean running;
+
+    private Timer flushTimer;
+    private Counter flushed;
+    private Counter overflowed;
+    private Counter fallbacks;
+    private Counter failed;
+    private Counter rejected;
+
+    public PointsLogAppender(PointsLogRepository repository, ObjectProvider<MeterRegistry> meters) {
+        this.repository = repository;
+        this.meters = meters != null ? meters.getIfAvailable() : null;
+    }
+
+    PointsLogAppender(PointsLogRepository repository, boolean writeBehind, long retryBackoffMs) {
+        this(repository, null);
+        this.writeBehind = writeBehind;
+        this.retryBackoffMs = retryBackoffMs;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!writeBehind) {
+            return;
+        }
+        queue = new ArrayBlockingQueue<>(capacity);
+        if (meters != null) {
+            Gauge.builder("gamify.points_log.queue.depth", queue, BlockingQueue::size).register(meters);
+            flushTimer = Timer.builder("gamify.points_log.flush").register(meters);
+            flushed = Counter.builder("gamify.points_log.flushed").register(meters);
+            overflowed = Counter.builder("gamify.points_log.overflow").register(meters);
+            fallbacks = Counter.builder("gamify.points_log.flush.fallbacks").register(meters);
+            failed = Counter.builder("gamify.points_log.failed").register(meters);
+            rejected = Counter.builder("gamify.points_log.rejected").register(meters);
+        }
+        running = true;
+        flusher = new Thread(this::drain, "points-log-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        log.info("PointsLog write-behind enabled (capacity={}, batch={}, interval={}ms)",
+                capacity, batchSize, flushIntervalMs);
+    }
+
+    /**
+     * Writes the entries. Inline writes surface a duplicate {@code actionUuid} as
+     * {@link DuplicateKeyException}; queued writes cannot, so an entry rejected as a
+     * duplicate when its batch is flushed is passed to {@code onRejected} on the flusher
+     * thread instead.
+     */
+    public void append(List<PointsLog> entries, Consumer<PointsLog> onRejected) {
+        for (PointsLog entry : entries) {
+            if (!running || !enqueue(new Queued(entry, onRejected))) {
+                repository.append(entry);
+            }
+        }
+    }
+
+    public boolean isWriteBehind() {
+        return running;
+    }
+
+    /**
+     * Whether an entry with this action id is queued but not yet in the log.
+     */
+    public boolean isPending(String actionUuid) {
+        return actionUuid != null && pending.contains(actionUuid);
+    }
+
+    private boolean enqueue(Queued item) {
+        // before the offer, so the flusher cannot write it and clear the id first
+        String actionUuid = item.entry.getActionUuid();
+        if (actionUuid != null) {
+            pending.add(actionUuid);
+        }
+        try {
+            if (queue.offer(item, offerTimeoutMs, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (actionUuid != null) {
+            pending.remove(actionUuid);
+        }
+        if (overflowed != null) {
+            overflowed.increment();
+        }
+        return false;
+    }
+
+    private void drain() {
+        List<Queued> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Queued first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                flush(batch);
+            } catch (InterruptedException e) {
+                // shutdown; the loop exits once the queue is empty
+                running = false;
+            }
+            batch.clear();
+        }
+    }
+
+    void flush(List<Queued> batch) {
+        long start = System.nanoTime();
+        Flush flush = new Flush(batch);
+        try {
+            bulkInsert(flush);
+        } catch (RuntimeException e) {
+            log.warn("points_log flush of {} entries failed after {} attempts, writing them one by one",
+                    flush.remaining.size(), MAX_ATTEMPTS, e);
+            if (fallbacks != null) {
+                fallbacks.increment();
+            }
+            for (Queued item : flush.remaining) {
+                insert(item, flush.unknownOutcome);
+            }
+        }
+        for (Queued item : batch) {
+            if (item.entry.getActionUuid() != null) {
+                pending.remove(item.entry.getActionUuid());
+            }
+        }
+        if (flushTimer != null) {
+            flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            flushed.increment(batch.size());
+        }
+    }
+
+    /**
+     * Bulk-inserts what is left of the batch, retrying only the entries that failed.
+     * Duplicates are rejected unless an earlier attempt may already have written them.
+     */
+    private void bulkInsert(Flush flush) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                repository.appendAll(flush.entries());
+                flush.remaining = List.of();
+                return;
+            } catch (BulkOperationException e) {
+                List<Queued> retry = new ArrayList<>();
+                for (BulkWriteError error : e.getErrors()) {
+                    Queued item = flush.remaining.get(error.getIndex());
+                    if (error.getCode() != DUPLICATE_KEY) {
+                        retry.add(item);
+                    } else if (flush.unknownOutcome) {
+                        log.warn("points_log entry {} already written, assuming by an earlier attempt",
+                                item.entry.getActionUuid());
+                    } else {
+                        reject(item);
+                    }
+                }
+                flush.remaining = retry;
+                if (retry.isEmpty()) {
+                    return;
+                }
+                if (attempt == MAX_ATTEMPTS) {
+                    throw e;
+                }
+            } catch (RuntimeException e) {
+                // some of the batch may have been written before it failed
+                flush.unknownOutcome = true;
+                if (attempt == MAX_ATTEMPTS) {
+                    throw e;
+                }
+            }
+            log.warn("points_log flush of {} entries failed, retrying (attempt {})", flush.remaining.size(), attempt);
+        }
+    }
+
+    /**
+     * Writes one entry, retrying with doubling backoff until it is written; once shutdown
+     * has begun it gets {@value #MAX_ATTEMPTS} attempts and is then given up on.
+     */
+    private void insert(Queued item, boolean unknownOutcome) {
+        PointsLog entry = item.entry;
+        long backoff = retryBackoffMs;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                repository.append(entry);
+                return;
+            } catch (DuplicateKeyException e) {
+                if (unknownOutcome) {
+                    log.warn("points_log entry {} already written, assuming by an earlier attempt",
+                            entry.getActionUuid());
+                } else {
+                    reject(item);
+                }
+                return;
+            } catch (RuntimeException e) {
+                unknownOutcome = true;
+                if (!running && attempt >= MAX_ATTEMPTS) {
+                    log.error("Failed to write points_log entry {} for {} at shutdown",
+                            entry.getActionUuid(), entry.getUserId(), e);
+                    if (failed != null) {
+                        failed.increment();
+                    }
+                    return;
+                }
+                log.warn("points_log write of {} failed, retrying in {} ms (attempt {})",
+                        entry.getActionUuid(), backoff, attempt);
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(backoff);
+            } catch (InterruptedException e) {
+                // shutdown; finish this entry with bounded attempts
+                running = false;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+        }
+    }
+
+    private void reject(Queued item) {
+        if (rejected != null) {
+            rejected.increment();
+        }
+        if (item.onRejected == null) {
+            log.warn("Duplicate points_log entry {} discarded", item.entry.getActionUuid());
+            return;
+        }
+        try {
+            item.onRejected.accept(item.entry);
+        } catch (RuntimeException e) {
+            log.error("Failed to undo duplicate points_log entry {} for {}",
+                    item.entry.getActionUuid(), item.entry.getUserId(), e);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        Thread t = flusher;
+        if (t == null) {
+            return;
+        }
+        running = false;
+        t.join(TimeUnit.SECONDS.toMillis(10));
+        if (!queue.isEmpty()) {
+            List<Queued> rest = new ArrayList<>();
+            queue.drainTo(rest);
+            log.info("Flushing {} remaining points_log entries on shutdown", rest.size());
+            flush(rest);
+        }
+    }
+
+    static final class Queued {
+        final PointsLog entry;
+        final Consumer<PointsLog> onRejected;
+
+        Queued(PointsLog entry, Consumer<PointsLog> onRejected) {
+            this.entry = entry;
+            this.onRejected = onRejected;
+        }
+    }
+
+    // what is left of one batch across its attempts
+    private static final class Flush {
+        List<Queued> remaining;
+        boolean unknownOutcome;
+
+        Flush(List<Queued> batch) {
+            this.remaining = batch;
+        }
+
+        List<PointsLog> entries() {
+            return remaining.stream().map(q -> q.entry).collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package com.infrasight.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.infrasight.db.model.PointsLog;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cold storage for compacted {@code points_log} entries: one segment per day on disk.
+ * <p>
+ * A segment holds one gzip member per user, in userId order, each containing that user's
+ * entries for the day as JSON lines. Its index lists {@code (userId, offset, length,
+ * events)} in the same order, so reading one user's day is a binary search, one
+ * positioned read and a small decompression. Both files are written under temporary
+ * names and moved into place, the index last; a day counts as archived once its index
+ * exists and is never rewritten.
+ * <p>
+ * Segments are local to the node that compacts; point {@code gamify.archive.dir} at
+ * shared storage when several nodes serve the audit API.
+ */
+@Slf4j
+@Component
+public class PointsLogArchive {
+
+    private final ObjectWriter writer;
+    private final ObjectReader reader;
+    private final Path dir;
+    private final Map<LocalDate, SegmentIndex> indexes;
+
+    @Autowired
+    public PointsLogArchive(ObjectMapper objectMapper,
+                            @Value("${gamify.archive.dir:data/points-log-archive}") String dir,
+                            @Value("${gamify.archive.cached-indexes:32}") int cachedIndexes) {
+        this.writer = objectMapper.writerFor(PointsLog.class);
+        this.reader = objectMapper.readerFor(PointsLog.class);
+        this.dir = Paths.get(dir);
+        this.indexes = new LinkedHashMap<LocalDate, SegmentIndex>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<LocalDate, SegmentIndex> eldest) {
+                return size() > cachedIndexes;
+            }
+        };
+    }
+
+    public boolean isArchived(LocalDate day) {
+        return Files.exists(indexPath(day));
+    }
+
+    /**
+     * Starts the segment for {@code day}. Add users in userId order, then commit; closing
+     * an uncommitted segment discards it.
+     */
+    public Segment open(LocalDate day) throws IOException {
+        Files.createDirectories(segmentPath(day).getParent());
+        return new Segment(day);
+    }
+
+    /**
+     * The archived days in a date range (inclusive), oldest first. Read from one listing
+     * of each year's directory in range, so an open-ended range costs what is archived,
+     * not a check per calendar day.
+     */
+    public NavigableSet<LocalDate> days(LocalDate from, LocalDate to) {
+        NavigableSet<LocalDate> days = new TreeSet<>();
+        if (from.isAfter(to) || !Files.isDirectory(dir)) {
+            return days;
+        }
+        try (DirectoryStream<Path> years = Files.newDirectoryStream(dir)) {
+            for (Path year : years) {
+                String name = year.getFileName().toString();
+                if (!name.matches("\\d{1,9}") || !Files.isDirectory(year)) {
+                    continue;
+                }
+                int y = Integer.parseInt(name);
+                if (y < from.getYear() || y > to.getYear()) {
+                    continue;
+                }
+                try (DirectoryStream<Path> indexFiles = Files.newDirectoryStream(year, "*.idx")) {
+                    for (Path indexFile : indexFiles) {
+                        String file = indexFile.getFileName().toString();
+                        LocalDate day;
+                        try {
+                            day = LocalDate.parse(file.substring(0, file.length() - ".idx".length()));
+                        } catch (DateTimeParseException e) {
+                            continue;
+                        }
+                        if (!day.isBefore(from) && !day.isAfter(to)) {
+                            days.add(day);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot list archive " + dir, e);
+        }
+        return days;
+    }
+
+    /**
+     * One user's archived entries for a date range (inclusive), oldest day first.
+     */
+    public List<PointsLog> find(String userId, LocalDate from, LocalDate to) {
+        return find(userId, days(from, to));
+    }
+
+    /**
+     * One user's archived entries for the given days, in their iteration order; days
+     * that are not archived are skipped.
+     */
+    public List<PointsLog> find(String userId, Collection<LocalDate> days) {
+        List<PointsLog> entries = new ArrayList<>();
+        for (LocalDate day : days) {
+            SegmentIndex index = index(day);
+            if (index == null) {
+                continue;
+            }
+            int i = Arrays.binarySearch(index.users, userId);
+            if (i >= 0) {
+                read(day, index.offsets[i], index.lengths[i], entries);
+            }
+        }
+        return entries;
+    }
+
+    private SegmentIndex index(LocalDate day) {
+        synchronized (indexes) {
+            SegmentIndex index = indexes.get(day);
+            if (index != null) {
+                return index;
+            }
+        }
+        Path path = indexPath(day);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        SegmentIndex index = SegmentIndex.load(path);
+        synchronized (indexes) {
+            indexes.put(day, index);
+        }
+        return index;
+    }
+
+    private void read(LocalDate day, long offset, int length, List<PointsLog> into) {
+        try (FileChannel channel = FileChannel.open(segmentPath(day), StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(length);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, offset + buf.position()) < 0) {
+                    throw new EOFException("Archive segment for " + day + " is truncated");
+                }
+            }
+            try (BufferedReader lines = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(new ByteArrayInputStream(buf.array())), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = lines.readLine()) != null) {
+                    into.add(reader.readValue(line));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read archived points_log for " + day, e);
+        }
+    }
+
+    private Path segmentPath(LocalDate day) {
+        return dir.resolve(String.valueOf(day.getYear())).resolve(day + ".seg");
+    }
+
+    private Path indexPath(LocalDate day) {
+        return dir.resolve(String.valueOf(day.getYear())).resolve(day + ".idx");
+    }
+
+    public final class Segment implements Closeable {
+        private final LocalDate day;
+        private final Path segmentTmp;
+        private final Path indexTmp;
+        private final FileOutputStream segmentFile;
+        private final FileOutputStream indexFile;
+        private final BufferedOutputStream segment;
+        private final DataOutputStream index;
+        private long offset;
+        private boolean committed;
+
+        private Segment(LocalDate day) throws IOException {
+            this.day = day;
+            this.segmentTmp = segmentPath(day).resolveSibling(day + ".seg.tmp");
+            this.indexTmp = indexPath(day).resolveSibling(day + ".idx.tmp");
+            this.segmentFile = new FileOutputStream(segmentTmp.toFile());
+            this.indexFile = new FileOutputStream(indexTmp.toFile());
+            this.segment = new BufferedOutputStream(segmentFile, 1 << 16);
+            this.index = new DataOutputStream(new BufferedOutputStream(indexFile));
+        }
+
+        public void add(String userId, List<PointsLog> entries) throws IOException {
+            ByteArrayOutputStream member = new ByteArrayOutputStream();
+            try (GZIPOutputStream gz = new GZIPOutputStream(member)) {
+                for (PointsLog entry : entries) {
+                    gz.write(writer.writeValueAsBytes(entry));
+                    gz.write('\n');
+                }
+            }
+            member.writeTo(segment);
+            index.writeUTF(userId);
+            index.writeLong(offset);
+            index.writeInt(member.size());
+            index.writeInt(entries.size());
+            offset += member.size();
+        }
+
+        /**
+         * Syncs both files and moves them into place; the day is archived from here on.
+         */
+        public void commit() throws IOException {
+            segment.flush();
+            segmentFile.getFD().sync();
+            index.flush();
+            indexFile.getFD().sync();
+            segment.close();
+            index.close();
+            Files.move(segmentTmp, segmentPath(day), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(indexTmp, indexPath(day), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            committed = true;
+            log.info("Archived points_log for {}: {} bytes", day, offset);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (committed) {
+                return;
+            }
+            segment.close();
+            index.close();
+            Files.deleteIfExists(segmentTmp);
+            Files.deleteIfExists(indexTmp);
+        }
+    }
+
+    private static final class SegmentIndex {
+        private final String[] users;
+        private final long[] offsets;
+        private final int[] lengths;
+
+        private SegmentIndex(String[] users, long[] offsets, int[] lengths) {
+            this.users = users;
+            this.offsets = offsets;
+            this.lengths = lengths;
+        }
+
+        private static SegmentIndex load(Path path) {
+            List<String> users = new ArrayList<>();
+            long[] offsets = new long[64];
+            int[] lengths = new int[64];
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                while (true) {
+                    String user;
+                    try {
+                        user = in.readUTF();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    int i = users.size();
+                    if (i == offsets.length) {
+                        offsets = Arrays.copyOf(offsets, i * 2);
+                        lengths = Arrays.copyOf(lengths, i * 2);
+                    }
+                    users.add(user);
+                    offsets[i] = in.readLong();
+                    lengths[i] = in.readInt();
+                    in.readInt();   // event count, for tooling
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read archive index " + path, e);
+            }
+            // written in Mongo's userId order, which can differ from String order outside the BMP
+            Integer[] order = new Integer[users.size()];
+            Arrays.setAll(order, i -> i);
+            Arrays.sort(order, (a, b) -> users.get(a).compareTo(users.get(b)));
+            String[] sortedUsers = new String[order.length];
+            long[] sortedOffsets = new long[order.length];
+            int[] sortedLengths = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                sortedUsers[i] = users.get(order[i]);
+                sortedOffsets[i] = offsets[order[i]];
+                sortedLengths[i] = lengths[order[i]];
+            }
+            return new SegmentIndex(sortedUsers, sortedOffsets, sortedLengths);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.infrasight.service;
+
+import com.infrasight.db.model.JobCheckpoint;
+import com.infrasight.db.model.PointsLog;
+import com.infrasight.db.repository.JobCheckpointRepository;
+import com.infrasight.db.repository.PointsLogRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Moves {@code points_log} entries older than {@code gamify.archive.retain-days} out of
+ * Mongo, one day at a time.
+ * <p>
+ * A day's entries are streamed in user order into an archive segment (see
+ * {@link PointsLogArchive}); once the segment is committed, a per-user day total
+ * replaces the entries in Mongo, so leaderboards and daily points keep working while
+ * the collection only holds the retention window in full. Days are done oldest first
+ * and the last finished day is checkpointed. Each step can be repeated, so a run that
+ * dies midway simply redoes the day it was on.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class PointsLogCompactor {
+
+    static final String CHECKPOINT_ID = "points-log-compaction";
+
+    private final PointsLogRepository pointsLogRepository;
+    private final PointsLogArchive archive;
+    private final JobCheckpointRepository checkpointRepository;
+
+    @Value("${gamify.archive.enabled:false}")
+    private boolean enabled;
+
+    @Value("${gamify.archive.retain-days:90}")
+    private int retainDays = 90;
+
+    @Value("${gamify.archive.batch-size:1000}")
+    private int batchSize = 1000;
+
+    private final ExecutorService runner = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "points-log-compaction");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Scheduled(cron = "${gamify.archive.cron:0 30 3 * * *}")
+    public void scheduled() {
+        if (enabled) {
+            compact();
+        }
+    }
+
+    /**
+     * Starts a compaction in the background.
+     *
+     * @return false if one is already running
+     */
+    public boolean start() {
+        if (running.get()) {
+            return false;
+        }
+        runner.execute(this::compact);
+        return true;
+    }
+
+    public Optional<JobCheckpoint> getStatus() {
+        return checkpointRepository.findById(CHECKPOINT_ID);
+    }
+
+    void compact() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            JobCheckpoint checkpoint = checkpointRepository.findById(CHECKPOINT_ID).orElseGet(() -> {
+                JobCheckpoint fresh = new JobCheckpoint();
+                fresh.setId(CHECKPOINT_ID);
+                return fresh;
+            });
+            LocalDate day = checkpoint.getLastKey() != null
+                    ? LocalDate.parse(checkpoint.getLastKey()).plusDays(1)
+                    : pointsLogRepository.findFirstDay();
+            LocalDate cutoff = LocalDate.now().minusDays(Math.max(1, retainDays));
+            while (day != null && day.isBefore(cutoff)) {
+                long entries = compactDay(day);
+                checkpoint.setLastKey(day.toString());
+                checkpoint.setProcessed(checkpoint.getProcessed() + entries);
+                checkpoint.setApplied(checkpoint.getApplied() + 1);
+                checkpoint.setUpdatedAt(Instant.now());
+                checkpointRepository.save(checkpoint);
+                day = day.plusDays(1);
+            }
+        } catch (Exception e) {
+            log.error("points_log compaction failed; the next run resumes from the checkpoint", e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * @return the number of entries archived
+     */
+    long compactDay(LocalDate day) throws IOException {
+        // an existing segment means an earlier run got past the archive step for this day
+        boolean write = !archive.isArchived(day);
+        List<PointsLog> summaries = new ArrayList<>();
+        long count = 0;
+        try (PointsLogArchive.Segment segment = write ? archive.open(day) : null;
+             CloseableIterator<PointsLog> entries = pointsLogRepository.streamByUser(day, day, batchSize)) {
+            List<PointsLog> group = new ArrayList<>();
+            while (entries.hasNext()) {
+                PointsLog entry = entries.next();
+                if (PointsLog.COMPACTED_EVENT.equals(entry.getEvent())) {
+                    continue;
+                }
+                if (!group.isEmpty() && !group.get(0).getUserId().equals(entry.getUserId())) {
+                    summaries.add(finishUser(segment, day, group));
+                    group = new ArrayList<>();
+                }
+                group.add(entry);
+                count++;
+            }
+            if (!group.isEmpty()) {
+                summaries.add(finishUser(segment, day, group));
+            }
+            if (segment != null) {
+                segment.commit();
+            }
+        }
+
+        for (int i = 0; i < summaries.size(); i += batchSize) {
+            pointsLogRepository.writeSummaries(summaries.subList(i, Math.min(summaries.size(), i + batchSize)));
+        }
+        long dropped = pointsLogRepository.dropEntries(day);
+        log.info("Compacted points_log for {}: {} entries of {} users archived, {} documents dropped",
+                day, count, summaries.size(), dropped);
+        return count;
+    }
+
+    private static PointsLog finishUser(PointsLogArchive.Segment segment, LocalDate day, List<PointsLog> group)
+            throws IOException {
+        String userId = group.get(0).getUserId();
+        if (segment != null) {
+            segment.add(userId, group);
+        }
+        int points = 0;
+        int badgeBonus = 0;
+        for (PointsLog entry : group) {
+            points += entry.getPointsAwarded();
+            badgeBonus += entry.getBadgeBonus();
+        }
+        return PointsLog.builder()
+                .userId(userId)
+                .event(PointsLog.COMPACTED_EVENT)
+                .pointsAwarded(points)
+                .badgeBonus(badgeBonus)
+                .streakDays(group.get(group.size() - 1).getStreakDays())
+                .timestamp(day)
+                .actionUuid("compacted_" + userId + "_" + day)
+                .archivedEvents(group.size())
+                .build();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        runner.shutdownNow();
+    }
+}
@@ -0,0 +1,97 @@
+package com.infrasight.service;
+
+import com.infrasight.db.model.JobCheckpoint;
+import com.infrasight.db.repository.JobCheckpointRepository;
+import com.infrasight.db.repository.PointsLogRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Recomputes the points rollups from {@code points_log} for a range of ISO weeks, one
+ * week at a time, e.g. after turning rollups on for an existing log or after rollup
+ * writes failed. The last finished week is checkpointed for progress reporting; a
+ * rebuild is cheap to rerun, so a failed one is simply started again.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class PointsRollupRebuilder {
+
+    static final String CHECKPOINT_ID = "points-rollup-rebuild";
+
+    private final PointsLogRepository pointsLogRepository;
+    private final JobCheckpointRepository checkpointRepository;
+
+    private final ExecutorService runner = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "points-rollup-rebuild");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /**
+     * Starts a rebuild of the weeks overlapping {@code [from, to]} in the background;
+     * {@code from} defaults to the first day in the log.
+     *
+     * @return false if one is already running
+     */
+    public boolean start(LocalDate from, LocalDate to) {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        runner.execute(() -> {
+            try {
+                rebuild(from, to);
+            } catch (Exception e) {
+                log.error("Points rollup rebuild failed", e);
+            } finally {
+                running.set(false);
+            }
+        });
+        return true;
+    }
+
+    public Optional<JobCheckpoint> getStatus() {
+        return checkpointRepository.findById(CHECKPOINT_ID);
+    }
+
+    void rebuild(LocalDate from, LocalDate to) {
+        LocalDate first = from != null ? from : pointsLogRepository.findFirstDay();
+        if (first == null) {
+            return;
+        }
+        JobCheckpoint checkpoint = new JobCheckpoint();
+        checkpoint.setId(CHECKPOINT_ID);
+        LocalDate week = first.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+        while (!week.isAfter(to)) {
+            long userDays = pointsLogRepository.rebuildRollups(week, week);
+            checkpoint.setLastKey(week.toString());
+            checkpoint.setProcessed(checkpoint.getProcessed() + userDays);
+            checkpoint.setApplied(checkpoint.getApplied() + 1);
+            checkpoint.setUpdatedAt(Instant.now());
+            checkpointRepository.save(checkpoint);
+            week = week.plusWeeks(1);
+        }
+        checkpoint.setCompleted(true);
+        checkpoint.setUpdatedAt(Instant.now());
+        checkpointRepository.save(checkpoint);
+        log.info("Points rollups rebuilt from {} to {}: {} weeks, {} user-days",
+                first, to, checkpoint.getApplied(), checkpoint.getProcessed());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        runner.shutdownNow();
+    }
+}
@@ -0,0 +1,633 @@
+package com.infrasight.service;
+
+import com.infrasight.data.LeaderboardEntry;
+import com.infrasight.db.model.UserGamify;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * All-time ranking of users by {@code totalPoints}, highest first and ties by userId,
+ * held in memory as indexable skip lists: every link records how many users it skips,
+ * so a user's rank, the user at a rank and the page starting there are all found in
+ * O(log n) instead of by sorting or skipping through {@code user_gamify}. Besides the
+ * ranking of everyone there is one per department, so department boards rank and page
+ * within the department rather than filtering a global page.
+ * <p>
+ * Names are indexed too, case- and accent-folded and by the start of every word, in a
+ * sorted map, so a name search is a range scan over matching keys followed by rank
+ * lookups for the matches instead of ranking the whole population per keystroke.
+ * <p>
+ * Seeded from {@code user_gamify} at startup. Awards on this node write through; every
+ * other change (other nodes, backfills, rescoring, department moves) arrives on a change
+ * stream that looks up the user's current total and department. A delete event carries
+ * only the document's {@code _id}, so the index keeps each document's userId to remove
+ * just that user. The stream is reopened after errors, resuming where it stopped or,
+ * when that is impossible, re-seeding. Without change streams
+ * (standalone Mongo) only this node's awards are seen until the next restart.
+ * <p>
+ * Methods taking a {@code department} use the whole population when it is null.
+ */
+@Slf4j
+@Component
+public class RankIndex {
+
+    private static final int MAX_LEVEL = 32;
+    // name matches ranked per search; a short prefix can match far more than anyone reads
+    private static final int MAX_SEARCH_CANDIDATES = 1000;
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern WORD_BREAKS = Pattern.compile("[\\s\\p{Punct}]+");
+
+    private final MongoTemplate mongoTemplate;
+    private final boolean changeStream;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Member> members = new HashMap<>();
+    private final Ranking everyone = new Ranking();
+    private final Map<String, Ranking> departments = new HashMap<>();
+    private final TreeMap<String, String> names = new TreeMap<>();   // folded word + '\0' + userId -> userId
+    private final Map<String, String> documents = new HashMap<>();    // user_gamify _id -> userId, for deletes
+
+    private volatile Thread watcher;
+
+    @Autowired
+    public RankIndex(MongoTemplate mongoTemplate,
+                     @Value("${gamify.rank-index.change-stream:true}") boolean changeStream) {
+        this.mongoTemplate = mongoTemplate;
+        this.changeStream = changeStream;
+    }
+
+    RankIndex() {
+        this(null, false);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (mongoTemplate == null) {
+            return;
+        }
+        if (!changeStream) {
+            seed();
+            return;
+        }
+        ChangeStreamLoop loop = new ChangeStreamLoop("user_gamify (rank index)",
+                "rank index only sees this node's awards", this::openChangeStream, this::apply, this::seed);
+        // open the stream before seeding so nothing written in between is missed
+        MongoChangeStreamCursor<ChangeStreamDocument<Document>> changes = loop.open();
+        seed();
+        if (!loop.isUnsupported()) {
+            watcher = new Thread(() -> loop.run(changes), "rank-index-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        Thread t = watcher;
+        if (t != null) {
+            t.interrupt();
+        }
+    }
+
+    /**
+     * Sets a user's total, department and name, adding them if they are new.
+     */
+    public void update(String userId, int totalPoints, String department, String name) {
+        lock.writeLock().lock();
+        try {
+            Member old = members.put(userId, new Member(totalPoints, department, name));
+            if (old != null) {
+                if (!Objects.equals(old.name, name)) {
+                    unindexName(userId, old.name);
+                    indexName(userId, name);
+                }
+                if (old.points == totalPoints && Objects.equals(old.department, department)) {
+                    return;
+                }
+                unlink(userId, old);
+            } else {
+                indexName(userId, name);
+            }
+            everyone.insert(totalPoints, userId);
+            if (department != null) {
+                departments.computeIfAbsent(department, d -> new Ranking()).insert(totalPoints, userId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String userId) {
+        lock.writeLock().lock();
+        try {
+            Member old = members.remove(userId);
+            if (old != null) {
+                unlink(userId, old);
+                unindexName(userId, old.name);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applies a change to the {@code user_gamify} document with the given {@code _id}.
+     */
+    void changed(String id, Document doc) {
+        String userId = doc.getString("userId");
+        if (userId == null) {
+            return;
+        }
+        Number total = doc.get("totalPoints", Number.class);
+        lock.writeLock().lock();
+        try {
+            update(userId, total != null ? total.intValue() : 0, doc.getString("department"), doc.getString("name"));
+            documents.put(id, userId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the user whose {@code user_gamify} document had the given {@code _id}, if known.
+     */
+    void deleted(String id) {
+        lock.writeLock().lock();
+        try {
+            String userId = documents.remove(id);
+            if (userId != null) {
+                remove(userId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        return size(null);
+    }
+
+    public int size(String department) {
+        lock.readLock().lock();
+        try {
+            Ranking ranking = ranking(department);
+            return ranking != null ? ranking.size : 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public LeaderboardEntry get(String userId) {
+        return get(null, userId);
+    }
+
+    /**
+     * The user's 1-based rank with their points, or null if they are not ranked (in
+     * that department).
+     */
+    public LeaderboardEntry get(String department, String userId) {
+        lock.readLock().lock();
+        try {
+            Member member = members.get(userId);
+            if (member == null || (department != null && !department.equals(member.department))) {
+                return null;
+            }
+            int rank = ranking(department).rankOf(member.points, userId);
+            return new LeaderboardEntry(userId, member.name, member.department, member.points, rank);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<LeaderboardEntry> range(long offset, int limit) {
+        return range(null, offset, limit);
+    }
+
+    /**
+     * Up to {@code limit} users from 0-based position {@code offset}, with ranks; only
+     * userId, department, totalPoints and rank are filled in.
+     */
+    public List<LeaderboardEntry> range(String department, long offset, int limit) {
+        lock.readLock().lock();
+        try {
+            Ranking ranking = ranking(department);
+            List<LeaderboardEntry> page = new ArrayList<>();
+            if (ranking == null || offset < 0 || offset >= ranking.size || limit <= 0) {
+                return page;
+            }
+            collect(ranking.nodeAt((int) offset + 1), (int) offset + 1, limit, page);
+            return page;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<LeaderboardEntry> after(int total, String userId, int limit) {
+        return after(null, total, userId, limit);
+    }
+
+    /**
+     * Up to {@code limit} users ranked directly below the position {@code (total, userId)},
+     * which need not be a current user; a seek, so any depth costs the same.
+     */
+    public List<LeaderboardEntry> after(String department, int total, String userId, int limit) {
+        lock.readLock().lock();
+        try {
+            Ranking ranking = ranking(department);
+            List<LeaderboardEntry> page = new ArrayList<>();
+            if (ranking == null || limit <= 0) {
+                return page;
+            }
+            int[] rank = new int[1];
+            Node last = ranking.lastNotBelow(total, userId, rank);
+            collect(last.next[0], rank[0] + 1, limit, page);
+            return page;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<LeaderboardEntry> top(int k) {
+        return range(null, 0, k);
+    }
+
+    public List<LeaderboardEntry> around(String userId, int k) {
+        return around(null, userId, k);
+    }
+
+    /**
+     * The user with up to {@code k} users ranked directly above and below them, or an
+     * empty list if they are not ranked (in that department).
+     */
+    public List<LeaderboardEntry> around(String department, String userId, int k) {
+        lock.readLock().lock();
+        try {
+            LeaderboardEntry self = get(department, userId);
+            if (self == null) {
+                return List.of();
+            }
+            int first = Math.max(1, self.getRank() - k);
+            return range(department, first - 1, self.getRank() + k - first + 1);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Users whose name, or any word in it, starts with {@code query} (ignoring case and
+     * accents), best ranked first, with their rank overall or within {@code department}.
+     * Matches beyond the first {@value #MAX_SEARCH_CANDIDATES} in name order are not
+     * considered.
+     */
+    public List<LeaderboardEntry> search(String query, String department, int limit) {
+        String prefix = fold(query);
+        if (prefix.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        lock.readLock().lock();
+        try {
+            Set<String> candidates = new LinkedHashSet<>();
+            for (String userId : names.subMap(prefix, true, prefix + Character.MAX_VALUE, true).values()) {
+                candidates.add(userId);
+                if (candidates.size() == MAX_SEARCH_CANDIDATES) {
+                    break;
+                }
+            }
+            List<LeaderboardEntry> matches = new ArrayList<>();
+            for (String userId : candidates) {
+                LeaderboardEntry entry = get(department, userId);
+                if (entry != null) {
+                    matches.add(entry);
+                }
+            }
+            matches.sort(Comparator.comparingInt(LeaderboardEntry::getRank));
+            return matches.size() > limit ? new ArrayList<>(matches.subList(0, limit)) : matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Lower case without accents or other combining marks, with runs of whitespace and
+     * punctuation collapsed to a single space.
+     */
+    static String fold(String text) {
+        if (text == null) {
+            return "";
+        }
+        String stripped = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFKD)).replaceAll("");
+        return WORD_BREAKS.matcher(stripped.toLowerCase(Locale.ROOT)).replaceAll(" ").trim();
+    }
+
+    private void indexName(String userId, String name) {
+        for (String key : nameKeys(userId, name)) {
+            names.put(key, userId);
+        }
+    }
+
+    private void unindexName(String userId, String name) {
+        for (String key : nameKeys(userId, name)) {
+            names.remove(key);
+        }
+    }
+
+    /**
+     * One key per word start, so "Ada Lovelace" is found by "ada", "ada l" and "love".
+     */
+    private static List<String> nameKeys(String userId, String name) {
+        String folded = fold(name);
+        if (folded.isEmpty()) {
+            return List.of();
+        }
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < folded.length(); i++) {
+            if (i == 0 || folded.charAt(i - 1) == ' ') {
+                keys.add(folded.substring(i) + '\0' + userId);
+            }
+        }
+        return keys;
+    }
+
+    private Ranking ranking(String department) {
+        return department == null ? everyone : departments.get(department);
+    }
+
+    private void unlink(String userId, Member old) {
+        everyone.delete(old.points, userId);
+        if (old.department != null) {
+            Ranking ranking = departments.get(old.department);
+            ranking.delete(old.points, userId);
+            if (ranking.size == 0) {
+                departments.remove(old.department);
+            }
+        }
+    }
+
+    private void collect(Node from, int rank, int limit, List<LeaderboardEntry> page) {
+        for (Node x = from; x != null && page.size() < limit; x = x.next[0]) {
+            Member member = members.get(x.userId);
+            page.add(new LeaderboardEntry(x.userId, member.name, member.department, x.points, rank++));
+        }
+    }
+
+    private void seed() {
+        Query query = new Query();
+        query.fields().include("userId").include("totalPoints").include("department").include("name");
+        query.cursorBatchSize(1000);
+        int seeded = 0;
+        Set<String> seen = new HashSet<>();
+        try (CloseableIterator<UserGamify> users = mongoTemplate.stream(query, UserGamify.class)) {
+            while (users.hasNext()) {
+                UserGamify user = users.next();
+                if (user.getUserId() != null) {
+                    lock.writeLock().lock();
+                    try {
+                        update(user.getUserId(), user.getTotalPoints(), user.getDepartment(), user.getName());
+                        documents.put(user.getId(), user.getUserId());
+                    } finally {
+                        lock.writeLock().unlock();
+                    }
+                    seen.add(user.getId());
+                    seeded++;
+                }
+            }
+        }
+        // re-seeding after a change stream gap: drop users deleted meanwhile
+        lock.writeLock().lock();
+        try {
+            for (String id : new ArrayList<>(documents.keySet())) {
+                if (!seen.contains(id)) {
+                    deleted(id);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Rank index seeded with {} users in {} departments", seeded, departments.size());
+    }
+
+    private MongoChangeStreamCursor<ChangeStreamDocument<Document>> openChangeStream(BsonDocument resumeAfter) {
+        String collection = mongoTemplate.getCollectionName(UserGamify.class);
+        ChangeStreamIterable<Document> stream = mongoTemplate.getCollection(collection)
+                .watch(List.of(
+                        Aggregates.match(Filters.in("operationType", "insert", "update", "replace", "delete")),
+                        Aggregates.project(Projections.include("operationType", "documentKey",
+                                "fullDocument.userId", "fullDocument.totalPoints", "fullDocument.department",
+                                "fullDocument.name"))))
+                .fullDocument(FullDocument.UPDATE_LOOKUP);
+        return (resumeAfter != null ? stream.resumeAfter(resumeAfter) : stream).cursor();
+    }
+
+    private void apply(ChangeStreamDocument<Document> change) {
+        String id = documentId(change.getDocumentKey().get("_id"));
+        if (change.getOperationType() == OperationType.DELETE) {
+            deleted(id);
+        } else if (change.getFullDocument() != null) {
+            changed(id, change.getFullDocument());
+        }
+        // otherwise it was deleted before the lookup, and its delete event follows
+    }
+
+    /**
+     * The {@code _id} as {@link UserGamify#getId()} reads it: ObjectIds as hex strings.
+     */
+    private static String documentId(BsonValue id) {
+        if (id.isObjectId()) {
+            return id.asObjectId().getValue().toHexString();
+        }
+        return id.isString() ? id.asString().getValue() : id.toString();
+    }
+
+    private static final class Member {
+        private final int points;
+        private final String department;
+        private final String name;
+
+        private Member(int points, String department, String name) {
+            this.points = points;
+            this.department = department;
+            this.name = name;
+        }
+    }
+
+    /**
+     * One skip list ordered by points desc, then userId, in the layout of Redis sorted
+     * sets. Callers hold the lock.
+     */
+    private static final class Ranking {
+        private final Node head = new Node(null, 0, MAX_LEVEL);
+        private int level = 1;
+        private int size;
+
+        /**
+         * Whether {@code x} ranks above the user {@code (total, userId)}.
+         */
+        private static boolean above(Node x, int total, String userId) {
+            return x.points > total || (x.points == total && x.userId.compareTo(userId) < 0);
+        }
+
+        private static boolean below(Node x, int total, String userId) {
+            return x.points < total || (x.points == total && x.userId.compareTo(userId) > 0);
+        }
+
+        private void insert(int total, String userId) {
+            Node[] update = new Node[MAX_LEVEL];
+            int[] rank = new int[MAX_LEVEL];
+            Node x = head;
+            for (int i = level - 1; i >= 0; i--) {
+                rank[i] = i == level - 1 ? 0 : rank[i + 1];
+                while (x.next[i] != null && above(x.next[i], total, userId)) {
+                    rank[i] += x.span[i];
+                    x = x.next[i];
+                }
+                update[i] = x;
+            }
+            int nodeLevel = randomLevel();
+            if (nodeLevel > level) {
+                for (int i = level; i < nodeLevel; i++) {
+                    rank[i] = 0;
+                    update[i] = head;
+                    head.span[i] = size;
+                }
+                level = nodeLevel;
+            }
+            Node node = new Node(userId, total, nodeLevel);
+            for (int i = 0; i < nodeLevel; i++) {
+                node.next[i] = update[i].next[i];
+                update[i].next[i] = node;
+                node.span[i] = update[i].span[i] - (rank[0] - rank[i]);
+                update[i].span[i] = rank[0] - rank[i] + 1;
+            }
+            for (int i = nodeLevel; i < level; i++) {
+                update[i].span[i]++;
+            }
+            size++;
+        }
+
+        private void delete(int total, String userId) {
+            Node[] update = new Node[MAX_LEVEL];
+            Node x = head;
+            for (int i = level - 1; i >= 0; i--) {
+                while (x.next[i] != null && above(x.next[i], total, userId)) {
+                    x = x.next[i];
+                }
+                update[i] = x;
+            }
+            Node node = x.next[0];
+            for (int i = 0; i < level; i++) {
+                if (update[i].next[i] == node) {
+                    update[i].span[i] += node.span[i] - 1;
+                    update[i].next[i] = node.next[i];
+                } else {
+                    update[i].span[i]--;
+                }
+            }
+            while (level > 1 && head.next[level - 1] == null) {
+                level--;
+            }
+            size--;
+        }
+
+        private int rankOf(int total, String userId) {
+            int rank = 0;
+            Node x = head;
+            for (int i = level - 1; i >= 0; i--) {
+                while (x.next[i] != null && (above(x.next[i], total, userId) || x.next[i].userId.equals(userId))) {
+                    rank += x.span[i];
+                    x = x.next[i];
+                }
+                if (x != head && x.userId.equals(userId)) {
+                    return rank;
+                }
+            }
+            return 0;
+        }
+
+        private Node nodeAt(int rank) {
+            int traversed = 0;
+            Node x = head;
+            for (int i = level - 1; i >= 0; i--) {
+                while (x.next[i] != null && traversed + x.span[i] <= rank) {
+                    traversed += x.span[i];
+                    x = x.next[i];
+                }
+                if (traversed == rank) {
+                    return x;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * The last node not ranked below {@code (total, userId)} (the head if none), with
+         * its rank in {@code rank[0]}.
+         */
+        private Node lastNotBelow(int total, String userId, int[] rank) {
+            Node x = head;
+            for (int i = level - 1; i >= 0; i--) {
+                while (x.next[i] != null && !below(x.next[i], total, userId)) {
+                    rank[0] += x.span[i];
+                    x = x.next[i];
+                }
+            }
+            return x;
+        }
+
+        private static int randomLevel() {
+            // p = 1/4, as in Redis sorted sets
+            int nodeLevel = 1;
+            while (nodeLevel < MAX_LEVEL && ThreadLocalRandom.current().nextInt(4) == 0) {
+                nodeLevel++;
+            }
+            return nodeLevel;
+        }
+    }
+
+    private static final class Node {
+        private final String userId;
+        private final int points;
+        private final Node[] next;
+        private final int[] span;
+
+        private Node(String userId, int points, int level) {
+            this.userId = userId;
+            this.points = points;
+            this.next = new Node[level];
+            this.span = new int[level];
+        }
+    }
+}
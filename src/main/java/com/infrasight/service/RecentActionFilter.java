@@ -0,0 +1,139 @@
+package com.infrasight.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Time-windowed Bloom filter over recently seen action UUIDs.
+ * <p>
+ * A negative answer is definite for this node within the window, so the common case
+ * of a fresh command needs no database check; a positive answer means "possibly seen"
+ * and callers confirm it against {@code points_log}. Two generations are kept and the
+ * older one is dropped each window, so memory stays fixed and an entry is remembered
+ * for between one and two windows. The unique index on {@code actionUuid} remains
+ * the source of truth for duplicates this filter cannot know about (other nodes,
+ * restarts, older retries).
+ */
+@Component
+public class RecentActionFilter {
+
+    private final int bits;
+    private final int hashes;
+    private final long windowNanos;
+    private final LongSupplier clock;
+
+    private volatile Generation current;
+    private volatile Generation previous;
+
+    @Autowired
+    public RecentActionFilter(@Value("${gamify.idempotency.expected-per-window:1000000}") int expected,
+                              @Value("${gamify.idempotency.false-positive-rate:0.01}") double fpp,
+                              @Value("${gamify.idempotency.window:PT10M}") Duration window) {
+        this(expected, fpp, window, System::nanoTime);
+    }
+
+    RecentActionFilter(int expected, double fpp, Duration window, LongSupplier clock) {
+        double m = -expected * Math.log(fpp) / (Math.log(2) * Math.log(2));
+        this.bits = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, Math.ceil(m)));
+        this.hashes = Math.max(1, (int) Math.round(m / expected * Math.log(2)));
+        this.windowNanos = window.toNanos();
+        this.clock = clock;
+        this.current = new Generation(clock.getAsLong());
+        this.previous = new Generation(clock.getAsLong());
+    }
+
+    /**
+     * Records {@code key} and reports whether it may have been recorded before.
+     */
+    public boolean checkAndAdd(String key) {
+        rotateIfDue();
+        long h = hash(key);
+        Generation cur = current;
+        Generation prev = previous;
+        boolean seenCurrent = cur.set(h);
+        return seenCurrent || prev.contains(h);
+    }
+
+    public boolean mightContain(String key) {
+        rotateIfDue();
+        long h = hash(key);
+        return current.contains(h) || previous.contains(h);
+    }
+
+    private void rotateIfDue() {
+        long now = clock.getAsLong();
+        if (now - current.startedAt < windowNanos) {
+            return;
+        }
+        synchronized (this) {
+            if (now - current.startedAt >= windowNanos) {
+                previous = current;
+                current = new Generation(now);
+            }
+        }
+    }
+
+    private final class Generation {
+        private final long startedAt;
+        private final AtomicLongArray words = new AtomicLongArray((bits + 63) >>> 6);
+
+        private Generation(long startedAt) {
+            this.startedAt = startedAt;
+        }
+
+        /**
+         * Sets all bits for the hash; returns true if they were all already set.
+         */
+        private boolean set(long hash) {
+            boolean present = true;
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < hashes; i++) {
+                int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bits;
+                int word = bit >>> 6;
+                long mask = 1L << bit;
+                long old = words.get(word);
+                while ((old & mask) == 0) {
+                    if (words.compareAndSet(word, old, old | mask)) {
+                        present = false;
+                        break;
+                    }
+                    old = words.get(word);
+                }
+            }
+            return present;
+        }
+
+        private boolean contains(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < hashes; i++) {
+                int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bits;
+                if ((words.get(bit >>> 6) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    // FNV-1a over the chars, finished with the murmur3 64-bit mixer
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0, n = key.length(); i < n; i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,366 @@
+package com.infrasight.service;
+
+import com.infrasight.data.PointsRequest;
+import com.infrasight.data.ScoreResult;
+import com.infrasight.db.model.GamifyConfigDoc;
+import com.infrasight.db.model.PointsLog;
+import com.infrasight.db.model.RescoreDiff;
+import com.infrasight.db.model.RescoreRun;
+import com.infrasight.db.model.UserGamify;
+import com.infrasight.db.repository.PointsLogRepository;
+import com.infrasight.db.repository.RescoreRunRepository;
+import com.mongodb.bulk.BulkWriteError;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Retrospective ("what-if") rescoring of {@code points_log} under a candidate config.
+ * <p>
+ * The log is streamed for a date range in user order (unwound from the day buckets when
+ * those are in use), so each user's events arrive as one contiguous group. Groups are replayed through
+ * {@link GamificationCalculator} on a bounded worker pool; the submitting thread runs a
+ * group itself when the queue is full, which caps the number of groups held in memory.
+ * Per-user results go to {@code rescore_diff} in bulk and nothing touches
+ * {@code user_gamify} until {@link #apply(String)} is called for a completed run.
+ * <p>
+ * Each user's replay is seeded from their last entry before the range (its day and the
+ * streak logged with it), or from a new user's state when the range starts their log.
+ * Badge bonuses are left out on both sides, since badges
+ * already granted are not revoked or re-granted by a rescore. Days already compacted into
+ * the archive only have day totals left and contribute nothing.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class RescoringService {
+
+    static final String ADJUST_EVENT = "rescore.adjust";
+    private static final Set<String> NON_SCORING = Set.of(BadgeBackfillService.BACKFILL_EVENT, ADJUST_EVENT,
+            PointsLog.COMPACTED_EVENT);
+    // entries that do not record the user's streak, so cannot seed a replay
+    private static final Set<String> NO_STREAK = Set.of(BadgeBackfillService.BACKFILL_EVENT, ADJUST_EVENT);
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final MongoTemplate mongoTemplate;
+    private final PointsLogRepository pointsLogRepository;
+    private final RescoreRunRepository runRepository;
+    private final GamificationCalculator calculator;
+    private final ServerDictionary serverDictionary;
+
+    @Value("${gamify.rescore.workers:0}")
+    private int workers;
+
+    @Value("${gamify.rescore.batch-size:1000}")
+    private int batchSize = 1000;
+
+    private final ExecutorService runner = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "rescore");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Starts a rescoring run in the background.
+     *
+     * @return the run document; poll it by id for progress
+     */
+    public RescoreRun start(LocalDate from, LocalDate to, GamifyConfigDoc candidate) {
+        if (from == null || to == null || to.isBefore(from)) {
+            throw new IllegalArgumentException("Invalid rescore range " + from + ".." + to);
+        }
+        if (candidate == null) {
+            throw new IllegalArgumentException("Candidate config is required");
+        }
+        RescoreRun run = new RescoreRun();
+        run.setId(UUID.randomUUID().toString());
+        run.setFrom(from);
+        run.setTo(to);
+        run.setCandidate(candidate);
+        run.setStatus(RescoreRun.Status.RUNNING);
+        run.setStartedAt(Instant.now());
+        runRepository.save(run);
+
+        runner.execute(() -> {
+            try {
+                execute(run, candidate);
+                run.setStatus(RescoreRun.Status.COMPLETED);
+            } catch (Exception e) {
+                log.error("Rescore run {} failed", run.getId(), e);
+                run.setStatus(RescoreRun.Status.FAILED);
+                run.setError(e.getMessage());
+            }
+            run.setFinishedAt(Instant.now());
+            runRepository.save(run);
+        });
+        return run;
+    }
+
+    public Optional<RescoreRun> getRun(String runId) {
+        return runRepository.findById(runId);
+    }
+
+    /**
+     * Credits the per-user diffs of a completed run to {@code user_gamify}, logging one
+     * {@value #ADJUST_EVENT} entry per user. Safe to call again after a failure: each user
+     * document records the runs credited to it, and the log entries are keyed by run and user.
+     *
+     * @return false if the run is unknown or not in a state that can be applied
+     */
+    public boolean apply(String runId) {
+        RescoreRun run = runRepository.findById(runId).orElse(null);
+        if (run == null || (run.getStatus() != RescoreRun.Status.COMPLETED
+                && run.getStatus() != RescoreRun.Status.APPLYING)) {
+            return false;
+        }
+        run.setStatus(RescoreRun.Status.APPLYING);
+        runRepository.save(run);
+        runner.execute(() -> {
+            try {
+                applyDiffs(runId);
+                run.setStatus(RescoreRun.Status.APPLIED);
+            } catch (Exception e) {
+                log.error("Applying rescore run {} failed; call apply again to resume", runId, e);
+                run.setError(e.getMessage());
+            }
+            run.setFinishedAt(Instant.now());
+            runRepository.save(run);
+        });
+        return true;
+    }
+
+    void execute(RescoreRun run, GamifyConfigDoc candidate) throws InterruptedException {
+        ScoringPlan plan = ScoringPlan.compile(candidate);
+        int threads = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 4), new ThreadPoolExecutor.CallerRunsPolicy());
+        BlockingQueue<RescoreDiff> results = new LinkedBlockingQueue<>();
+        LongAdder events = new LongAdder();
+        LongAdder users = new LongAdder();
+        LongAdder changed = new LongAdder();
+        LongAdder oldPoints = new LongAdder();
+        LongAdder newPoints = new LongAdder();
+
+        try (CloseableIterator<PointsLog> entries =
+                     pointsLogRepository.streamByUser(run.getFrom(), run.getTo(), batchSize)) {
+            List<PointsLog> group = new ArrayList<>();
+            while (entries.hasNext()) {
+                PointsLog entry = entries.next();
+                events.increment();
+                if (!group.isEmpty() && !group.get(0).getUserId().equals(entry.getUserId())) {
+                    submit(pool, run, group, plan, results, users, changed, oldPoints, newPoints);
+                    group = new ArrayList<>();
+                }
+                group.add(entry);
+                if (results.size() >= batchSize) {
+                    flush(results);
+                }
+            }
+            if (!group.isEmpty()) {
+                submit(pool, run, group, plan, results, users, changed, oldPoints, newPoints);
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        flush(results);
+
+        run.setEventsScanned(events.sum());
+        run.setUsersScanned(users.sum());
+        run.setUsersChanged(changed.sum());
+        run.setOldPoints(oldPoints.sum());
+        run.setNewPoints(newPoints.sum());
+        log.info("Rescore run {} over {}..{}: {} events, {} users, {} changed, points {} -> {}",
+                run.getId(), run.getFrom(), run.getTo(), run.getEventsScanned(), run.getUsersScanned(),
+                run.getUsersChanged(), run.getOldPoints(), run.getNewPoints());
+    }
+
+    private void submit(ThreadPoolExecutor pool, RescoreRun run, List<PointsLog> group, ScoringPlan plan,
+                        BlockingQueue<RescoreDiff> results, LongAdder users, LongAdder changed,
+                        LongAdder oldPoints, LongAdder newPoints) {
+        pool.execute(() -> {
+            PointsLog prior = pointsLogRepository.findLastBefore(group.get(0).getUserId(), run.getFrom(), NO_STREAK);
+            RescoreDiff diff = rescoreUser(run.getId(), group, prior, plan);
+            users.increment();
+            oldPoints.add(diff.getOldPoints());
+            newPoints.add(diff.getNewPoints());
+            if (diff.getDiff() != 0) {
+                changed.increment();
+                results.add(diff);
+            }
+        });
+    }
+
+    /**
+     * Replays one user's events, in log order, under {@code plan}, starting from the state
+     * after {@code prior}, their last entry before the range (null if there is none).
+     */
+    RescoreDiff rescoreUser(String runId, List<PointsLog> events, PointsLog prior, ScoringPlan plan) {
+        BadgeRuleSet noBadges = BadgeRuleSet.compile(null);
+        PointsLog first = events.get(0);
+        UserGamify state = new UserGamify();
+        state.setUserId(first.getUserId());
+        if (prior != null) {
+            state.setStreakDays(prior.getStreakDays());
+            state.setLastActivity(prior.getTimestamp());
+        }
+
+        int scored = 0;
+        long oldPoints = 0;
+        long newPoints = 0;
+        for (PointsLog entry : events) {
+            if (NON_SCORING.contains(entry.getEvent())) {
+                continue;
+            }
+            ScoreResult result = calculator.scoreAll(plan, noBadges, state,
+                    Collections.singletonList(toRequest(entry)), entry.getTimestamp());
+            result.applyTo(state);
+            scored++;
+            oldPoints += entry.getPointsAwarded() - entry.getBadgeBonus();
+            newPoints += result.getTotalDelta();
+        }
+        return new RescoreDiff(runId + ":" + first.getUserId(), runId, first.getUserId(), scored,
+                oldPoints, newPoints, newPoints - oldPoints, false);
+    }
+
+    private void applyDiffs(String runId) {
+        Query pending = pendingDiffs(runId);
+        pending.cursorBatchSize(batchSize);
+        List<RescoreDiff> batch = new ArrayList<>(batchSize);
+        try (CloseableIterator<RescoreDiff> diffs = mongoTemplate.stream(pending, RescoreDiff.class)) {
+            while (diffs.hasNext()) {
+                batch.add(diffs.next());
+                if (batch.size() == batchSize) {
+                    applyBatch(runId, batch);
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            applyBatch(runId, batch);
+        }
+    }
+
+    /**
+     * Credits a batch, then logs an adjustment for every user the run has credited. The
+     * {@code $ne} guard and the run id added alongside the {@code $inc} make the credit
+     * itself idempotent, so a pass interrupted anywhere in here can simply be repeated;
+     * the log entries are keyed by run and user and are written only for users whose
+     * document carries the run id, i.e. whose credit did happen.
+     */
+    private void applyBatch(String runId, List<RescoreDiff> batch) {
+        List<String> ids = new ArrayList<>(batch.size());
+        List<String> userIds = new ArrayList<>(batch.size());
+        BulkOperations userOps = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UserGamify.class);
+        for (RescoreDiff diff : batch) {
+            ids.add(diff.getId());
+            userIds.add(diff.getUserId());
+            userOps.updateOne(
+                    Query.query(Criteria.where("userId").is(diff.getUserId()).and("appliedRescores").ne(runId)),
+                    new Update().inc("totalPoints", diff.getDiff()).addToSet("appliedRescores", runId));
+        }
+        userOps.execute();
+
+        Set<String> creditedUsers = new HashSet<>();
+        for (UserGamify user : mongoTemplate.find(creditedAmong(userIds, runId), UserGamify.class)) {
+            creditedUsers.add(user.getUserId());
+        }
+
+        LocalDate today = LocalDate.now();
+        List<PointsLog> adjustments = new ArrayList<>(creditedUsers.size());
+        for (RescoreDiff diff : batch) {
+            if (creditedUsers.contains(diff.getUserId())) {
+                adjustments.add(PointsLog.builder()
+                        .userId(diff.getUserId())
+                        .event(ADJUST_EVENT)
+                        .pointsAwarded((int) diff.getDiff())
+                        .timestamp(today)
+                        .actionUuid("rescore_" + runId + "_" + diff.getUserId())
+                        .build());
+            }
+        }
+        try {
+            pointsLogRepository.appendAll(adjustments);
+        } catch (BulkOperationException e) {
+            // logged by an earlier, interrupted pass over this batch
+            for (BulkWriteError err : e.getErrors()) {
+                if (err.getCode() != DUPLICATE_KEY) {
+                    throw e;
+                }
+            }
+        }
+        mongoTemplate.updateMulti(Query.query(Criteria.where("_id").in(ids)),
+                Update.update("applied", true), RescoreDiff.class);
+    }
+
+    static Query pendingDiffs(String runId) {
+        return Query.query(Criteria.where("runId").is(runId).and("applied").is(false)).with(Sort.by("_id"));
+    }
+
+    static Query creditedAmong(List<String> userIds, String runId) {
+        Query query = Query.query(Criteria.where("userId").in(userIds).and("appliedRescores").is(runId));
+        query.fields().include("userId");
+        return query;
+    }
+
+    private void flush(BlockingQueue<RescoreDiff> results) {
+        List<RescoreDiff> drained = new ArrayList<>(results.size());
+        results.drainTo(drained);
+        if (drained.isEmpty()) {
+            return;
+        }
+        mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, RescoreDiff.class)
+                .insert(drained)
+                .execute();
+    }
+
+    private PointsRequest toRequest(PointsLog entry) {
+        PointsRequest request = new PointsRequest();
+        request.setEvent(entry.getEvent());
+        request.setEnvironment(entry.getEnvironment());
+        request.setServers(entry.getServers());
+        if (entry.getServers() == null && entry.getServerIds() != null) {
+            List<String> hosts = new ArrayList<>(entry.getServerIds().size());
+            for (Integer id : entry.getServerIds()) {
+                hosts.add(serverDictionary.hostOf(id));
+            }
+            request.setServers(hosts);
+        }
+        request.setParameters(entry.getParameters());
+        request.setActionUuid(entry.getActionUuid());
+        return request;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        runner.shutdownNow();
+    }
+}
@@ -0,0 +1,194 @@
+package com.infrasight.service;
+
+import com.infrasight.db.model.GamifyConfigDoc;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable, primitive-backed form of a {@link GamifyConfigDoc}.
+ * <p>
+ * Compiled once per configuration version so that scoring a command does
+ * not touch boxed maps, streams or regular expressions on the request path.
+ * Instances are safe to share between threads.
+ */
+public final class ScoringPlan {
+
+    static final int PARAM_SIMPLE = 0;
+    static final int PARAM_WILDCARD = 1;
+    static final int PARAM_REGEX = 2;
+
+    /** Per-parameter complexity is the configured weight scaled by this factor. */
+    private static final int COMPLEXITY_SCALE = 5;
+
+    private final int baseScore;
+    private final int loginPoints;
+    private final int welcomeBackBonus;
+    private final int welcomeBackGap;
+
+    private final double defaultCommandWeight;
+    private final double paramCommandWeight;
+
+    // indexed by PARAM_SIMPLE / PARAM_WILDCARD / PARAM_REGEX
+    private final int[] parameterScores;
+
+    // access tier weights, looked up by interned environment id
+    private final String[] envIds;
+    private final double[] envWeights;
+
+    // sorted ascending; multipliers[i] is the best multiplier for any threshold <= thresholds[i]
+    private final int[] streakThresholds;
+    private final double[] streakMultipliers;
+
+    private final boolean logScaling;
+    private final double serverLogFactor;
+
+    private ScoringPlan(GamifyConfigDoc cfg) {
+        this.baseScore = cfg.getBaseScore();
+        this.loginPoints = cfg.getLoginPoints();
+        this.welcomeBackBonus = cfg.getWelcomeBackBonus();
+        this.welcomeBackGap = cfg.getWelcomeBackGap();
+
+        Map<String, Double> commandWeight = orEmpty(cfg.getCommandWeight());
+        this.defaultCommandWeight = commandWeight.getOrDefault("default", 1.0);
+        this.paramCommandWeight = commandWeight.getOrDefault("param", 1.0);
+
+        Map<String, Double> parameterWeight = orEmpty(cfg.getParameterWeight());
+        this.parameterScores = new int[3];
+        parameterScores[PARAM_SIMPLE] = (int) (parameterWeight.getOrDefault("simple", 1.0) * COMPLEXITY_SCALE);
+        parameterScores[PARAM_WILDCARD] = (int) (parameterWeight.getOrDefault("wildcard", 2.0) * COMPLEXITY_SCALE);
+        parameterScores[PARAM_REGEX] = (int) (parameterWeight.getOrDefault("regex", 3.0) * COMPLEXITY_SCALE);
+
+        Map<String, Double> tiers = orEmpty(cfg.getAccessTierWeight());
+        this.envIds = new String[tiers.size()];
+        this.envWeights = new double[tiers.size()];
+        int i = 0;
+        for (Map.Entry<String, Double> e : tiers.entrySet()) {
+            envIds[i] = e.getKey().intern();
+            envWeights[i] = e.getValue();
+            i++;
+        }
+
+        TreeMap<Integer, Double> streaks = new TreeMap<>(orEmpty(cfg.getStreakMultiplier()));
+        this.streakThresholds = new int[streaks.size()];
+        this.streakMultipliers = new double[streaks.size()];
+        double best = Double.NEGATIVE_INFINITY;
+        i = 0;
+        for (Map.Entry<Integer, Double> e : streaks.entrySet()) {
+            best = Math.max(best, e.getValue());
+            streakThresholds[i] = e.getKey();
+            streakMultipliers[i] = best;
+            i++;
+        }
+
+        GamifyConfigDoc.ServerScaling scaling = cfg.getServerScaling();
+        this.logScaling = scaling != null && "log".equals(scaling.getFunction()) && scaling.getLogBase() > 1;
+        this.serverLogFactor = logScaling ? 0.1 / Math.log(scaling.getLogBase()) : 0.0;
+    }
+
+    public static ScoringPlan compile(GamifyConfigDoc cfg) {
+        return new ScoringPlan(cfg);
+    }
+
+    public int getLoginPoints() {
+        return loginPoints;
+    }
+
+    public int getWelcomeBackBonus() {
+        return welcomeBackBonus;
+    }
+
+    public int getWelcomeBackGap() {
+        return welcomeBackGap;
+    }
+
+    /**
+     * Points for a single command execution.
+     */
+    public int commandDelta(List<String> parameters, String environment, int serverCount, int streakDays) {
+        boolean hasParams = parameters != null && !parameters.isEmpty();
+        double commandWeight = hasParams ? paramCommandWeight : defaultCommandWeight;
+
+        return (int) Math.ceil((baseScore + complexityScore(parameters))
+                * commandWeight
+                * envWeight(environment)
+                * serverScale(serverCount)
+                * streakMultiplier(streakDays));
+    }
+
+    public int complexityScore(List<String> parameters) {
+        if (parameters == null) {
+            return 0;
+        }
+        int score = 0;
+        for (int i = 0, n = parameters.size(); i < n; i++) {
+            score += parameterScores[classify(parameters.get(i))];
+        }
+        return score;
+    }
+
+    public double envWeight(String environment) {
+        if (environment == null) {
+            return 1.0;
+        }
+        String[] ids = envIds;
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i].equals(environment)) {
+                return envWeights[i];
+            }
+        }
+        return 1.0;
+    }
+
+    public double serverScale(int serverCount) {
+        if (serverCount <= 1 || !logScaling) {
+            return 1.0;
+        }
+        return 1.0 + Math.log(serverCount) * serverLogFactor;
+    }
+
+    /**
+     * Highest multiplier whose threshold is at or below {@code days}, or 1.0 if none applies.
+     */
+    public double streakMultiplier(int days) {
+        int idx = Arrays.binarySearch(streakThresholds, days);
+        if (idx < 0) {
+            idx = -idx - 2;
+        }
+        return idx < 0 ? 1.0 : streakMultipliers[idx];
+    }
+
+    /**
+     * Classifies a parameter without regex matching: wildcards first, then regex
+     * metacharacters, otherwise simple.
+     */
+    static int classify(String param) {
+        boolean regex = false;
+        for (int i = 0, n = param.length(); i < n; i++) {
+            switch (param.charAt(i)) {
+                case '*':
+                case '?':
+                    return PARAM_WILDCARD;
+                case '[':
+                case ']':
+                case '$':
+                case '{':
+                case '}':
+                case '^':
+                case '|':
+                case '\\':
+                    regex = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return regex ? PARAM_REGEX : PARAM_SIMPLE;
+    }
+
+    private static <K, V> Map<K, V> orEmpty(Map<K, V> map) {
+        return map != null ? map : Map.of();
+    }
+}
@@ -0,0 +1,117 @@
+package com.infrasight.service;
+
+import com.infrasight.db.model.ServerEntry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Global hostname -> id dictionary, persisted in {@code server_dictionary} and cached
+ * in memory for the life of the process.
+ * <p>
+ * Ids come from a counter document, so they are dense and every node agrees on them.
+ * When two nodes register the same new host at once, the unique {@code _id} makes one
+ * insert fail and that node adopts the stored id (the id it drew is simply skipped).
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ServerDictionary implements ServerIds {
+
+    private static final String SEQUENCES = "sequences";
+    private static final String SEQUENCE_ID = "server_id";
+
+    private final MongoTemplate mongoTemplate;
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final Map<Integer, String> hosts = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void load() {
+        try (CloseableIterator<ServerEntry> entries = mongoTemplate.stream(new Query(), ServerEntry.class)) {
+            entries.forEachRemaining(this::remember);
+        }
+        log.info("Loaded {} servers into the dictionary", ids.size());
+    }
+
+    @Override
+    public int idOf(String host) {
+        Integer id = ids.get(host);
+        return id != null ? id : register(host);
+    }
+
+    /**
+     * Read-only lookup: hosts another node registered since {@link #load} are read from
+     * {@code server_dictionary}, but nothing is inserted.
+     */
+    @Override
+    public Integer find(String host) {
+        Integer id = ids.get(host);
+        if (id == null) {
+            ServerEntry entry = mongoTemplate.findById(host, ServerEntry.class);
+            if (entry != null) {
+                remember(entry);
+                id = entry.getServerId();
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Hostname for an id, or null if the id was never allocated.
+     */
+    public String hostOf(int id) {
+        String host = hosts.get(id);
+        if (host == null) {
+            ServerEntry entry = mongoTemplate.findOne(byServerId(id), ServerEntry.class);
+            if (entry != null) {
+                remember(entry);
+                host = entry.getHost();
+            }
+        }
+        return host;
+    }
+
+    static Query byServerId(int id) {
+        return Query.query(Criteria.where("serverId").is(id));
+    }
+
+    private int register(String host) {
+        ServerEntry entry = mongoTemplate.findById(host, ServerEntry.class);
+        if (entry == null) {
+            try {
+                entry = mongoTemplate.insert(new ServerEntry(host, nextId()));
+            } catch (DuplicateKeyException e) {
+                entry = mongoTemplate.findById(host, ServerEntry.class);
+            }
+        }
+        remember(entry);
+        return entry.getServerId();
+    }
+
+    private int nextId() {
+        Document seq = mongoTemplate.findAndModify(
+                Query.query(Criteria.where("_id").is(SEQUENCE_ID)),
+                new Update().inc("value", 1),
+                FindAndModifyOptions.options().upsert(true).returnNew(true),
+                Document.class, SEQUENCES);
+        return ((Number) seq.get("value")).intValue() - 1;
+    }
+
+    private void remember(ServerEntry entry) {
+        ids.put(entry.getHost(), entry.getServerId());
+        hosts.put(entry.getServerId(), entry.getHost());
+    }
+}
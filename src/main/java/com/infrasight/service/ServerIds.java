@@ -0,0 +1,40 @@
+package com.infrasight.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Maps hostnames to the dense integer ids stored in user server bitmaps.
+ */
+public interface ServerIds {
+
+    /**
+     * The host's id, allocating one if the host has never been seen.
+     */
+    int idOf(String host);
+
+    /**
+     * The host's id, or null if none has been allocated yet. Never allocates.
+     */
+    Integer find(String host);
+
+    /**
+     * Process-local ids, for tests and benchmarks that run without Mongo.
+     */
+    static ServerIds inMemory() {
+        Map<String, Integer> ids = new ConcurrentHashMap<>();
+        AtomicInteger next = new AtomicInteger();
+        return new ServerIds() {
+            @Override
+            public int idOf(String host) {
+                return ids.computeIfAbsent(host, h -> next.getAndIncrement());
+            }
+
+            @Override
+            public Integer find(String host) {
+                return ids.get(host);
+            }
+        };
+    }
+}
@@ -0,0 +1,113 @@
+package com.infrasight.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Serializes work per user without a global lock.
+ * <p>
+ * Each userId hashes onto one of a fixed number of lock stripes, so awards for the same
+ * user run one at a time on the calling thread while other users proceed in parallel
+ * (two users sharing a stripe only wait for each other). A caller waits at most
+ * {@code gamify.lanes.wait}; past that it gets {@link BusyException} instead of piling
+ * up behind a hot user.
+ */
+@Component
+public class UserLanes {
+
+    private final ReentrantLock[] stripes;
+    private final long waitNanos;
+    private final Timer waitTimer;
+
+    @Autowired
+    public UserLanes(@Value("${gamify.lanes.stripes:256}") int stripes,
+                     @Value("${gamify.lanes.wait:PT2S}") Duration wait,
+                     ObjectProvider<MeterRegistry> meters) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+        this.waitNanos = wait.toNanos();
+
+        MeterRegistry registry = meters != null ? meters.getIfAvailable() : null;
+        if (registry != null) {
+            Gauge.builder("gamify.lanes.waiting", this, UserLanes::waiting).register(registry);
+            Gauge.builder("gamify.lanes.busiest", this, UserLanes::busiest).register(registry);
+            this.waitTimer = Timer.builder("gamify.lanes.wait").register(registry);
+        } else {
+            this.waitTimer = null;
+        }
+    }
+
+    /**
+     * Runs {@code work} while holding the user's lane.
+     *
+     * @throws BusyException if the lane could not be entered within the configured wait
+     */
+    public <T> T run(String userId, Supplier<T> work) {
+        ReentrantLock lock = stripes[index(userId)];
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = lock.tryLock(waitNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BusyException(userId);
+        }
+        if (waitTimer != null) {
+            waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        if (!acquired) {
+            throw new BusyException(userId);
+        }
+        try {
+            return work.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Threads currently queued on any lane.
+     */
+    public int waiting() {
+        int total = 0;
+        for (ReentrantLock lock : stripes) {
+            total += lock.getQueueLength();
+        }
+        return total;
+    }
+
+    /**
+     * Longest queue on a single lane; a high value with low {@link #waiting()} means a hot user.
+     */
+    public int busiest() {
+        int max = 0;
+        for (ReentrantLock lock : stripes) {
+            max = Math.max(max, lock.getQueueLength());
+        }
+        return max;
+    }
+
+    private int index(String userId) {
+        int h = userId.hashCode();
+        return (h ^ (h >>> 16)) & (stripes.length - 1);
+    }
+
+    public static class BusyException extends RuntimeException {
+        public BusyException(String userId) {
+            super("Too many concurrent awards for user " + userId);
+        }
+    }
+}
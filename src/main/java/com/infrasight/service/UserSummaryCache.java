@@ -0,0 +1,277 @@
+package com.infrasight.service;
+
+import com.infrasight.data.UserSummary;
+import com.infrasight.db.model.UserGamify;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded near cache of {@link UserSummary} by userId, in front of {@code user_gamify}.
+ * <p>
+ * Entries live in a fixed number of access-ordered stripes, each evicting its least
+ * recently used entry past its share of {@code gamify.user-cache.max-size}, and expire
+ * {@code ttl} after they were last written. Awards on this node write through. Writes
+ * from other nodes arrive on a change stream: the stream looks up the changed document
+ * (projected down to the summary fields) and refreshes the entry if this node holds it.
+ * The lookup always returns the latest state, so a late event cannot roll an entry
+ * back. The stream is reopened after errors, resuming where it stopped; if it cannot,
+ * the cache is cleared. Without change streams (standalone Mongo) other nodes' writes
+ * show up once the entry expires.
+ */
+@Slf4j
+@Component
+public class UserSummaryCache {
+
+    private static final int STRIPES = 16;
+    private static final String[] SUMMARY_FIELDS = {"userId", "name", "department", "totalPoints", "streakDays",
+            "lastActivity", "uniqueServerCount", "totalCommands", "prodCommands", "badges"};
+
+    private final MongoTemplate mongoTemplate;
+    private final boolean changeStream;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private volatile Thread watcher;
+
+    @Autowired
+    public UserSummaryCache(MongoTemplate mongoTemplate,
+                            @Value("${gamify.user-cache.max-size:100000}") int maxSize,
+                            @Value("${gamify.user-cache.ttl:PT30S}") Duration ttl,
+                            @Value("${gamify.user-cache.change-stream:true}") boolean changeStream,
+                            ObjectProvider<MeterRegistry> meters) {
+        this(mongoTemplate, maxSize, ttl, changeStream, System::nanoTime);
+        MeterRegistry registry = meters != null ? meters.getIfAvailable() : null;
+        if (registry != null) {
+            FunctionCounter.builder("gamify.user_cache.gets", hits, LongAdder::sum).tag("result", "hit").register(registry);
+            FunctionCounter.builder("gamify.user_cache.gets", misses, LongAdder::sum).tag("result", "miss").register(registry);
+            FunctionCounter.builder("gamify.user_cache.evictions", evictions, LongAdder::sum).register(registry);
+            Gauge.builder("gamify.user_cache.size", this, UserSummaryCache::size).register(registry);
+        }
+    }
+
+    UserSummaryCache(int maxSize, Duration ttl, LongSupplier clock) {
+        this(null, maxSize, ttl, false, clock);
+    }
+
+    private UserSummaryCache(MongoTemplate mongoTemplate, int maxSize, Duration ttl, boolean changeStream,
+                             LongSupplier clock) {
+        this.mongoTemplate = mongoTemplate;
+        this.changeStream = changeStream;
+        this.ttlNanos = ttl.toNanos();
+        this.clock = clock;
+        int perStripe = Math.max(1, maxSize / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(perStripe);
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        if (changeStream && mongoTemplate != null) {
+            // a gap may have missed writes to any cached user, so it drops them all
+            ChangeStreamLoop loop = new ChangeStreamLoop("user_gamify (user cache)",
+                    "cached summaries expire after " + Duration.ofNanos(ttlNanos).getSeconds() + "s",
+                    this::openChangeStream, this::apply, this::clear);
+            watcher = new Thread(() -> loop.run(null), "user-cache-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        Thread t = watcher;
+        if (t != null) {
+            t.interrupt();
+        }
+    }
+
+    /**
+     * The cached summary, or the loader's result, which is then cached. The loader runs
+     * outside any lock; two concurrent misses for one user both load. A placeholder marks
+     * the load in the meantime, and the result is only cached if the placeholder is still
+     * there, so a load that started before a write-through or a change-stream refresh
+     * cannot overwrite it with older state.
+     */
+    public UserSummary get(String userId, Function<String, UserSummary> loader) {
+        Stripe stripe = stripe(userId);
+        long now = clock.getAsLong();
+        Entry loading = new Entry(null, now);
+        synchronized (stripe) {
+            Entry entry = stripe.get(userId);
+            if (entry != null && entry.summary != null && now - entry.writtenAt < ttlNanos) {
+                hits.increment();
+                return entry.summary;
+            }
+            if (entry != null && entry.summary != null) {
+                evictions.increment();
+            }
+            stripe.put(userId, loading);
+        }
+        misses.increment();
+        UserSummary loaded;
+        try {
+            loaded = loader.apply(userId);
+        } catch (RuntimeException e) {
+            synchronized (stripe) {
+                stripe.remove(userId, loading);
+            }
+            throw e;
+        }
+        synchronized (stripe) {
+            if (stripe.get(userId) == loading) {
+                stripe.put(userId, new Entry(loaded, clock.getAsLong()));
+            }
+        }
+        return loaded;
+    }
+
+    public void put(UserSummary summary) {
+        Stripe stripe = stripe(summary.getUserId());
+        Entry entry = new Entry(summary, clock.getAsLong());
+        synchronized (stripe) {
+            stripe.put(summary.getUserId(), entry);
+        }
+    }
+
+    public void invalidate(String userId) {
+        Stripe stripe = stripe(userId);
+        synchronized (stripe) {
+            stripe.remove(userId);
+        }
+    }
+
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Replaces the entry for a user only if this node caches them.
+     */
+    void refresh(UserSummary summary) {
+        Stripe stripe = stripe(summary.getUserId());
+        synchronized (stripe) {
+            if (stripe.containsKey(summary.getUserId())) {
+                stripe.put(summary.getUserId(), new Entry(summary, clock.getAsLong()));
+            }
+        }
+    }
+
+    private MongoChangeStreamCursor<ChangeStreamDocument<Document>> openChangeStream(BsonDocument resumeAfter) {
+        String collection = mongoTemplate.getCollectionName(UserGamify.class);
+        String[] fields = Arrays.stream(SUMMARY_FIELDS).map(f -> "fullDocument." + f).toArray(String[]::new);
+        List<Bson> pipeline = List.of(
+                Aggregates.match(Filters.in("operationType", "insert", "update", "replace", "delete")),
+                Aggregates.project(Projections.fields(
+                        Projections.include("operationType", "documentKey", "ns"),
+                        Projections.include(fields),
+                        Projections.computed("fullDocument.legacyServers", new Document("$size",
+                                new Document("$ifNull", Arrays.asList("$fullDocument.uniqueServers", List.of())))))));
+        ChangeStreamIterable<Document> stream = mongoTemplate.getCollection(collection)
+                .watch(pipeline).fullDocument(FullDocument.UPDATE_LOOKUP);
+        return (resumeAfter != null ? stream.resumeAfter(resumeAfter) : stream).cursor();
+    }
+
+    private void apply(ChangeStreamDocument<Document> change) {
+        Document doc = change.getFullDocument();
+        if (doc == null || doc.getString("userId") == null) {
+            // deleted (or gone before the lookup); deletes are rare, so drop everything
+            clear();
+            return;
+        }
+        UserGamify user = mongoTemplate.getConverter().read(UserGamify.class, doc);
+        refresh(UserSummary.of(user, doc.getInteger("legacyServers", 0)));
+    }
+
+    private Stripe stripe(String userId) {
+        int h = userId.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    private static final class Entry {
+        private final UserSummary summary;
+        private final long writtenAt;
+
+        private Entry(UserSummary summary, long writtenAt) {
+            this.summary = summary;
+            this.writtenAt = writtenAt;
+        }
+    }
+
+    private final class Stripe extends LinkedHashMap<String, Entry> {
+        private final int capacity;
+
+        private Stripe(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -2,54 +2,134 @@
 @RequiredArgsConstructor
 public class NightlyGamifyJob {
 
-    private final RawEventRepository rawRepo;
+    private static final int CURSOR_BATCH = 1000;
+
+    private final MongoTemplate mongoTemplate;
+    private final JobCheckpointRepository checkpointRepo;
     private final GamifyConfigRepository cfgRepo;
     private final UserGamifyRepository userRepo;
     private final PointsLogRepository logRepo;
-    private final GamificationService calc;   // reuse your existing scoring helpers
+    private final GamificationService gamifySvc;
+    private final GamificationCalculator calc;   // pure scoring, no Mongo writes
 
     @Scheduled(cron = "0 5 0 * * *", zone = "UTC")  // every day 00:05 UTC
     public void run() {
         GamifyConfigDoc cfg = cfgRepo.findById("default").orElseThrow();
+        ScoringPlan plan = ScoringPlan.compile(cfg);
+        BadgeRuleSet badges = BadgeRuleSet.compile(cfg.getBadges());
 
-        // 1) pull all yesterday's events
         Instant midnightUtc = Instant.now().truncatedTo(ChronoUnit.DAYS);
-        List<RawEvent> events =
-            rawRepo.findByTsBetween(midnightUtc.minus(1, ChronoUnit.DAYS), midnightUtc);
-
-        // 2) bucket by userId
-        Map<String,List<RawEvent>> byUser =
-            events.stream().collect(Collectors.groupingBy(RawEvent::getUserId));
+        Instant from = midnightUtc.minus(1, ChronoUnit.DAYS);
+        LocalDate day = LocalDate.ofInstant(from, ZoneOffset.UTC);
 
-        for (String userId : byUser.keySet()) {
-            List<RawEvent> evList = byUser.get(userId);
+        // a restarted run for the same day picks up after the last user it finished
+        String checkpointId = "nightly-gamify:" + day;
+        JobCheckpoint checkpoint = checkpointRepo.findById(checkpointId).orElseGet(() -> {
+            JobCheckpoint fresh = new JobCheckpoint();
+            fresh.setId(checkpointId);
+            return fresh;
+        });
+        if (checkpoint.isCompleted()) {
+            return;
+        }
 
-            int deltaTotal = 0;
-            List<String> newBadges = new ArrayList<>();
+        // 1) stream yesterday's events by (userId, ts); backed by the {userId: 1, ts: 1} index
+        Criteria window = Criteria.where("ts").gte(from).lt(midnightUtc);
+        Query query = new Query(window).with(Sort.by("userId", "ts"));
+        if (checkpoint.getLastKey() != null) {
+            query.addCriteria(Criteria.where("userId").gt(checkpoint.getLastKey()));
+        }
+        query.cursorBatchSize(CURSOR_BATCH);
 
-            for (RawEvent ev : evList) {
-                PointsRequest req = toDto(ev);
-                PointsResponse pr = calc.computeDeltaOnly(req, userId, cfg); // pure math
-                deltaTotal += pr.getDelta();
-                newBadges.addAll(pr.getNewBadges());
+        // 2) hold one user's events at a time
+        String userId = null;
+        List<PointsRequest> requests = new ArrayList<>();
+        try (CloseableIterator<RawEvent> events = mongoTemplate.stream(query, RawEvent.class)) {
+            while (events.hasNext()) {
+                RawEvent ev = events.next();
+                if (!ev.getUserId().equals(userId)) {
+                    if (userId != null) {
+                        score(userId, requests, cfg, plan, badges, day, checkpoint);
+                    }
+                    userId = ev.getUserId();
+                    requests.clear();
+                }
+                requests.add(toDto(ev));
             }
+        }
+        if (userId != null) {
+            score(userId, requests, cfg, plan, badges, day, checkpoint);
+        }
 
-            // 3) persist cumulative delta to user_gamify
-            UserGamify user = userRepo.findById(userId).orElseGet(() -> calc.initUser(userId));
-            user.setTotalPoints(user.getTotalPoints() + deltaTotal);
-            user.setLastActivity(LocalDate.now());          // or keep max of events
-            userRepo.save(user);
+        // 5) delete the processed window server-side, then close the day
+        mongoTemplate.remove(new Query(window), RawEvent.class);
+        checkpoint.setCompleted(true);
+        checkpoint.setUpdatedAt(Instant.now());
+        checkpointRepo.save(checkpoint);
+    }
 
-            // 4) insert one summary log row
-            PointsLog log = new PointsLog(null, userId,
-                "batch.daily", "n/a", List.of(), deltaTotal,
-                user.getTotalPoints(), user.getStreakDays(),
-                LocalDateTime.now(), newBadges);
-            logRepo.save(log);
+    private void score(String userId, List<PointsRequest> requests, GamifyConfigDoc cfg, ScoringPlan plan,
+                       BadgeRuleSet badges, LocalDate day, JobCheckpoint checkpoint) {
+        // the summary row and the credit are each written at most once, the credit guarded
+        // by its marker; a rerun after a crash between them finds the marker missing and
+        // credits the day then
+        String marker = "nightly_" + day;
+        String actionUuid = marker + "_" + userId;
+        UserGamify user = gamifySvc.getUserGamify(userId);
+        if (user.getCreditedDays() == null || !user.getCreditedDays().contains(marker)) {
+            ScoreResult result = calc.scoreAll(plan, badges, user, requests, day);
+            try {
+                logRepo.append(PointsLog.builder()
+                    .userId(userId)
+                    .event("batch.daily")
+                    .pointsAwarded(result.getTotalDelta())
+                    .timestamp(day)
+                    .actionUuid(actionUuid)
+                    .streakDays(result.getStreakDays())
+                    .badgeBonus(result.getEvents().stream().mapToInt(ScoreResult.EventScore::getBadgeBonus).sum())
+                    .configVersion(cfg.getVersion())
+                    .department(user.getDepartment())
+                    .build());
+            } catch (DuplicateKeyException e) {
+                // logged by an interrupted or overlapping run; the marker decides the credit
+            }
+            if (credit(userId, marker, user, result, cfg.getBadges(), day)) {
+                checkpoint.setApplied(checkpoint.getApplied() + 1);
+            }
         }
 
-        // 5) archive or delete processed events
-        rawRepo.deleteAll(events);
+        checkpoint.setLastKey(userId);
+        checkpoint.setProcessed(checkpoint.getProcessed() + requests.size());
+        checkpoint.setUpdatedAt(Instant.now());
+        checkpointRepo.save(checkpoint);
+    }
+
+    /**
+     * Applies the scored day as increments, like a live award, so awards made meanwhile
+     * (which do not go through this job) are not overwritten. Badges and servers are
+     * idempotent on their own; the counters and points go last, in one update guarded by
+     * the day's marker.
+     *
+     * @return false if an earlier or overlapping run already credited the day
+     */
+    private boolean credit(String userId, String marker, UserGamify before, ScoreResult result,
+                           Map<String, BadgeDef> defs, LocalDate day) {
+        for (String code : result.getNewBadges()) {
+            // false: a live award granted it first and paid the bonus
+            userRepo.grantBadge(userId, code, defs.get(code).getBonus());
+        }
+        calc.resolveServers(result);   // allocates ids for hosts first seen today
+        byte[] expected = before.getServerBitmap();
+        ServerBitmap merged = result.getServers();
+        while (result.isServersChanged()
+                && !userRepo.replaceServers(userId, expected, merged.serialize(), merged.cardinality())) {
+            expected = userRepo.findServerBitmap(userId);
+            merged = ServerBitmap.deserialize(expected);
+            result.getAddedServers().forEach(merged::add);
+        }
+        int points = result.getEvents().stream().mapToInt(ScoreResult.EventScore::getPoints).sum();
+        return userRepo.creditDay(userId, marker, result.getTotalCommands() - before.getTotalCommands(),
+            result.getProdCommands() - before.getProdCommands(), points, result.getStreakDays(), day);
     }
 
     private PointsRequest toDto(RawEvent ev) {
@@ -2,36 +2,129 @@
 @RequiredArgsConstructor
 public class NightlyGamifyJob {
 
-    private final RequestModelRepository reqRepo;   // <-- use this
-    private final GamifyConfigRepository cfgRepo;
+    private static final int CURSOR_BATCH = 1000;
+
+    private final MongoTemplate          mongoTemplate;   // streams RequestModel by cursor
+    private final JobCheckpointRepository checkpointRepo;
     private final UserGamifyRepository   userRepo;
     private final PointsLogRepository    logRepo;
     private final GamificationCalculator calc;      // pure math helper
+    private final MongoConfigService     configService;
 
     @Scheduled(cron = "0 5 0 * * *", zone = "UTC")
     public void run() {
+        GamifyConfigSnapshot cfg = configService.getSnapshot();   // one config version for the whole run
         Instant midnightUtc = Instant.now().truncatedTo(ChronoUnit.DAYS);
+        Instant from = midnightUtc.minus(1, ChronoUnit.DAYS);
+        LocalDate day = LocalDate.ofInstant(from, ZoneOffset.UTC);
 
-        List<RequestModel> events =
-            reqRepo.findByFinishedTimestampBetween(
-                midnightUtc.minus(1, ChronoUnit.DAYS), midnightUtc);
+        // a restarted run for the same day picks up after the last user it finished
+        String checkpointId = "nightly-gamify:" + day;
+        JobCheckpoint checkpoint = checkpointRepo.findById(checkpointId).orElseGet(() -> {
+            JobCheckpoint fresh = new JobCheckpoint();
+            fresh.setId(checkpointId);
+            return fresh;
+        });
+        if (checkpoint.isCompleted()) {
+            return;
+        }
 
-        Map<String,List<RequestModel>> byUser =
-            events.stream().collect(Collectors.groupingBy(RequestModel::getUserId));
+        // streamed by (userId, finishedTimestamp); backed by the {userId: 1, finishedTimestamp: 1} index
+        Query query = new Query(Criteria.where("finishedTimestamp").gte(from).lt(midnightUtc))
+            .with(Sort.by("userId", "finishedTimestamp"));
+        if (checkpoint.getLastKey() != null) {
+            query.addCriteria(Criteria.where("userId").gt(checkpoint.getLastKey()));
+        }
+        query.cursorBatchSize(CURSOR_BATCH);
 
-        for (String userId : byUser.keySet()) {
-            int deltaTotal = 0;
-            List<String> newBadges = new ArrayList<>();
+        // only one user's requests are held at a time
+        String userId = null;
+        List<PointsRequest> requests = new ArrayList<>();
+        try (CloseableIterator<RequestModel> events = mongoTemplate.stream(query, RequestModel.class)) {
+            while (events.hasNext()) {
+                RequestModel rm = events.next();
+                if (!rm.getUserId().equals(userId)) {
+                    if (userId != null) {
+                        score(userId, requests, cfg, day, checkpoint);
+                    }
+                    userId = rm.getUserId();
+                    requests.clear();
+                }
+                requests.add(toPointsRequest(rm));
+            }
+        }
+        if (userId != null) {
+            score(userId, requests, cfg, day, checkpoint);
+        }
 
-            for (RequestModel rm : byUser.get(userId)) {
-                PointsRequest dto = toPointsRequest(rm);
-                PointsResponse pr = calc.computeDelta(dto); // returns delta+badges
-                deltaTotal += pr.getDelta();
-                newBadges.addAll(pr.getNewBadges());
+        checkpoint.setCompleted(true);
+        checkpoint.setUpdatedAt(Instant.now());
+        checkpointRepo.save(checkpoint);
+    }
+
+    private void score(String userId, List<PointsRequest> requests, GamifyConfigSnapshot cfg, LocalDate day,
+                       JobCheckpoint checkpoint) {
+        // the summary row and the credit are each written at most once, the credit guarded
+        // by its marker; a rerun after a crash between them finds the marker missing and
+        // credits the day then
+        String marker = "nightly_" + day;
+        String actionUuid = marker + "_" + userId;
+        UserGamify user = userRepo.findByUserId(userId).orElseGet(UserGamify::new);
+        user.setUserId(userId);
+        if (user.getCreditedDays() == null || !user.getCreditedDays().contains(marker)) {
+            ScoreResult result = calc.scoreAll(cfg.getScoringPlan(), cfg.getBadgeRules(), user, requests, day);
+            try {
+                logRepo.append(PointsLog.builder()
+                    .userId(userId)
+                    .event("batch.daily")
+                    .pointsAwarded(result.getTotalDelta())
+                    .timestamp(day)
+                    .actionUuid(actionUuid)
+                    .streakDays(result.getStreakDays())
+                    .badgeBonus(result.getEvents().stream().mapToInt(ScoreResult.EventScore::getBadgeBonus).sum())
+                    .configVersion(cfg.getVersion())
+                    .department(user.getDepartment())
+                    .build());
+            } catch (DuplicateKeyException e) {
+                // logged by an interrupted or overlapping run; the marker decides the credit
+            }
+            if (credit(userId, marker, user, result, cfg.getConfig().getBadges(), day)) {
+                checkpoint.setApplied(checkpoint.getApplied() + 1);
             }
+        }
 
-            // update user_gamify and write one PointsLog (same as before) …
+        checkpoint.setLastKey(userId);
+        checkpoint.setProcessed(checkpoint.getProcessed() + requests.size());
+        checkpoint.setUpdatedAt(Instant.now());
+        checkpointRepo.save(checkpoint);
+    }
+
+    /**
+     * Applies the scored day as increments, like a live award, so awards made meanwhile
+     * (which do not go through this job) are not overwritten. Badges and servers are
+     * idempotent on their own; the counters and points go last, in one update guarded by
+     * the day's marker.
+     *
+     * @return false if an earlier or overlapping run already credited the day
+     */
+    private boolean credit(String userId, String marker, UserGamify before, ScoreResult result,
+                           Map<String, BadgeDef> defs, LocalDate day) {
+        for (String code : result.getNewBadges()) {
+            // false: a live award granted it first and paid the bonus
+            userRepo.grantBadge(userId, code, defs.get(code).getBonus());
+        }
+        calc.resolveServers(result);   // allocates ids for hosts first seen today
+        byte[] expected = before.getServerBitmap();
+        ServerBitmap merged = result.getServers();
+        while (result.isServersChanged()
+                && !userRepo.replaceServers(userId, expected, merged.serialize(), merged.cardinality())) {
+            expected = userRepo.findServerBitmap(userId);
+            merged = ServerBitmap.deserialize(expected);
+            result.getAddedServers().forEach(merged::add);
         }
+        int points = result.getEvents().stream().mapToInt(ScoreResult.EventScore::getPoints).sum();
+        return userRepo.creditDay(userId, marker, result.getTotalCommands() - before.getTotalCommands(),
+            result.getProdCommands() - before.getProdCommands(), points, result.getStreakDays(), day);
     }
 
     private PointsRequest toPointsRequest(RequestModel rm) {
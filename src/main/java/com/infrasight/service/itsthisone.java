@@ -154,16 +154,8 @@ public UserMe getUserMe(String userId) {
     }
 
     private List<String> evaluateBadges(UserGamify user) {
-        GamifyConfigDoc cfg = configSvc.getConfig();
-        ExpressionParser parser = new SpelExpressionParser();
         List<String> newCodes = new ArrayList<>();
-        for (Map.Entry<String, GamifyConfigDoc.BadgeDef> e : cfg.getBadges().entrySet()) {
-            if (user.getBadges().contains(e.getKey())) continue;
-            Boolean ok = parser.parseExpression(e.getValue().getCondition()).getValue(user, Boolean.class);
-            if (Boolean.TRUE.equals(ok)) {
-                newCodes.add(e.getKey());
-            }
-        }
+        configSvc.getBadgeRules().evaluate(BadgeContext.of(user), user.getBadges(), newCodes);
         return newCodes;
     }
 
@@ -0,0 +1,56 @@
+package com.infrasight.data;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ServerBitmapTest {
+
+    @Test
+    void testAddContainsAndCardinality() {
+        ServerBitmap bitmap = new ServerBitmap();
+        assertTrue(bitmap.add(3));
+        assertTrue(bitmap.add(70_000));
+        assertFalse(bitmap.add(3));
+
+        assertTrue(bitmap.contains(3));
+        assertTrue(bitmap.contains(70_000));
+        assertFalse(bitmap.contains(4));
+        assertEquals(2, bitmap.cardinality());
+    }
+
+    @Test
+    void testRoundTripAcrossContainerTypes() {
+        Random random = new Random(42);
+        Set<Integer> expected = new HashSet<>();
+        ServerBitmap bitmap = new ServerBitmap();
+        // dense enough in the first key to convert the array container to a bitmap
+        for (int i = 0; i < 6000; i++) {
+            int id = random.nextInt(20_000);
+            assertEquals(expected.add(id), bitmap.add(id));
+        }
+        for (int i = 0; i < 100; i++) {
+            int id = 200_000 + random.nextInt(1_000_000);
+            assertEquals(expected.add(id), bitmap.add(id));
+        }
+
+        ServerBitmap copy = ServerBitmap.deserialize(bitmap.serialize());
+
+        assertEquals(expected.size(), copy.cardinality());
+        for (int id : expected) {
+            assertTrue(copy.contains(id), "missing " + id);
+        }
+        assertFalse(copy.contains(25_000));
+        assertTrue(copy.add(25_000));
+    }
+
+    @Test
+    void testEmptyInput() {
+        assertEquals(0, ServerBitmap.deserialize(null).cardinality());
+        assertEquals(0, ServerBitmap.deserialize(new ServerBitmap().serialize()).cardinality());
+    }
+}
@@ -0,0 +1,114 @@
+package com.infrasight.db.repository;
+
+import com.infrasight.db.model.DepartmentWeekPoints;
+import com.infrasight.db.model.PointsLog;
+import com.infrasight.db.model.UserDayPoints;
+import com.infrasight.db.model.UserWeekPoints;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class PointsRollupsTest {
+
+    // a Wednesday; its ISO week starts on the 11th
+    private static final LocalDate DAY = LocalDate.of(2024, 3, 13);
+
+    private MongoTemplate mongoTemplate;
+    private BulkOperations dayOps;
+    private BulkOperations weekOps;
+    private BulkOperations departmentOps;
+    private BulkWriteResult weekResult;
+    private PointsRollups rollups;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        dayOps = mock(BulkOperations.class);
+        weekOps = mock(BulkOperations.class);
+        departmentOps = mock(BulkOperations.class);
+        weekResult = mock(BulkWriteResult.class);
+        when(mongoTemplate.bulkOps(any(), eq(UserDayPoints.class))).thenReturn(dayOps);
+        when(mongoTemplate.bulkOps(any(), eq(UserWeekPoints.class))).thenReturn(weekOps);
+        when(mongoTemplate.bulkOps(any(), eq(DepartmentWeekPoints.class))).thenReturn(departmentOps);
+        when(weekOps.execute()).thenReturn(weekResult);
+        rollups = new PointsRollups(mongoTemplate);
+    }
+
+    @Test
+    void testWeekStartIsIsoMonday() {
+        assertEquals(LocalDate.of(2024, 3, 11), PointsRollups.weekStart(DAY));
+        assertEquals(LocalDate.of(2024, 3, 11), PointsRollups.weekStart(LocalDate.of(2024, 3, 11)));
+        assertEquals(LocalDate.of(2024, 3, 11), PointsRollups.weekStart(LocalDate.of(2024, 3, 17)));
+        assertTrue(PointsRollups.isWeek(LocalDate.of(2024, 3, 11), LocalDate.of(2024, 3, 18)));
+        assertFalse(PointsRollups.isWeek(DAY, DAY.plusDays(7)));
+    }
+
+    @Test
+    void testBatchIsFoldedIntoOneIncrementPerKey() {
+        when(weekResult.getUpserts()).thenReturn(List.of());
+
+        rollups.record(List.of(
+                entry("alice", DAY, 5),
+                entry("alice", DAY, 7),
+                entry("alice", DAY.plusDays(1), 2),
+                PointsLog.builder().userId("alice").event(PointsLog.COMPACTED_EVENT).pointsAwarded(100)
+                        .timestamp(DAY).department("ops").build()));
+
+        ArgumentCaptor<Update> days = ArgumentCaptor.forClass(Update.class);
+        verify(dayOps, times(2)).upsert(any(Query.class), days.capture());
+        assertEquals(12, increments(days.getAllValues().get(0)).get("points"));
+        assertEquals(2, increments(days.getAllValues().get(0)).get("events"));
+
+        ArgumentCaptor<Update> weeks = ArgumentCaptor.forClass(Update.class);
+        verify(weekOps).upsert(any(Query.class), weeks.capture());
+        assertEquals(14, increments(weeks.getValue()).get("points"));
+        assertEquals(3, increments(weeks.getValue()).get("events"));
+
+        ArgumentCaptor<Update> departments = ArgumentCaptor.forClass(Update.class);
+        verify(departmentOps).upsert(any(Query.class), departments.capture());
+        assertEquals(14L, increments(departments.getValue()).get("points"));
+        assertEquals(0, increments(departments.getValue()).get("users"));
+    }
+
+    @Test
+    void testFirstPointsOfTheWeekCountTheUserForTheirDepartment() {
+        when(weekResult.getUpserts()).thenReturn(List.of(new BulkWriteUpsert(1, new BsonString("bob"))));
+
+        rollups.record(List.of(entry("alice", DAY, 5), entry("bob", DAY, 3)));
+
+        ArgumentCaptor<Update> departments = ArgumentCaptor.forClass(Update.class);
+        verify(departmentOps).upsert(any(Query.class), departments.capture());
+        assertEquals(8L, increments(departments.getValue()).get("points"));
+        assertEquals(1, increments(departments.getValue()).get("users"));
+    }
+
+    private static Document increments(Update update) {
+        return update.getUpdateObject().get("$inc", Document.class);
+    }
+
+    private static PointsLog entry(String userId, LocalDate day, int points) {
+        return PointsLog.builder()
+                .userId(userId)
+                .event("cmd")
+                .pointsAwarded(points)
+                .timestamp(day)
+                .department("ops")
+                .build();
+    }
+}
@@ -0,0 +1,133 @@
+package com.infrasight.db.repository;
+
+import com.infrasight.configuration.IndexBootstrapper;
+import com.infrasight.data.WeeklyLeaderboardEntry;
+import com.infrasight.db.model.DepartmentWeekPoints;
+import com.infrasight.db.model.GamifyConfigDoc;
+import com.infrasight.db.model.PointsLog;
+import com.infrasight.db.model.PointsLogDay;
+import com.infrasight.db.model.RescoreDiff;
+import com.infrasight.db.model.UserDayPoints;
+import com.infrasight.db.model.UserGamify;
+import com.infrasight.db.model.UserWeekPoints;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Explains the queries the repository implementations build, in both log layouts,
+ * taken from the same factories they use, and fails on any collection scan. Derived
+ * finders are called as production calls them, with the profiler on, and their
+ * recorded plans are checked the same way. Name search issues no query; it is served
+ * from the in-memory rank index. Runs against the local Mongo from
+ * application.yml and is skipped when none is reachable.
+ *
+ * @see com.infrasight.service.JobQueryPlanTest
+ */
+@DataMongoTest(properties = "spring.data.mongodb.database=infraSight_queryplan")
+@Import(IndexBootstrapper.class)
+class QueryPlanTest {
+
+    private static final LocalDate FROM = LocalDate.of(2024, 1, 1);
+    private static final LocalDate TO = LocalDate.of(2024, 1, 8);
+    private static final WeeklyLeaderboardEntry AFTER = new WeeklyLeaderboardEntry("u1", null, null, 10, 0);
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private UserGamifyRepository userGamifyRepository;
+
+    @Autowired
+    private RescoreDiffRepository rescoreDiffRepository;
+
+    @Autowired
+    private GamifyConfigRepository gamifyConfigRepository;
+
+    @BeforeAll
+    static void requireMongo() {
+        QueryPlans.requireMongo();
+    }
+
+    @BeforeEach
+    void seed() {
+        QueryPlans.seed(mongoTemplate);
+    }
+
+    @Test
+    void testUserGamifyQueriesUseIndexes() {
+        assertNoCollScan(UserGamify.class, UserGamifyRepositoryCustomImpl.byUser("u1"));
+        assertNoCollScan(UserGamify.class, PointsRollups.userDepartments(List.of("u1", "u2")));
+    }
+
+    @Test
+    void testDerivedFindersUseIndexes() {
+        assertNoCollScan(UserGamify.class, () -> userGamifyRepository.findByUserId("u1"));
+        assertNoCollScan(UserGamify.class, () -> userGamifyRepository.findByUserIdIn(List.of("u1", "u2")));
+        assertNoCollScan(RescoreDiff.class, () -> rescoreDiffRepository.findByRunId("r1",
+                PageRequest.of(0, 500, Sort.by(Sort.Direction.DESC, "diff"))));
+        assertNoCollScan(GamifyConfigDoc.class, () -> gamifyConfigRepository.findVersionById("default"));
+    }
+
+    @Test
+    void testPointsLogQueriesUseIndexes() {
+        assertNoCollScan(PointsLog.class, PointsLogRepositoryCustomImpl.byAction(false, "a1"));
+        assertNoCollScan(PointsLog.class, PointsLogRepositoryCustomImpl.userStream(FROM, TO));
+        assertNoCollScan(PointsLog.class, PointsLogRepositoryCustomImpl.auditLog("u1", FROM, TO));
+        assertNoCollScan(PointsLog.class, PointsLogRepositoryCustomImpl.lastBefore("u1", TO, List.of("rescore")));
+        assertNoCollScan(PointsLog.class, PointsLogRepositoryCustomImpl.firstDay(false));
+        assertNoCollScan(PointsLog.class, PointsLogRepositoryCustomImpl.entriesOf(false, FROM));
+        assertNoCollScan(PointsLog.class, PointsLogRepositoryCustomImpl.dailyPoints(false, "u1", FROM, TO));
+        assertNoCollScan(PointsLog.class, PointsLogRepositoryCustomImpl.weeklyPage(false, FROM, TO, "ops", AFTER, 0, 20));
+    }
+
+    @Test
+    void testDailyBucketQueriesUseIndexes() {
+        PointsLog entry = PointsLog.builder().userId("u1").timestamp(FROM).actionUuid("a1").build();
+        assertNoCollScan(PointsLogDay.class, PointsLogRepositoryCustomImpl.byAction(true, "a1"));
+        assertNoCollScan(PointsLogDay.class, PointsLogRepositoryCustomImpl.bucketStream(FROM, TO));
+        assertNoCollScan(PointsLogDay.class, PointsLogRepositoryCustomImpl.bucketAuditLog("u1", FROM, TO));
+        assertNoCollScan(PointsLogDay.class, PointsLogRepositoryCustomImpl.bucketsBefore("u1", TO));
+        assertNoCollScan(PointsLogDay.class, PointsLogRepositoryCustomImpl.firstDay(true));
+        assertNoCollScan(PointsLogDay.class, PointsLogRepositoryCustomImpl.entriesOf(true, FROM));
+        assertNoCollScan(PointsLogDay.class, PointsLogRepositoryCustomImpl.openBucket(entry, 2000));
+        assertNoCollScan(PointsLogDay.class, PointsLogRepositoryCustomImpl.dailyPoints(true, "u1", FROM, TO));
+        assertNoCollScan(PointsLogDay.class, PointsLogRepositoryCustomImpl.weeklyPage(true, FROM, TO, null, null, 20, 20));
+    }
+
+    @Test
+    void testRollupQueriesUseIndexes() {
+        assertNoCollScan(UserDayPoints.class, PointsRollups.userDays("u1", FROM, TO));
+        assertNoCollScan(UserDayPoints.class, PointsRollups.daysBetween(FROM, TO));
+        assertNoCollScan(UserDayPoints.class, PointsRollups.rangePage(FROM, TO, "ops", AFTER, 0, 20));
+        assertNoCollScan(UserWeekPoints.class, PointsRollups.weekPage(FROM, null, null, 20, 20));
+        assertNoCollScan(UserWeekPoints.class, PointsRollups.weekPage(FROM, "ops", AFTER, 0, 20));
+        assertNoCollScan(UserWeekPoints.class, PointsRollups.weekUsers(FROM, "ops"));
+        assertNoCollScan(UserWeekPoints.class, PointsRollups.weeksBetween(FROM, TO));
+        assertNoCollScan(DepartmentWeekPoints.class, PointsRollups.departmentsInWeek(FROM));
+        assertNoCollScan(DepartmentWeekPoints.class, PointsRollups.weeksBetween(FROM, TO));
+    }
+
+    private void assertNoCollScan(Class<?> entity, Query query) {
+        QueryPlans.assertNoCollScan(mongoTemplate, entity, query);
+    }
+
+    private void assertNoCollScan(Class<?> entity, Aggregation aggregation) {
+        QueryPlans.assertNoCollScan(mongoTemplate, entity, aggregation);
+    }
+
+    private void assertNoCollScan(Class<?> entity, Runnable call) {
+        QueryPlans.assertNoCollScan(mongoTemplate, entity, call);
+    }
+}
@@ -0,0 +1,162 @@
+package com.infrasight.db.repository;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.TypeBasedAggregationOperationContext;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Explains queries the way {@link MongoTemplate} would send them, mapped through its
+ * converter, for the query plan tests; derived finders are profiled instead.
+ */
+public final class QueryPlans {
+
+    private static final List<String> COLLECTIONS = List.of("user_gamify", "points_log", "points_log_daily",
+            "points_user_day", "points_user_week", "points_department_week", "server_dictionary", "rescore_diff",
+            "gamify_config");
+
+    private QueryPlans() {
+    }
+
+    /**
+     * Skips the calling tests when there is no Mongo on localhost:27017.
+     */
+    public static void requireMongo() {
+        MongoClientSettings settings = MongoClientSettings.builder()
+                .applyToClusterSettings(c -> c.hosts(Collections.singletonList(new ServerAddress("localhost", 27017)))
+                        .serverSelectionTimeout(2, TimeUnit.SECONDS))
+                .build();
+        try (MongoClient client = MongoClients.create(settings)) {
+            client.getDatabase("admin").runCommand(new Document("ping", 1));
+        } catch (RuntimeException e) {
+            assumeTrue(false, "No MongoDB on localhost:27017");
+        }
+    }
+
+    /**
+     * Puts a document in every collection; the planner reports EOF for collections that
+     * do not exist yet.
+     */
+    public static void seed(MongoTemplate mongoTemplate) {
+        for (String collection : COLLECTIONS) {
+            if (mongoTemplate.getCollection(collection).countDocuments() == 0) {
+                mongoTemplate.getCollection(collection).insertOne(new Document("seed", true));
+            }
+        }
+    }
+
+    public static void assertNoCollScan(MongoTemplate mongoTemplate, Class<?> entity, Query query) {
+        MongoConverter converter = mongoTemplate.getConverter();
+        QueryMapper mapper = new QueryMapper(converter);
+        MongoPersistentEntity<?> type = converter.getMappingContext().getPersistentEntity(entity);
+        Document filter = mapper.getMappedObject(query.getQueryObject(), type);
+        Document sort = mapper.getMappedSort(query.getSortObject(), type);
+
+        FindIterable<Document> find = collection(mongoTemplate, entity).find(filter);
+        if (!sort.isEmpty()) {
+            find.sort(sort);
+        }
+        if (query.getHint() != null) {
+            find.hintString(query.getHint());
+        }
+        assertNoCollScan(entity, filter.toJson(), find.explain());
+    }
+
+    public static void assertNoCollScan(MongoTemplate mongoTemplate, Class<?> entity, Aggregation aggregation) {
+        MongoConverter converter = mongoTemplate.getConverter();
+        List<Document> pipeline = aggregation.toPipeline(new TypeBasedAggregationOperationContext(entity,
+                converter.getMappingContext(), new QueryMapper(converter)));
+        assertNoCollScan(entity, pipeline.get(0).toJson(),
+                collection(mongoTemplate, entity).aggregate(pipeline).explain());
+    }
+
+    /**
+     * Runs {@code call} with the database profiler on and fails if any query it sent to
+     * the entity's collection was planned as a collection scan. For derived finders,
+     * whose queries Spring Data builds at runtime, so there is no factory to explain.
+     */
+    public static void assertNoCollScan(MongoTemplate mongoTemplate, Class<?> entity, Runnable call) {
+        MongoDatabase db = mongoTemplate.getDb();
+        String ns = db.getName() + "." + mongoTemplate.getCollectionName(entity);
+        db.runCommand(new Document("profile", 0));
+        db.getCollection("system.profile").drop();
+        db.runCommand(new Document("profile", 2));
+        try {
+            call.run();
+        } finally {
+            db.runCommand(new Document("profile", 0));
+        }
+        List<Document> ops = db.getCollection("system.profile").find(new Document("ns", ns)).into(new ArrayList<>());
+        assertFalse(ops.isEmpty(), () -> "no queries on " + ns + " were profiled");
+        for (Document op : ops) {
+            String plan = op.getString("planSummary");
+            assertFalse(plan != null && plan.contains("COLLSCAN"),
+                    () -> entity.getSimpleName() + " " + op.get("command") + " scans the collection: " + plan);
+        }
+    }
+
+    private static MongoCollection<Document> collection(MongoTemplate mongoTemplate, Class<?> entity) {
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(entity));
+    }
+
+    private static void assertNoCollScan(Class<?> entity, String query, Document plan) {
+        List<String> stages = new ArrayList<>();
+        collectWinningStages(plan, stages);
+        assertFalse(stages.contains("COLLSCAN"),
+                () -> entity.getSimpleName() + " " + query + " scans the collection: " + stages);
+    }
+
+    // finds report the plan under queryPlanner, aggregations under their first stage;
+    // rejected plans are left out
+    private static void collectWinningStages(Object node, List<String> stages) {
+        if (node instanceof Document) {
+            Document doc = (Document) node;
+            if (doc.containsKey("winningPlan")) {
+                collectStages(doc.get("winningPlan"), stages);
+                return;
+            }
+            for (Object value : doc.values()) {
+                collectWinningStages(value, stages);
+            }
+        } else if (node instanceof List) {
+            for (Object item : (List<?>) node) {
+                collectWinningStages(item, stages);
+            }
+        }
+    }
+
+    private static void collectStages(Object node, List<String> stages) {
+        if (node instanceof Document) {
+            Document doc = (Document) node;
+            if (doc.get("stage") instanceof String) {
+                stages.add(doc.getString("stage"));
+            }
+            for (Object value : doc.values()) {
+                collectStages(value, stages);
+            }
+        } else if (node instanceof List) {
+            for (Object item : (List<?>) node) {
+                collectStages(item, stages);
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.infrasight.service;
+
+import com.infrasight.data.BadgeProgress;
+import com.infrasight.db.model.GamifyConfigDoc.BadgeDef;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BadgeRuleSetTest {
+
+    private BadgeRuleSet rules;
+    private BadgeContext ctx;
+
+    @BeforeEach
+    void setUp() {
+        Map<String, BadgeDef> badges = new HashMap<>();
+        badges.put("hundred_commands", badge("Centurion", "totalCommands >= 100", 50));
+        badges.put("thousand_commands", badge("Veteran", "totalCommands > 999", 200));
+        badges.put("prod_explorer", badge("Prod Explorer", "prodCommands >= 10 and uniqueServers >= 5", 75));
+        rules = BadgeRuleSet.compile(badges);
+        ctx = new BadgeContext();
+    }
+
+    @Test
+    void testThresholdBadgesFireWhenCounterCrossesThreshold() {
+        BadgeRuleSet.Cursor cursor = rules.cursor(Collections.emptyList());
+        List<String> earned = new ArrayList<>();
+
+        ctx.setTotalCommands(99);
+        assertEquals(0, cursor.evaluate(ctx, BadgeRuleSet.TOTAL_COMMANDS, earned));
+
+        ctx.setTotalCommands(1000);
+        assertEquals(250, cursor.evaluate(ctx, BadgeRuleSet.TOTAL_COMMANDS, earned));
+        assertTrue(earned.containsAll(List.of("hundred_commands", "thousand_commands")));
+
+        // already earned, nothing fires again
+        earned.clear();
+        ctx.setTotalCommands(5000);
+        assertEquals(0, cursor.evaluate(ctx, BadgeRuleSet.TOTAL_COMMANDS, earned));
+        assertTrue(earned.isEmpty());
+    }
+
+    @Test
+    void testExpressionBadgeSkippedWhenDependenciesUnchanged() {
+        ctx.setProdCommands(10);
+        ctx.setUniqueServers(5);
+        List<String> earned = new ArrayList<>();
+
+        BadgeRuleSet.Cursor cursor = rules.cursor(Collections.emptyList());
+        cursor.evaluate(ctx, BadgeRuleSet.STREAK_DAYS, earned);
+        assertTrue(earned.isEmpty());
+
+        cursor.evaluate(ctx, BadgeRuleSet.PROD_COMMANDS, earned);
+        assertEquals(List.of("prod_explorer"), earned);
+    }
+
+    @Test
+    void testProgressFromIndex() {
+        ctx.setTotalCommands(40);
+
+        List<BadgeProgress> progress = rules.progress(ctx, List.of("thousand_commands"));
+
+        assertEquals(1, progress.size());
+        assertEquals("hundred_commands", progress.get(0).getCode());
+        assertEquals(100, progress.get(0).getThreshold());
+        assertEquals(60, progress.get(0).getRemaining());
+    }
+
+    private BadgeDef badge(String name, String condition, int bonus) {
+        BadgeDef def = new BadgeDef();
+        def.setName(name);
+        def.setCondition(condition);
+        def.setBonus(bonus);
+        return def;
+    }
+}
@@ -0,0 +1,111 @@
+package com.infrasight.service;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ChangeStreamLoopTest {
+
+    private final List<BsonDocument> opens = new ArrayList<>();
+    private final AtomicInteger handled = new AtomicInteger();
+    private final AtomicInteger gaps = new AtomicInteger();
+
+    @AfterEach
+    void clearInterrupt() {
+        Thread.interrupted();
+    }
+
+    @Test
+    void testReopensAfterErrorResumingAfterLastEvent() {
+        Iterator<MongoChangeStreamCursor<ChangeStreamDocument<Document>>> cursors = Arrays.asList(
+                cursor("t1", new MongoException(6, "host unreachable")),
+                cursor("t2", null)).iterator();
+
+        loop(token -> cursors.next(), 2).run(null);
+
+        assertEquals(Arrays.asList(null, token("t1")), opens);
+        // only the very first stream started without a token
+        assertEquals(1, gaps.get());
+    }
+
+    @Test
+    void testReloadsWhenStreamCannotResume() {
+        Iterator<MongoChangeStreamCursor<ChangeStreamDocument<Document>>> cursors = Arrays.asList(
+                cursor("t1", new MongoException(6, "host unreachable")),
+                cursor("t2", null)).iterator();
+
+        loop(token -> {
+            if (token != null) {
+                throw new MongoException(286, "resume point no longer in the oplog");
+            }
+            return cursors.next();
+        }, 2).run(null);
+
+        assertEquals(Arrays.asList(null, token("t1"), null), opens);
+        assertEquals(2, handled.get());
+        assertEquals(2, gaps.get());
+    }
+
+    @Test
+    void testStopsWhenChangeStreamsAreUnsupported() {
+        ChangeStreamLoop loop = loop(token -> {
+            throw new MongoException(40573, "The $changeStream stage is only supported on replica sets");
+        }, 1);
+
+        assertNull(loop.open());
+        assertTrue(loop.isUnsupported());
+        loop.run(null);
+
+        assertEquals(1, opens.size());
+        assertEquals(0, gaps.get());
+    }
+
+    /**
+     * A loop that stops, by interrupting the thread, once {@code events} changes are handled.
+     */
+    private ChangeStreamLoop loop(Function<BsonDocument, MongoChangeStreamCursor<ChangeStreamDocument<Document>>> open,
+                                  int events) {
+        return new ChangeStreamLoop("test", "nothing", token -> {
+            opens.add(token);
+            return open.apply(token);
+        }, change -> {
+            if (handled.incrementAndGet() == events) {
+                Thread.currentThread().interrupt();
+            }
+        }, gaps::incrementAndGet, 1);
+    }
+
+    /**
+     * A cursor returning one event with the given resume token, then failing with {@code then}.
+     */
+    @SuppressWarnings("unchecked")
+    private static MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor(String token, RuntimeException then) {
+        MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = mock(MongoChangeStreamCursor.class);
+        if (then != null) {
+            when(cursor.hasNext()).thenReturn(true).thenThrow(then);
+        } else {
+            when(cursor.hasNext()).thenReturn(true);
+        }
+        when(cursor.getResumeToken()).thenReturn(null, token(token));
+        return cursor;
+    }
+
+    private static BsonDocument token(String value) {
+        return new BsonDocument("_data", new BsonString(value));
+    }
+}
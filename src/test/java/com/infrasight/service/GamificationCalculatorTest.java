@@ -0,0 +1,141 @@
+package com.infrasight.service;
+
+import com.infrasight.data.PointsRequest;
+import com.infrasight.data.ScoreResult;
+import com.infrasight.data.ServerBitmap;
+import com.infrasight.db.model.GamifyConfigDoc;
+import com.infrasight.db.model.UserGamify;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GamificationCalculatorTest {
+
+    private final ServerIds serverIds = ServerIds.inMemory();
+    private final GamificationCalculator calculator = new GamificationCalculator(serverIds);
+    private final LocalDate today = LocalDate.of(2024, 3, 15);
+
+    private ScoringPlan plan;
+    private BadgeRuleSet badges;
+    private UserGamify user;
+
+    @BeforeEach
+    void setUp() {
+        GamifyConfigDoc config = new GamifyConfigDoc();
+        config.setBaseScore(10);
+        config.setLoginPoints(5);
+        config.setWelcomeBackBonus(20);
+        config.setWelcomeBackGap(7);
+
+        GamifyConfigDoc.BadgeDef threeCommands = new GamifyConfigDoc.BadgeDef();
+        threeCommands.setName("Hat Trick");
+        threeCommands.setCondition("totalCommands >= 3");
+        threeCommands.setBonus(50);
+        Map<String, GamifyConfigDoc.BadgeDef> badgeDefs = new HashMap<>();
+        badgeDefs.put("hat_trick", threeCommands);
+        config.setBadges(badgeDefs);
+
+        plan = ScoringPlan.compile(config);
+        badges = BadgeRuleSet.compile(config.getBadges());
+
+        user = new UserGamify();
+        user.setUserId("test-user");
+        user.setTotalPoints(100);
+        user.setStreakDays(4);
+        user.setLastActivity(today.minusDays(1));
+        ServerBitmap servers = new ServerBitmap();
+        servers.add(serverIds.idOf("server1"));
+        user.setServerBitmap(servers.serialize());
+        user.setUniqueServerCount(1);
+    }
+
+    @Test
+    void testScoresDayInOrderWithoutTouchingSnapshot() {
+        List<PointsRequest> events = Arrays.asList(
+                login("l1"), command("c1", "server1"), command("c2", "server2"), command("c3", "server3"));
+
+        ScoreResult result = calculator.scoreAll(plan, badges, user, events, today);
+
+        assertEquals(4, result.getEvents().size());
+        assertEquals(5, result.getEvents().get(0).getPoints());
+        assertEquals(5, result.getStreakDays());
+        assertEquals(3, result.getTotalCommands());
+        assertTrue(result.getAddedServers().isEmpty());
+        assertEquals(2, result.getNewHosts().size());
+        assertEquals(Collections.singletonList("hat_trick"), result.getNewBadges());
+        assertEquals(50, result.getEvents().get(3).getBadgeBonus());
+        assertEquals(100 + result.getTotalDelta(), result.getTotalPoints());
+
+        // snapshot is left untouched
+        assertEquals(100, user.getTotalPoints());
+        assertEquals(0, user.getTotalCommands());
+        assertEquals(1, user.getUniqueServerCount());
+        assertTrue(user.getBadges().isEmpty());
+    }
+
+    @Test
+    void testScoringAllocatesNoServerIds() {
+        serverIds.idOf("server2");
+        List<PointsRequest> events = Arrays.asList(command("c1", "server2"), command("c2", "server3"));
+
+        ScoreResult result = calculator.scoreAll(plan, badges, user, events, today);
+
+        assertNull(serverIds.find("server3"));
+        assertEquals(Collections.singleton(serverIds.find("server2")), result.getAddedServers());
+        assertEquals(Collections.singleton("server3"), result.getNewHosts());
+        assertEquals(Collections.singletonList(null), result.getEvents().get(1).getServerIds());
+
+        calculator.resolveServers(result);
+
+        int server3 = serverIds.find("server3");
+        assertTrue(result.getNewHosts().isEmpty());
+        assertTrue(result.getAddedServers().contains(server3));
+        assertEquals(3, result.getServers().cardinality());
+        assertEquals(Collections.singletonList(server3), result.getEvents().get(1).getServerIds());
+    }
+
+    @Test
+    void testDuplicateActionUuidInBatchIsScoredOnce() {
+        List<PointsRequest> events = Arrays.asList(command("c1", "server1"), command("c1", "server1"));
+
+        ScoreResult result = calculator.scoreAll(plan, badges, user, events, today);
+
+        assertEquals(1, result.getEvents().size());
+        assertEquals(1, result.getTotalCommands());
+    }
+
+    @Test
+    void testLoginAfterGapResetsStreakAndAddsWelcomeBack() {
+        user.setLastActivity(today.minusDays(8));
+
+        ScoreResult result = calculator.scoreAll(plan, badges, user, Collections.singletonList(login("l1")), today);
+
+        assertEquals(25, result.getTotalDelta());
+        assertEquals(1, result.getStreakDays());
+        assertEquals(today, result.getLastActivity());
+    }
+
+    private PointsRequest login(String uuid) {
+        PointsRequest request = new PointsRequest();
+        request.setEvent(GamificationCalculator.LOGIN_EVENT);
+        request.setActionUuid(uuid);
+        return request;
+    }
+
+    private PointsRequest command(String uuid, String server) {
+        PointsRequest request = new PointsRequest();
+        request.setEvent("cmd.default");
+        request.setEnvironment("dev");
+        request.setServers(Collections.singletonList(server));
+        request.setActionUuid(uuid);
+        return request;
+    }
+}
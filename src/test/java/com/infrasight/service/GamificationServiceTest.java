@@ -3,16 +3,20 @@ package com.infrasight.service;
 import com.infrasight.db.model.GamifyConfigDoc;
 import com.infrasight.service.MongoConfigService;
 import com.infrasight.data.PointsRequest;
+import com.infrasight.db.model.PointsLog;
 import com.infrasight.db.model.UserGamify;
 import com.infrasight.db.repository.PointsLogRepository;
 import com.infrasight.db.repository.UserGamifyRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DuplicateKeyException;
 
+import java.time.Duration;
 import java.time.LocalDate;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -21,7 +25,10 @@ import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -35,8 +42,10 @@ class GamificationServiceTest {
     
     @Mock
     private PointsLogRepository pointsLogRepository;
+
+    @Spy
+    private GamificationCalculator calculator = new GamificationCalculator();
     
-    @InjectMocks
     private GamificationService gamificationService;
 
     private UserGamify testUser;
@@ -44,6 +53,14 @@ class GamificationServiceTest {
 
     @BeforeEach
     void setUp() {
+        RankIndex ranks = new RankIndex();
+        gamificationService = new GamificationService(configService, userGamifyRepository, pointsLogRepository,
+                calculator, new PointsLogAppender(pointsLogRepository, null),
+                new RecentActionFilter(1000, 0.01, Duration.ofMinutes(10), System::nanoTime),
+                new UserLanes(16, Duration.ofSeconds(1), null),
+                new UserSummaryCache(1000, Duration.ofSeconds(30), System::nanoTime), ranks,
+                new LiveUpdates(ranks, 64, 10, Runnable::run, System::nanoTime));
+
         testUser = new UserGamify();
         testUser.setUserId("test-user");
         testUser.setTotalPoints(0);
@@ -84,35 +101,48 @@ class GamificationServiceTest {
         streakMultiplier.put(7, 1.2);
         config.setStreakMultiplier(streakMultiplier);
 
-        when(configService.getConfig()).thenReturn(config);
+        lenient().when(configService.getSnapshot()).thenReturn(GamifyConfigSnapshot.of(config));
+        lenient().when(userGamifyRepository.replaceServers(anyString(), any(), any(), anyInt())).thenReturn(true);
     }
 
     @Test
     void testLoginWithoutGap() {
         testUser.setLastActivity(LocalDate.now().minusDays(1));
         
-        when(userGamifyRepository.findByUserId("test-user")).thenReturn(Optional.of(testUser));
-        when(userGamifyRepository.save(any(UserGamify.class))).thenReturn(testUser);
-        when(pointsLogRepository.save(any())).thenReturn(null);
+        when(userGamifyRepository.recordActivity(eq("test-user"), anyInt(), anyInt(), any()))
+                .thenReturn(testUser);
         
         UserGamify result = gamificationService.awardLoginPoints("test-user");
         
         assertEquals(5, result.getTotalPoints());
-        verify(pointsLogRepository).save(any());
+        verify(userGamifyRepository).creditPoints("test-user", 5, 1);
+        verify(pointsLogRepository).append(any());
     }
 
     @Test
     void testLoginAfter8Days() {
         testUser.setLastActivity(LocalDate.now().minusDays(8));
         
-        when(userGamifyRepository.findByUserId("test-user")).thenReturn(Optional.of(testUser));
-        when(userGamifyRepository.save(any(UserGamify.class))).thenReturn(testUser);
-        when(pointsLogRepository.save(any())).thenReturn(null);
+        when(userGamifyRepository.recordActivity(eq("test-user"), anyInt(), anyInt(), any()))
+                .thenReturn(testUser);
         
         UserGamify result = gamificationService.awardLoginPoints("test-user");
         
         assertEquals(25, result.getTotalPoints()); // 5 + 20 welcome back bonus
-        verify(pointsLogRepository).save(any());
+        verify(pointsLogRepository).append(any());
+    }
+
+    @Test
+    void testAwardWritesThroughToSummaryCache() {
+        testUser.setLastActivity(LocalDate.now().minusDays(1));
+
+        when(userGamifyRepository.recordActivity(eq("test-user"), anyInt(), anyInt(), any()))
+                .thenReturn(testUser);
+
+        gamificationService.awardLoginPoints("test-user");
+
+        assertEquals(5, gamificationService.getUserSummary("test-user").getTotalPoints());
+        verify(userGamifyRepository, never()).findByUserId(anyString());
     }
 
     @Test
@@ -126,10 +156,9 @@ class GamificationServiceTest {
         
         testUser.setStreakDays(3);
         
-        when(userGamifyRepository.findByUserId("test-user")).thenReturn(Optional.of(testUser));
-        when(userGamifyRepository.save(any(UserGamify.class))).thenReturn(testUser);
+        when(userGamifyRepository.recordActivity(eq("test-user"), anyInt(), anyInt(), any()))
+                .thenReturn(testUser);
         when(pointsLogRepository.existsByActionUuid(anyString())).thenReturn(false);
-        when(pointsLogRepository.save(any())).thenReturn(null);
         
         UserGamify result = gamificationService.awardCommandPoints(request, "test-user");
         
@@ -138,21 +167,90 @@ class GamificationServiceTest {
         assertTrue(result.getTotalPoints() > 40);
         assertEquals(1, result.getTotalCommands());
         assertEquals(1, result.getProdCommands());
-        verify(pointsLogRepository).save(any());
+        verify(userGamifyRepository).recordActivity("test-user", 1, 1, LocalDate.now());
+        verify(userGamifyRepository).replaceServers(eq("test-user"), isNull(), any(), eq(2));
+        verify(pointsLogRepository).append(any());
     }
 
     @Test
     void testIdempotency() {
         PointsRequest request = new PointsRequest();
         request.setActionUuid("duplicate-uuid");
-        
+
+        when(userGamifyRepository.recordActivity(eq("test-user"), anyInt(), anyInt(), any()))
+                .thenReturn(testUser);
+        gamificationService.awardCommandPoints(request, "test-user");
+
+        // the retry hits the recent-action filter and is confirmed against the log
         when(pointsLogRepository.existsByActionUuid("duplicate-uuid")).thenReturn(true);
-        when(userGamifyRepository.findByUserId("test-user")).thenReturn(Optional.of(testUser));
-        
+        when(userGamifyRepository.findByUserId("test-user")).thenReturn(Optional.of(new UserGamify()));
+
         UserGamify result = gamificationService.awardCommandPoints(request, "test-user");
-        
+
         assertEquals(0, result.getTotalPoints());
-        verify(pointsLogRepository, never()).save(any());
+        verify(pointsLogRepository, times(1)).append(any());
         verify(userGamifyRepository, never()).save(any());
+        verify(userGamifyRepository, times(1)).recordActivity(any(), anyInt(), anyInt(), any());
+    }
+
+    @Test
+    void testFreshActionSkipsLogLookup() {
+        PointsRequest request = new PointsRequest();
+        request.setEnvironment("dev");
+        request.setActionUuid("fresh-uuid");
+
+        when(userGamifyRepository.recordActivity(eq("test-user"), anyInt(), anyInt(), any()))
+                .thenReturn(testUser);
+
+        gamificationService.awardCommandPoints(request, "test-user");
+
+        verify(pointsLogRepository, never()).existsByActionUuid(anyString());
+    }
+
+    @Test
+    void testDuplicateFoundOnWriteIsUndone() {
+        PointsRequest request = new PointsRequest();
+        request.setEnvironment("prod");
+        request.setActionUuid("seen-elsewhere");
+
+        when(userGamifyRepository.recordActivity(eq("test-user"), anyInt(), anyInt(), any()))
+                .thenReturn(testUser);
+        doThrow(new DuplicateKeyException("E11000")).when(pointsLogRepository).append(any());
+
+        UserGamify result = gamificationService.awardCommandPoints(request, "test-user");
+
+        assertEquals(0, result.getTotalCommands());
+        verify(userGamifyRepository).recordActivity("test-user", -1, -1, null);
+        verify(userGamifyRepository).creditPoints("test-user", -12, null);
+    }
+
+    @Test
+    void testBadgeGrantedConcurrentlyIsNotPaidTwice() {
+        GamifyConfigDoc.BadgeDef first = new GamifyConfigDoc.BadgeDef();
+        first.setName("First Command");
+        first.setCondition("totalCommands >= 1");
+        first.setBonus(50);
+        Map<String, GamifyConfigDoc.BadgeDef> badges = new HashMap<>();
+        badges.put("first_command", first);
+        config.setBadges(badges);
+        when(configService.getSnapshot()).thenReturn(GamifyConfigSnapshot.of(config));
+
+        PointsRequest request = new PointsRequest();
+        request.setEvent("cmd");
+        request.setEnvironment("dev");
+        request.setActionUuid("race-uuid");
+
+        when(pointsLogRepository.existsByActionUuid("race-uuid")).thenReturn(false);
+        when(userGamifyRepository.recordActivity(eq("test-user"), anyInt(), anyInt(), any()))
+                .thenReturn(testUser);
+        when(userGamifyRepository.grantBadge("test-user", "first_command", 50)).thenReturn(false);
+
+        UserGamify result = gamificationService.awardCommandPoints(request, "test-user");
+
+        ArgumentCaptor<PointsLog> logged = ArgumentCaptor.forClass(PointsLog.class);
+        verify(pointsLogRepository).append(logged.capture());
+        assertEquals(0, logged.getValue().getBadgeBonus());
+        assertEquals(8, result.getTotalPoints());
+        assertFalse(result.getBadges().contains("first_command"));
     }
 }
@@ -0,0 +1,59 @@
+package com.infrasight.service;
+
+import com.infrasight.configuration.IndexBootstrapper;
+import com.infrasight.db.model.RescoreDiff;
+import com.infrasight.db.model.ServerEntry;
+import com.infrasight.db.model.UserGamify;
+import com.infrasight.db.repository.QueryPlans;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.List;
+
+/**
+ * The service-side counterpart of {@code QueryPlanTest}: explains the queries the
+ * backfill and rescoring jobs and the server dictionary build, including the scans
+ * that resume from a checkpoint, and fails on any collection scan.
+ */
+@DataMongoTest(properties = "spring.data.mongodb.database=infraSight_queryplan")
+@Import(IndexBootstrapper.class)
+class JobQueryPlanTest {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @BeforeAll
+    static void requireMongo() {
+        QueryPlans.requireMongo();
+    }
+
+    @BeforeEach
+    void seed() {
+        QueryPlans.seed(mongoTemplate);
+    }
+
+    @Test
+    void testBadgeBackfillQueriesUseIndexes() {
+        QueryPlans.assertNoCollScan(mongoTemplate, UserGamify.class, BadgeBackfillService.usersAfter(null));
+        QueryPlans.assertNoCollScan(mongoTemplate, UserGamify.class, BadgeBackfillService.usersAfter("u1"));
+        QueryPlans.assertNoCollScan(mongoTemplate, UserGamify.class,
+                BadgeBackfillService.backfilledAmong(List.of("u1", "u2")));
+    }
+
+    @Test
+    void testRescoringQueriesUseIndexes() {
+        QueryPlans.assertNoCollScan(mongoTemplate, RescoreDiff.class, RescoringService.pendingDiffs("r1"));
+        QueryPlans.assertNoCollScan(mongoTemplate, UserGamify.class,
+                RescoringService.creditedAmong(List.of("u1", "u2"), "r1"));
+    }
+
+    @Test
+    void testServerDictionaryQueriesUseIndexes() {
+        QueryPlans.assertNoCollScan(mongoTemplate, ServerEntry.class, ServerDictionary.byServerId(7));
+    }
+}
@@ -0,0 +1,158 @@
+package com.infrasight.service;
+
+import com.infrasight.data.AwardUpdate;
+import com.infrasight.data.LeaderboardDelta;
+import com.infrasight.data.LeaderboardEntry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LiveUpdatesTest {
+
+    private final RankIndex ranks = new RankIndex();
+    private final List<Runnable> sends = new ArrayList<>();
+    private LiveUpdates live;
+
+    @BeforeEach
+    void setUp() {
+        live = new LiveUpdates(ranks, 8, 3, sends::add, () -> 0L);
+    }
+
+    @Test
+    void testBurstOfAwardsIsSentAsOneEvent() {
+        Recording alice = subscribe("alice");
+        ranks.update("alice", 5, "eng", "Alice");
+        live.awarded("alice", 5, 5, List.of());
+        ranks.update("alice", 12, "eng", "Alice");
+        live.awarded("alice", 7, 12, List.of("first_command"));
+        live.awarded("bob", 3, 3, List.of());
+
+        flush();
+
+        assertEquals(List.of("award", "rank"), alice.names());
+        AwardUpdate award = (AwardUpdate) alice.data("award");
+        assertEquals(12, award.getPoints());
+        assertEquals(12, award.getTotalPoints());
+        assertEquals(List.of("first_command"), award.getBadges());
+        assertEquals(1, ((LeaderboardEntry) alice.data("rank")).getRank());
+    }
+
+    @Test
+    void testTopChangesAreSentAsDeltas() {
+        ranks.update("a", 30, "eng", "A");
+        ranks.update("b", 20, "eng", "B");
+        ranks.update("c", 10, "ops", "C");
+        ranks.update("d", 5, "ops", "D");
+        Recording d = subscribe("d");
+        Recording c = subscribe("c", false);
+        flush();
+        d.events.clear();
+        c.events.clear();
+
+        ranks.update("d", 15, "ops", "D");
+        ranks.update("d", 25, "ops", "D");
+        flush();
+
+        assertEquals(List.of("rank", "leaderboard"), d.names());
+        LeaderboardDelta delta = (LeaderboardDelta) d.data("leaderboard");
+        assertEquals(List.of("d", "b"), delta.getEntries().stream().map(LeaderboardEntry::getUserId)
+                .collect(Collectors.toList()));
+        assertEquals(2, delta.getEntries().get(0).getRank());
+        assertEquals(List.of("c"), delta.getRemoved());
+        // without the leaderboard, c only hears that their own rank moved
+        assertEquals(List.of("rank"), c.names());
+    }
+
+    @Test
+    void testSlowSubscriberIsResynced() {
+        Recording alice = subscribe("alice");
+        live.awarded("alice", 1, 1, List.of());
+        live.tick();
+        // the first send has not run yet, so later awards pile up behind it
+        live.awarded("alice", 1, 2, List.of("b1", "b2", "b3"));
+        live.tick();
+        assertEquals(1, sends.size());
+        live.awarded("alice", 1, 3, List.of("b4", "b5", "b6", "b7"));
+
+        flush();
+
+        assertEquals(List.of("resync"), alice.names());
+        assertEquals(1, live.resyncs());
+    }
+
+    @Test
+    void testFailedSendClosesTheStream() {
+        Recording alice = subscribe("alice");
+        alice.broken = true;
+        assertEquals(1, live.connections());
+
+        live.awarded("alice", 1, 1, List.of());
+        flush();
+
+        assertEquals(0, live.connections());
+    }
+
+    private Recording subscribe(String userId) {
+        return subscribe(userId, true);
+    }
+
+    private Recording subscribe(String userId, boolean leaderboard) {
+        Recording emitter = new Recording();
+        live.subscribe(userId, leaderboard, emitter);
+        return emitter;
+    }
+
+    private void flush() {
+        live.tick();
+        List<Runnable> due = new ArrayList<>(sends);
+        sends.clear();
+        due.forEach(Runnable::run);
+    }
+
+    private static final class Recording extends SseEmitter {
+        private static final Pattern NAME = Pattern.compile("event:(\\w+)");
+
+        private final List<Object[]> events = new ArrayList<>();
+        private boolean broken;
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            if (broken) {
+                throw new IOException("Broken pipe");
+            }
+            String name = null;
+            Object data = null;
+            for (ResponseBodyEmitter.DataWithMediaType part : builder.build()) {
+                Matcher m = part.getData() instanceof String ? NAME.matcher((String) part.getData()) : null;
+                if (m != null && m.find()) {
+                    name = m.group(1);
+                } else if (!(part.getData() instanceof String)) {
+                    data = part.getData();
+                }
+            }
+            if (name != null) {
+                events.add(new Object[]{name, data});
+            }
+        }
+
+        List<String> names() {
+            List<String> names = new ArrayList<>();
+            events.forEach(e -> names.add((String) e[0]));
+            return names;
+        }
+
+        Object data(String name) {
+            return events.stream().filter(e -> e[0].equals(name)).findFirst().map(e -> e[1]).orElse(null);
+        }
+    }
+}
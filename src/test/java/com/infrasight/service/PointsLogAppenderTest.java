@@ -0,0 +1,105 @@
+package com.infrasight.service;
+
+import com.infrasight.db.model.PointsLog;
+import com.infrasight.db.repository.PointsLogRepository;
+import com.mongodb.bulk.BulkWriteError;
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.BulkOperationException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class PointsLogAppenderTest {
+
+    @Mock
+    private PointsLogRepository repository;
+
+    @Test
+    void testFailedBulkFlushIsWrittenEntryByEntry() {
+        PointsLog a = entry("a");
+        PointsLog b = entry("b");
+        PointsLog c = entry("c");
+        doThrow(new DataAccessResourceFailureException("down")).when(repository).appendAll(anyList());
+        doThrow(new DataAccessResourceFailureException("down")).doNothing().when(repository).append(a);
+        doThrow(new DuplicateKeyException("already logged")).when(repository).append(b);
+
+        List<PointsLog> rejected = new ArrayList<>();
+
+        new PointsLogAppender(repository, false, 1).flush(queued(rejected::add, a, b, c));
+
+        verify(repository, times(3)).appendAll(anyList());
+        verify(repository, times(2)).append(a);
+        verify(repository).append(b);
+        verify(repository).append(c);
+        // the failed bulk writes may have written b, so its duplicate is not a rejection
+        assertTrue(rejected.isEmpty());
+    }
+
+    @Test
+    void testDuplicateRejectedOnFlushIsPassedBack() {
+        PointsLog a = entry("a");
+        PointsLog b = entry("b");
+        PointsLog c = entry("c");
+        BulkOperationException duplicate = mock(BulkOperationException.class);
+        when(duplicate.getErrors()).thenReturn(List.of(new BulkWriteError(11000, "dup", new BsonDocument(), 1)));
+        doThrow(duplicate).when(repository).appendAll(anyList());
+        List<PointsLog> rejected = new ArrayList<>();
+
+        new PointsLogAppender(repository, false, 1).flush(queued(rejected::add, a, b, c));
+
+        verify(repository).appendAll(List.of(a, b, c));
+        verify(repository, never()).append(any());
+        assertEquals(List.of(b), rejected);
+    }
+
+    @Test
+    void testQueuedActionIsPendingUntilWritten() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(inv -> {
+            release.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(repository).appendAll(anyList());
+        PointsLogAppender appender = new PointsLogAppender(repository, true, 1);
+        appender.start();
+        try {
+            appender.append(List.of(entry("a")), null);
+
+            assertTrue(appender.isPending("a"));
+            assertFalse(appender.isPending("b"));
+            release.countDown();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (appender.isPending("a") && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertFalse(appender.isPending("a"));
+        } finally {
+            release.countDown();
+            appender.stop();
+        }
+    }
+
+    private static List<PointsLogAppender.Queued> queued(Consumer<PointsLog> onRejected, PointsLog... entries) {
+        return Arrays.stream(entries).map(e -> new PointsLogAppender.Queued(e, onRejected)).collect(Collectors.toList());
+    }
+
+    private static PointsLog entry(String actionUuid) {
+        return PointsLog.builder().userId("alice").event("command").pointsAwarded(1).actionUuid(actionUuid).build();
+    }
+}
@@ -0,0 +1,88 @@
+package com.infrasight.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.infrasight.db.model.PointsLog;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PointsLogArchiveTest {
+
+    private static final LocalDate DAY = LocalDate.of(2024, 3, 1);
+
+    @TempDir
+    Path dir;
+
+    private PointsLogArchive archive;
+
+    @BeforeEach
+    void setUp() {
+        ObjectMapper mapper = new ObjectMapper().findAndRegisterModules()
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        archive = new PointsLogArchive(mapper, dir.toString(), 4);
+    }
+
+    @Test
+    void testCommittedSegmentIsReadBackPerUser() throws Exception {
+        try (PointsLogArchive.Segment segment = archive.open(DAY)) {
+            segment.add("alice", List.of(entry("alice", "a1", 5), entry("alice", "a2", 7)));
+            segment.add("bob", List.of(entry("bob", "b1", 3)));
+            segment.commit();
+        }
+
+        assertTrue(archive.isArchived(DAY));
+        List<PointsLog> alice = archive.find("alice", DAY.minusDays(3), DAY.plusDays(3));
+        assertEquals(2, alice.size());
+        assertEquals("a1", alice.get(0).getActionUuid());
+        assertEquals(7, alice.get(1).getPointsAwarded());
+        assertEquals(DAY, alice.get(1).getTimestamp());
+        assertEquals(1, archive.find("bob", DAY, DAY).size());
+        assertTrue(archive.find("carol", DAY, DAY).isEmpty());
+    }
+
+    @Test
+    void testUncommittedSegmentIsDiscarded() throws Exception {
+        try (PointsLogArchive.Segment segment = archive.open(DAY)) {
+            segment.add("alice", List.of(entry("alice", "a1", 5)));
+        }
+
+        assertFalse(archive.isArchived(DAY));
+        assertTrue(archive.find("alice", DAY, DAY).isEmpty());
+    }
+
+    @Test
+    void testDaysListsArchivedDaysInRange() throws Exception {
+        LocalDate nextYear = DAY.plusDays(400);
+        for (LocalDate day : List.of(DAY, nextYear)) {
+            try (PointsLogArchive.Segment segment = archive.open(day)) {
+                segment.add("alice", List.of(entry("alice", "a" + day, 5)));
+                segment.commit();
+            }
+        }
+        try (PointsLogArchive.Segment segment = archive.open(DAY.plusDays(1))) {
+            segment.add("alice", List.of(entry("alice", "uncommitted", 5)));
+        }
+
+        assertEquals(List.of(DAY, nextYear), List.copyOf(archive.days(LocalDate.MIN, LocalDate.MAX)));
+        assertEquals(List.of(nextYear), List.copyOf(archive.days(DAY.plusDays(1), LocalDate.MAX)));
+        assertTrue(archive.days(nextYear, DAY).isEmpty());
+        assertEquals(2, archive.find("alice", LocalDate.MIN, LocalDate.MAX).size());
+    }
+
+    private static PointsLog entry(String userId, String uuid, int points) {
+        return PointsLog.builder()
+                .userId(userId)
+                .event("cmd")
+                .pointsAwarded(points)
+                .timestamp(DAY)
+                .actionUuid(uuid)
+                .build();
+    }
+}
@@ -0,0 +1,172 @@
+package com.infrasight.service;
+
+import com.infrasight.data.LeaderboardCursor;
+import com.infrasight.data.LeaderboardEntry;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RankIndexTest {
+
+    @Test
+    void testRanksByPointsThenUserId() {
+        RankIndex index = new RankIndex();
+        index.update("carol", 50, null, null);
+        index.update("alice", 80, null, null);
+        index.update("bob", 50, null, null);
+
+        assertEquals(1, index.get("alice").getRank());
+        assertEquals(2, index.get("bob").getRank());
+        assertEquals(3, index.get("carol").getRank());
+        assertNull(index.get("dave"));
+
+        index.update("carol", 90, null, null);
+        assertEquals(1, index.get("carol").getRank());
+        assertEquals(3, index.get("bob").getRank());
+        assertEquals(List.of("carol", "alice"), userIds(index.top(2)));
+
+        index.remove("alice");
+        assertEquals(2, index.size());
+        assertEquals(2, index.get("bob").getRank());
+    }
+
+    @Test
+    void testAroundIsClampedAtBothEnds() {
+        RankIndex index = new RankIndex();
+        for (int i = 0; i < 10; i++) {
+            index.update("u" + i, 100 - i, null, null);
+        }
+
+        assertEquals(List.of("u3", "u4", "u5", "u6", "u7"), userIds(index.around("u5", 2)));
+        assertEquals(List.of("u0", "u1", "u2"), userIds(index.around("u0", 2)));
+        assertEquals(List.of("u7", "u8", "u9"), userIds(index.around("u9", 2)));
+        assertTrue(index.around("nobody", 2).isEmpty());
+        assertTrue(index.range(10, 5).isEmpty());
+    }
+
+    @Test
+    void testAfterContinuesBelowTheCursorPosition() {
+        RankIndex index = new RankIndex();
+        for (int i = 0; i < 10; i++) {
+            index.update("u" + i, 100 - i, null, null);
+        }
+
+        List<LeaderboardEntry> page = index.after(97, "u3", 3);
+        assertEquals(List.of("u4", "u5", "u6"), userIds(page));
+        assertEquals(5, page.get(0).getRank());
+
+        // the cursor's user moving does not shift the next page
+        index.update("u3", 10, null, null);
+        assertEquals(List.of("u4", "u5", "u6"), userIds(index.after(97, "u3", 3)));
+        assertEquals(List.of("u8", "u9", "u3"), userIds(index.after(93, "u7", 5)));
+        assertTrue(index.after(0, "zzz", 5).isEmpty());
+    }
+
+    @Test
+    void testDepartmentsAreRankedSeparately() {
+        RankIndex index = new RankIndex();
+        index.update("alice", 90, "ops", null);
+        index.update("bob", 80, "dev", null);
+        index.update("carol", 70, "ops", null);
+        index.update("dave", 60, "ops", null);
+
+        assertEquals(List.of("alice", "carol", "dave"), userIds(index.range("ops", 0, 10)));
+        assertEquals(3, index.size("ops"));
+        assertEquals(2, index.get("ops", "carol").getRank());
+        assertEquals(3, index.get("carol").getRank());
+        assertNull(index.get("dev", "carol"));
+        assertEquals(List.of("dave"), userIds(index.after("ops", 70, "carol", 10)));
+
+        index.update("carol", 70, "dev", null);
+        assertEquals(List.of("alice", "dave"), userIds(index.range("ops", 0, 10)));
+        assertEquals(List.of("bob", "carol"), userIds(index.range("dev", 0, 10)));
+        assertEquals(0, index.size("qa"));
+        assertTrue(index.range("qa", 0, 10).isEmpty());
+    }
+
+    @Test
+    void testDeleteEventRemovesOnlyThatUser() {
+        RankIndex index = new RankIndex();
+        index.changed("d1", new Document("userId", "alice").append("totalPoints", 90).append("department", "ops"));
+        index.changed("d2", new Document("userId", "bob").append("totalPoints", 80).append("department", "ops"));
+        index.changed("d3", new Document("userId", "carol").append("totalPoints", 70));
+
+        index.deleted("d1");
+        index.deleted("unknown");
+
+        assertNull(index.get("alice"));
+        assertEquals(List.of("bob", "carol"), userIds(index.top(10)));
+        assertEquals(1, index.get("ops", "bob").getRank());
+        assertEquals(1, index.size("ops"));
+    }
+
+    @Test
+    void testNameSearchMatchesWordPrefixesBestRankedFirst() {
+        RankIndex index = new RankIndex();
+        index.update("u1", 10, "ops", "Ada Lovelace");
+        index.update("u2", 50, "dev", "Adam Smith");
+        index.update("u3", 30, "ops", "Zo\u00eb Adair");
+        index.update("u4", 40, "ops", "Grace Hopper");
+
+        assertEquals(List.of("u2", "u3", "u1"), userIds(index.search("AD", null, 10)));
+        assertEquals(List.of("u2"), userIds(index.search("ad", null, 1)));
+        assertEquals(List.of("u3"), userIds(index.search("zoe", null, 10)));
+        assertEquals(List.of("u1"), userIds(index.search("ada l", null, 10)));
+        assertEquals(3, index.search("adair", null, 10).get(0).getRank());
+        assertEquals(List.of("u3", "u1"), userIds(index.search("ad", "ops", 10)));
+        assertTrue(index.search("  ", null, 10).isEmpty());
+
+        index.update("u2", 50, "dev", "Bob Smith");
+        assertEquals(List.of("u3", "u1"), userIds(index.search("ad", null, 10)));
+        assertEquals("Bob Smith", index.search("smi", null, 10).get(0).getName());
+        index.remove("u3");
+        assertEquals(List.of("u1"), userIds(index.search("ad", null, 10)));
+    }
+
+    @Test
+    void testCursorTokenRoundTrips() {
+        LeaderboardCursor cursor = new LeaderboardCursor(42, "user:with:colons", 7);
+
+        assertEquals(cursor, LeaderboardCursor.decode(cursor.encode()));
+        assertThrows(IllegalArgumentException.class, () -> LeaderboardCursor.decode("not a cursor"));
+    }
+
+    @Test
+    void testMatchesSortedOrderUnderRandomUpdates() {
+        RankIndex index = new RankIndex();
+        Map<String, Integer> expected = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 20_000; i++) {
+            String userId = "u" + random.nextInt(500);
+            if (random.nextInt(10) == 0) {
+                index.remove(userId);
+                expected.remove(userId);
+            } else {
+                int points = random.nextInt(200);
+                index.update(userId, points, null, null);
+                expected.put(userId, points);
+            }
+        }
+
+        List<String> sorted = new ArrayList<>(expected.keySet());
+        sorted.sort(Comparator.<String>comparingInt(expected::get).reversed().thenComparing(Comparator.naturalOrder()));
+        assertEquals(sorted, userIds(index.range(0, sorted.size())));
+        for (int rank = 1; rank <= sorted.size(); rank += 37) {
+            assertEquals(rank, index.get(sorted.get(rank - 1)).getRank());
+            assertEquals(sorted.subList(rank - 1, Math.min(sorted.size(), rank + 9)), userIds(index.range(rank - 1, 10)));
+        }
+    }
+
+    private static List<String> userIds(List<LeaderboardEntry> entries) {
+        return entries.stream().map(LeaderboardEntry::getUserId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,48 @@
+package com.infrasight.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecentActionFilterTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final RecentActionFilter filter =
+            new RecentActionFilter(10_000, 0.01, Duration.ofMinutes(10), now::get);
+
+    @Test
+    void testSecondSightingIsReported() {
+        assertFalse(filter.checkAndAdd("uuid-1"));
+        assertTrue(filter.checkAndAdd("uuid-1"));
+        assertTrue(filter.mightContain("uuid-1"));
+        assertFalse(filter.mightContain("uuid-2"));
+    }
+
+    @Test
+    void testFalsePositiveRateNearTarget() {
+        for (int i = 0; i < 10_000; i++) {
+            filter.checkAndAdd("seen-" + i);
+        }
+        int hits = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (filter.mightContain("other-" + i)) {
+                hits++;
+            }
+        }
+        assertTrue(hits < 300, "false positives: " + hits);
+    }
+
+    @Test
+    void testEntriesExpireAfterTwoWindows() {
+        filter.checkAndAdd("uuid-1");
+
+        now.addAndGet(Duration.ofMinutes(11).toNanos());
+        assertTrue(filter.mightContain("uuid-1"));
+
+        now.addAndGet(Duration.ofMinutes(11).toNanos());
+        assertFalse(filter.mightContain("uuid-1"));
+    }
+}
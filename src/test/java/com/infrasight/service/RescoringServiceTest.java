@@ -0,0 +1,101 @@
+package com.infrasight.service;
+
+import com.infrasight.db.model.GamifyConfigDoc;
+import com.infrasight.db.model.PointsLog;
+import com.infrasight.db.model.RescoreDiff;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RescoringServiceTest {
+
+    private final LocalDate day = LocalDate.of(2024, 3, 15);
+
+    private RescoringService service;
+    private GamifyConfigDoc candidate;
+
+    @BeforeEach
+    void setUp() {
+        service = new RescoringService(null, null, null, new GamificationCalculator(), null);
+        candidate = new GamifyConfigDoc();
+        candidate.setBaseScore(10);
+        candidate.setLoginPoints(8);
+        candidate.setWelcomeBackBonus(20);
+        candidate.setWelcomeBackGap(7);
+    }
+
+    @Test
+    void testReplaysUserInOrderAndExcludesBadgeBonus() {
+        List<PointsLog> events = Arrays.asList(
+                entry("login", day, 5, 0, 3),
+                entry("exec", day, 60, 50, 3),
+                entry("login", day.plusDays(1), 5, 0, 4),
+                entry(BadgeBackfillService.BACKFILL_EVENT, day.plusDays(1), 100, 100, 0));
+
+        RescoreDiff diff = service.rescoreUser("run1", events, entry("exec", day.minusDays(1), 10, 0, 2),
+                ScoringPlan.compile(candidate));
+
+        assertEquals("run1:u1", diff.getId());
+        assertEquals(3, diff.getEvents());
+        assertEquals(5 + 10 + 5, diff.getOldPoints());
+        assertEquals(8 + 10 + 8, diff.getNewPoints());
+        assertEquals(6, diff.getDiff());
+    }
+
+    @Test
+    void testWelcomeBackWithinRangeIsRescored() {
+        List<PointsLog> events = Arrays.asList(
+                entry("login", day, 5, 0, 2),
+                entry("login", day.plusDays(10), 25, 0, 1));
+
+        RescoreDiff diff = service.rescoreUser("run1", events, entry("login", day.minusDays(1), 5, 0, 1),
+                ScoringPlan.compile(candidate));
+
+        assertEquals(8 + 8 + 20, diff.getNewPoints());
+        assertEquals(6, diff.getDiff());
+    }
+
+    @Test
+    void testFirstEventIsScoredAgainstStateBeforeTheRange() {
+        List<PointsLog> events = Arrays.asList(
+                entry("login", day, 25, 0, 1),
+                entry("login", day.plusDays(1), 5, 0, 2));
+
+        // last seen ten days before the range: the first login is a welcome back
+        RescoreDiff diff = service.rescoreUser("run1", events, entry("login", day.minusDays(10), 5, 0, 4),
+                ScoringPlan.compile(candidate));
+
+        assertEquals(8 + 20 + 8, diff.getNewPoints());
+        assertEquals(6, diff.getDiff());
+    }
+
+    @Test
+    void testRangeAtStartOfLogReplaysFromNewUser() {
+        List<PointsLog> events = Arrays.asList(
+                entry("login", day, 25, 0, 1),
+                entry("login", day.plusDays(1), 5, 0, 2));
+
+        RescoreDiff diff = service.rescoreUser("run1", events, null, ScoringPlan.compile(candidate));
+
+        // a first-ever login counts as a welcome back, as it does live
+        assertEquals(8 + 20 + 8, diff.getNewPoints());
+        assertEquals(6, diff.getDiff());
+    }
+
+    private PointsLog entry(String event, LocalDate timestamp, int points, int badgeBonus, int streak) {
+        return PointsLog.builder()
+                .userId("u1")
+                .event(event)
+                .timestamp(timestamp)
+                .pointsAwarded(points)
+                .badgeBonus(badgeBonus)
+                .streakDays(streak)
+                .environment("dev")
+                .build();
+    }
+}
@@ -0,0 +1,80 @@
+package com.infrasight.service;
+
+import com.infrasight.db.model.GamifyConfigDoc;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScoringPlanTest {
+
+    private ScoringPlan plan;
+
+    @BeforeEach
+    void setUp() {
+        GamifyConfigDoc config = new GamifyConfigDoc();
+        config.setBaseScore(10);
+
+        Map<String, Double> commandWeight = new HashMap<>();
+        commandWeight.put("default", 1.0);
+        commandWeight.put("param", 1.2);
+        config.setCommandWeight(commandWeight);
+
+        Map<String, Double> parameterWeight = new HashMap<>();
+        parameterWeight.put("simple", 1.0);
+        parameterWeight.put("regex", 3.0);
+        parameterWeight.put("wildcard", 2.0);
+        config.setParameterWeight(parameterWeight);
+
+        Map<String, Double> accessTierWeight = new HashMap<>();
+        accessTierWeight.put("dev", 0.8);
+        accessTierWeight.put("prod", 1.2);
+        config.setAccessTierWeight(accessTierWeight);
+
+        GamifyConfigDoc.ServerScaling scaling = new GamifyConfigDoc.ServerScaling();
+        scaling.setFunction("log");
+        scaling.setLogBase(2);
+        config.setServerScaling(scaling);
+
+        Map<Integer, Double> streakMultiplier = new HashMap<>();
+        streakMultiplier.put(1, 1.0);
+        streakMultiplier.put(3, 1.1);
+        streakMultiplier.put(7, 1.2);
+        config.setStreakMultiplier(streakMultiplier);
+
+        plan = ScoringPlan.compile(config);
+    }
+
+    @Test
+    void testStreakMultiplierPicksHighestReachedThreshold() {
+        assertEquals(1.0, plan.streakMultiplier(0));
+        assertEquals(1.0, plan.streakMultiplier(2));
+        assertEquals(1.1, plan.streakMultiplier(3));
+        assertEquals(1.1, plan.streakMultiplier(6));
+        assertEquals(1.2, plan.streakMultiplier(365));
+    }
+
+    @Test
+    void testParameterClassification() {
+        assertEquals(5, plan.complexityScore(Collections.singletonList("hostname")));
+        assertEquals(10, plan.complexityScore(Collections.singletonList("web-*")));
+        assertEquals(15, plan.complexityScore(Collections.singletonList("^db[0-9]$")));
+        // wildcard wins over regex metacharacters
+        assertEquals(10, plan.complexityScore(Collections.singletonList("[ab]?")));
+    }
+
+    @Test
+    void testCommandDeltaMatchesConfigFormula() {
+        // ceil((10 + 15) * 1.2 * 1.2 * (1 + log2(2) * 0.1) * 1.1) = ceil(43.56)
+        int delta = plan.commandDelta(Arrays.asList("^db$"), "prod", 2, 3);
+        assertEquals(44, delta);
+
+        // no parameters, unknown environment, single server, no streak
+        assertEquals(10, plan.commandDelta(null, "lab", 1, 0));
+    }
+}
@@ -0,0 +1,64 @@
+package com.infrasight.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserLanesTest {
+
+    private final UserLanes lanes = new UserLanes(16, Duration.ofMillis(200), null);
+
+    @Test
+    void testSameUserIsSerialized() throws Exception {
+        AtomicInteger inside = new AtomicInteger();
+        AtomicInteger maxInside = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            for (int i = 0; i < 200; i++) {
+                pool.submit(() -> lanes.run("user-1", () -> {
+                    maxInside.accumulateAndGet(inside.incrementAndGet(), Math::max);
+                    inside.decrementAndGet();
+                    return null;
+                }));
+            }
+        } finally {
+            pool.shutdown();
+            assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, maxInside.get());
+    }
+
+    @Test
+    void testBusyLaneFailsAfterBoundedWait() throws Exception {
+        CountDownLatch held = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> holder = pool.submit(() -> lanes.run("user-1", () -> {
+                held.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }));
+            held.await();
+
+            assertThrows(UserLanes.BusyException.class, () -> lanes.run("user-1", () -> null));
+            release.countDown();
+            holder.get();
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals("ok", lanes.run("user-1", () -> "ok"));
+    }
+}
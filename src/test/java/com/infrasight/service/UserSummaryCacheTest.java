@@ -0,0 +1,94 @@
+package com.infrasight.service;
+
+import com.infrasight.data.UserSummary;
+import com.infrasight.db.model.UserGamify;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserSummaryCacheTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    void testHitWithinTtlAndReloadAfter() {
+        UserSummaryCache cache = new UserSummaryCache(100, Duration.ofSeconds(30), now::get);
+
+        assertEquals(10, cache.get("alice", id -> load(id, 10)).getTotalPoints());
+        assertEquals(10, cache.get("alice", id -> load(id, 99)).getTotalPoints());
+        assertEquals(1, loads.get());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(31));
+        assertEquals(20, cache.get("alice", id -> load(id, 20)).getTotalPoints());
+        assertEquals(2, loads.get());
+        assertEquals(1, cache.hits());
+        assertEquals(2, cache.misses());
+        assertEquals(1, cache.evictions());
+    }
+
+    @Test
+    void testWriteThroughIsServedWithoutLoading() {
+        UserSummaryCache cache = new UserSummaryCache(100, Duration.ofSeconds(30), now::get);
+        cache.put(load("alice", 42));
+        loads.set(0);
+
+        assertEquals(42, cache.get("alice", id -> load(id, 0)).getTotalPoints());
+        assertEquals(0, loads.get());
+    }
+
+    @Test
+    void testSizeIsBounded() {
+        UserSummaryCache cache = new UserSummaryCache(160, Duration.ofMinutes(5), now::get);
+        for (int i = 0; i < 10_000; i++) {
+            cache.put(load("user-" + i, i));
+        }
+
+        assertTrue(cache.size() <= 160, "size " + cache.size());
+        assertEquals(10_000 - cache.size(), cache.evictions());
+    }
+
+    @Test
+    void testRefreshOnlyTouchesCachedUsers() {
+        UserSummaryCache cache = new UserSummaryCache(100, Duration.ofSeconds(30), now::get);
+        cache.put(load("alice", 1));
+
+        cache.refresh(load("alice", 2));
+        cache.refresh(load("bob", 3));
+
+        assertEquals(2, cache.get("alice", id -> load(id, 0)).getTotalPoints());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void testLoadDoesNotOverwriteWritesMadeWhileLoading() {
+        UserSummaryCache cache = new UserSummaryCache(100, Duration.ofSeconds(30), now::get);
+
+        UserSummary stale = cache.get("alice", id -> {
+            cache.put(load(id, 2));
+            return load(id, 1);
+        });
+        UserSummary refreshed = cache.get("bob", id -> {
+            cache.refresh(load(id, 4));
+            return load(id, 3);
+        });
+
+        assertEquals(1, stale.getTotalPoints());
+        assertEquals(3, refreshed.getTotalPoints());
+        assertEquals(2, cache.get("alice", id -> load(id, 0)).getTotalPoints());
+        assertEquals(4, cache.get("bob", id -> load(id, 0)).getTotalPoints());
+    }
+
+    private UserSummary load(String userId, int points) {
+        loads.incrementAndGet();
+        UserGamify user = new UserGamify();
+        user.setUserId(userId);
+        user.setTotalPoints(points);
+        return UserSummary.of(user);
+    }
+}